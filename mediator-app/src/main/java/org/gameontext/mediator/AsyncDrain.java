@@ -0,0 +1,307 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.gameontext.mediator.metrics.MediatorMetrics;
+import org.gameontext.mediator.metrics.MediatorMetrics.Direction;
+
+/**
+ * A drain that neither owns nor borrows a thread: messages are written with
+ * {@link Session#getAsyncRemote()}, and each completed write starts the
+ * next one.
+ * <p>
+ * There is at most one write outstanding per session (the container
+ * doesn't allow more), which also preserves ordering. Whoever finds the
+ * drain idle (a caller of {@link #send(RoutedMessage)}, or the completion
+ * of the previous write) starts writing. Writes that complete before
+ * {@code sendText} returns are picked up by the loop in {@link #write()}
+ * rather than by recursion, so a long queue doesn't grow the stack.
+ * </p>
+ * <p>
+ * When the container allows it, batching is enabled on the session: frames
+ * written while more messages are ready are buffered by the container, and
+ * flushed together when the queue is empty (or every {@link #BATCH_SIZE}
+ * messages). Each message is still its own frame, as clients and rooms
+ * expect.
+ * </p>
+ *
+ * @see WSDrain
+ * @see DispatchedDrain
+ */
+class AsyncDrain implements Drain, SendHandler {
+
+    /** Maximum number of frames buffered by the container before they are flushed */
+    static final int BATCH_SIZE = 32;
+
+    /** The write has been started: {@code sendText} has not returned, and the callback has not run */
+    private static final int WRITING = 0;
+    /** {@code sendText} returned before the callback ran: the callback continues */
+    private static final int RETURNED = 1;
+    /** The callback ran before {@code sendText} returned: the writing loop continues */
+    private static final int COMPLETED = 2;
+
+    private final String id;
+    private KeepAliveWheel.Entry keepAlive;
+    private volatile Session targetSession;
+    private volatile RemoteEndpoint.Async remote;
+    final boolean wsToRoom;
+
+    /** Queue of messages */
+    private final DrainQueue pendingMessages;
+
+    /** True while a thread (or a write callback) is writing for this drain */
+    private final AtomicBoolean writing = new AtomicBoolean(false);
+
+    /** State of the outstanding write */
+    private final AtomicInteger writeState = new AtomicInteger(COMPLETED);
+
+    /** The message being written (only used by the writer) */
+    private QueuedMessage inFlight;
+
+    /** Frames written since the last flush (only used by the writer) */
+    private int unflushed = 0;
+
+    private boolean batching = false;
+
+    /** True if the last write failed: wait for the next message (or stop) before trying again */
+    private volatile boolean failed = false;
+
+    /** True once the target session has been closed */
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    private volatile boolean started = false;
+    private volatile boolean keepGoing = true;
+
+    /**
+     * Construct a drain for an outbound client connection.
+     *
+     * @param id
+     *            An identifier for the drain (used in logs)
+     * @param targetSession
+     *            The target session to publish queued messages
+     */
+    public AsyncDrain(String id, Session targetSession) {
+        this.id = id;
+        this.targetSession = targetSession;
+        this.pendingMessages = new DrainQueue(id, false);
+        this.wsToRoom = false; // outbound client connection
+    }
+
+    /**
+     * Construct a drain for a connection to a room: the session is provided
+     * via {@link #start(Session)} once the connection is open.
+     *
+     * @param id
+     *            An identifier for the drain (used in logs)
+     */
+    public AsyncDrain(String id) {
+        this.id = id;
+        this.pendingMessages = new DrainQueue(id, true);
+        this.wsToRoom = true; // incoming server connection
+    }
+
+    @Override
+    public void send(RoutedMessage message) {
+        if ( !pendingMessages.offer(new QueuedMessage(message)) ) {
+            Log.log(Level.FINEST, this, "Queue full, dropped message for {0}: {1}", id, message);
+        }
+        if ( pendingMessages.isOverloaded() && keepGoing ) {
+            Log.log(Level.INFO, this, "Closing session for {0}: {1} messages waiting", id, pendingMessages.size());
+            MediatorMetrics.slowConsumer();
+            close(new CloseReason(CloseCodes.TRY_AGAIN_LATER, "Too many messages waiting to be sent"));
+            stop();
+            return;
+        }
+        flush();
+    }
+
+    @Override
+    public void close(CloseReason reason) {
+        WSUtils.tryToClose(targetSession, reason);
+    }
+
+    @Override
+    public void start() {
+        if ( targetSession == null )
+            return;
+        open();
+    }
+
+    @Override
+    public void start(Session session) {
+        this.targetSession = session;
+        open();
+    }
+
+    private void open() {
+        RemoteEndpoint.Async async = targetSession.getAsyncRemote();
+        try {
+            async.setBatchingAllowed(true);
+            batching = async.getBatchingAllowed();
+        } catch (IOException | RuntimeException e) {
+            Log.log(Level.FINEST, this, "Batching not available for {0}: {1}", id, e);
+        }
+        remote = async;
+        started = true;
+        Log.log(Level.FINER, this, "DRAIN OPEN {0}, batching {1}", id, batching);
+        flush();
+    }
+
+    @Override
+    public void stop() {
+        keepGoing = false;
+
+        if ( keepAlive != null ) {
+            keepAlive.cancel();
+        }
+
+        // The session is closed once no write is outstanding
+        flush();
+    }
+
+    public void setKeepAlive(KeepAliveWheel.Entry keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Start writing, unless a write is already in progress (its completion
+     * will pick up new messages).
+     */
+    private void flush() {
+        if ( (started || !keepGoing) && !closed.get() && writing.compareAndSet(false, true) ) {
+            write();
+        }
+    }
+
+    /**
+     * Write messages until the queue is empty, or until a write doesn't
+     * complete right away. Only called by the owner of {@link #writing}.
+     */
+    private void write() {
+        while (true) {
+            if ( !keepGoing ) {
+                pendingMessages.close();
+                if ( closed.compareAndSet(false, true) ) {
+                    Log.log(Level.FINER, this, "DRAIN CLOSED {0}", id);
+                    WSUtils.tryToClose(targetSession);
+                }
+                writing.set(false);
+                return;
+            }
+
+            if ( failed ) {
+                failed = false;
+                writing.set(false);
+                return;
+            }
+
+            QueuedMessage queued = targetSession.isOpen() ? pendingMessages.poll() : null;
+            if ( queued == null || unflushed >= BATCH_SIZE ) {
+                flushBatch();
+            }
+            if ( queued == null ) {
+                writing.set(false);
+
+                // pick up anything that arrived after the poll
+                if ( (!pendingMessages.isEmpty() && targetSession.isOpen()) || !keepGoing ) {
+                    flush();
+                }
+                return;
+            }
+
+            if ( Log.isRelayLoggable() ) {
+                Log.relay(this, wsToRoom ? "C    M -> R : {0} {1}" : "C <- M    R : {0} {1}", queued.message, targetSession.getId());
+            }
+
+            inFlight = queued;
+            writeState.set(WRITING);
+            try {
+                remote.sendText(queued.message.encode(), this);
+            } catch (RuntimeException e) {
+                // IllegalStateException, or the session is gone: no callback
+                failed(e);
+                continue;
+            }
+
+            if ( writeState.compareAndSet(WRITING, RETURNED) ) {
+                // still in progress: the callback continues
+                return;
+            }
+            // completed already: keep going
+        }
+    }
+
+    /**
+     * Completion of the outstanding write.
+     */
+    @Override
+    public void onResult(SendResult result) {
+        QueuedMessage queued = inFlight;
+        if ( result.isOK() ) {
+            unflushed++;
+            MediatorMetrics.dequeued(queued.queuedAt);
+            MediatorMetrics.message(wsToRoom ? Direction.MEDIATOR_TO_ROOM : Direction.MEDIATOR_TO_CLIENT, queued.message);
+            Compression.sent(targetSession, queued.message);
+            if ( keepAlive != null ) {
+                keepAlive.touch();
+            }
+        } else {
+            failed(result.getException());
+        }
+
+        if ( writeState.compareAndSet(WRITING, COMPLETED) ) {
+            // sendText hasn't returned yet: the writing loop continues
+            return;
+        }
+        write();
+    }
+
+    /**
+     * A write failed: the connection is in a bad state. Keep the message
+     * (the drain may be stopped, or the session re-opened), and close the
+     * session.
+     */
+    private void failed(Throwable t) {
+        failed = true;
+        pendingMessages.offerFirst(inFlight);
+        Log.log(Level.FINEST, this, "Unexpected condition writing message", t);
+        WSUtils.tryToClose(targetSession, new CloseReason(CloseCodes.UNEXPECTED_CONDITION,
+                WSUtils.trimReason(String.valueOf(t))));
+    }
+
+    private void flushBatch() {
+        if ( batching && unflushed > 0 ) {
+            unflushed = 0;
+            try {
+                remote.flushBatch();
+            } catch (IOException e) {
+                Log.log(Level.FINEST, this, "Unexpected condition flushing messages", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,367 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.text.MessageFormat;
+import java.time.Instant;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+/**
+ * Asynchronous destination for {@link Log} records.
+ * <p>
+ * Threads that log only add the record to a bounded, lock-free ring buffer.
+ * A single writer thread takes records off the buffer, formats them as JSON
+ * (one record per line), and writes them in batches. When the buffer is
+ * full, records are either dropped (and counted), or the logging thread
+ * waits for space, depending on the {@link WhenFull} policy.
+ * </p>
+ * <p>
+ * Message arguments are formatted by the writer thread, after the call to
+ * {@code Log.log} has returned. Arguments that may change meanwhile (anything
+ * but strings, boxed primitives, enums and messages) are converted to strings
+ * when the record is created.
+ * </p>
+ * <p>
+ * If records can't be written, the failure is reported once (through
+ * {@code java.util.logging}), the lost records are counted as dropped, and
+ * the writer backs off until writes succeed again.
+ * </p>
+ */
+class AsyncLogSink {
+
+    enum WhenFull {
+        /** Drop the record, and count it */
+        DROP,
+        /** Wait for the writer to make space */
+        BLOCK
+    }
+
+    /** Maximum number of records written before the output is flushed */
+    static final int BATCH_SIZE = 256;
+
+    /** How long the writer waits before looking for new records */
+    static final long IDLE_PARK_NS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /** Longest wait before trying again after records couldn't be written */
+    static final long MAX_BACKOFF_NS = TimeUnit.SECONDS.toNanos(1);
+
+    /** A log record, as it waits in the buffer */
+    static class Entry {
+        final long time = System.currentTimeMillis();
+        final String thread = Thread.currentThread().getName();
+        final Level level;
+        final String logger;
+        final int source;
+        final String message;
+        final Object[] args;
+        final Throwable thrown;
+
+        Entry(Level level, String logger, int source, String message, Object[] args, Throwable thrown) {
+            this.level = level;
+            this.logger = logger;
+            this.source = source;
+            this.message = message;
+            this.args = snapshot(args);
+            this.thrown = thrown;
+        }
+
+        /**
+         * @return the arguments, with those that may change before they are
+         *         formatted replaced by their string value
+         */
+        static Object[] snapshot(Object[] args) {
+            if ( args == null ) {
+                return null;
+            }
+            Object[] result = args;
+            for (int i = 0; i < args.length; i++) {
+                if ( !isImmutable(args[i]) ) {
+                    if ( result == args ) {
+                        // don't change the caller's array
+                        result = args.clone();
+                    }
+                    result[i] = String.valueOf(args[i]);
+                }
+            }
+            return result;
+        }
+
+        private static boolean isImmutable(Object arg) {
+            return arg == null || arg instanceof String || arg instanceof Integer || arg instanceof Long
+                    || arg instanceof Boolean || arg instanceof Character || arg instanceof Double
+                    || arg instanceof Float || arg instanceof Short || arg instanceof Byte
+                    || arg instanceof Enum || arg instanceof RoutedMessage;
+        }
+    }
+
+    private final Writer out;
+    private final WhenFull whenFull;
+
+    // Ring buffer: each slot has a sequence number that says whether it is
+    // free for the producer claiming position n (sequence == n), or holds the
+    // record for position n (sequence == n + 1).
+    private final int mask;
+    private final AtomicReferenceArray<Entry> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head = 0;
+
+    private final Thread writer;
+    private volatile boolean keepGoing = true;
+
+    final LongAdder dropped = new LongAdder();
+    private long reportedDropped = 0;
+
+    /** Records lost because they couldn't be written (also counted as dropped) */
+    final LongAdder failed = new LongAdder();
+    private long reportedFailed = 0;
+
+    private final JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+    private final StringBuilder line = new StringBuilder(256);
+
+    /**
+     * @param out
+     *            Where JSON lines are written
+     * @param capacity
+     *            Maximum number of records waiting to be written (rounded up
+     *            to a power of 2)
+     * @param whenFull
+     *            What to do with new records when the buffer is full
+     * @param threadFactory
+     *            Creates the writer thread
+     */
+    AsyncLogSink(Writer out, int capacity, WhenFull whenFull, ThreadFactory threadFactory) {
+        this.out = out;
+        this.whenFull = whenFull;
+
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+
+        this.writer = threadFactory.newThread(this::write);
+    }
+
+    void start() {
+        writer.start();
+    }
+
+    /**
+     * Stop the writer, after it has written the records already in the buffer.
+     */
+    void stop() {
+        keepGoing = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return number of records waiting to be written
+     */
+    int size() {
+        return (int) (tail.get() - head);
+    }
+
+    /**
+     * Add a record to the buffer.
+     *
+     * @param entry
+     * @return false if the record was dropped
+     */
+    boolean offer(Entry entry) {
+        while ( !tryOffer(entry) ) {
+            if ( whenFull == WhenFull.DROP || !keepGoing ) {
+                dropped.increment();
+                return false;
+            }
+            LockSupport.parkNanos(IDLE_PARK_NS);
+        }
+        return true;
+    }
+
+    private boolean tryOffer(Entry entry) {
+        while (true) {
+            long t = tail.get();
+            int i = (int) t & mask;
+            long diff = sequences.get(i) - t;
+            if ( diff == 0 ) {
+                if ( tail.compareAndSet(t, t + 1) ) {
+                    slots.lazySet(i, entry);
+                    sequences.lazySet(i, t + 1);
+                    return true;
+                }
+            } else if ( diff < 0 ) {
+                // slot still holds a record from the previous lap: full
+                return false;
+            }
+            // else another producer claimed this position, try the next one
+        }
+    }
+
+    /**
+     * @return the next record, or null if there isn't one (yet). Only called
+     *         by the writer thread.
+     */
+    Entry poll() {
+        long h = head;
+        int i = (int) h & mask;
+        if ( sequences.get(i) != h + 1 ) {
+            return null;
+        }
+        Entry e = slots.get(i);
+        slots.lazySet(i, null);
+        sequences.lazySet(i, h + mask + 1);
+        head = h + 1;
+        return e;
+    }
+
+    private void write() {
+        long backoff = 0;
+        while ( keepGoing || size() > 0 ) {
+            try {
+                int count = writeBatch();
+                if ( count > 0 && backoff > 0 ) {
+                    Log.log(Level.INFO, this, "Writing log records again");
+                    backoff = 0;
+                }
+                if ( count == 0 ) {
+                    LockSupport.parkNanos(IDLE_PARK_NS);
+                }
+            } catch (Exception e) {
+                // the writer must keep going: report the failure once, and back off
+                if ( backoff == 0 ) {
+                    Log.log(Level.WARNING, this, "Unable to write log records, they will be dropped until writes succeed", e);
+                }
+                backoff = Math.min(MAX_BACKOFF_NS, Math.max(IDLE_PARK_NS, backoff * 2));
+                LockSupport.parkNanos(backoff);
+            }
+        }
+        try {
+            out.flush();
+        } catch (IOException e) {
+            Log.log(Level.WARNING, this, "Unable to flush log records", e);
+        }
+    }
+
+    /**
+     * Write up to {@link #BATCH_SIZE} records, then flush.
+     * @return number of records written
+     * @throws IOException
+     */
+    int writeBatch() throws IOException {
+        int count = 0;
+        int polled = 0;
+        try {
+            Entry e;
+            while ( polled < BATCH_SIZE && (e = poll()) != null ) {
+                polled++;
+                out.append(format(e));
+                count++;
+            }
+
+            long totalDropped = dropped.sum();
+            if ( totalDropped != reportedDropped ) {
+                long totalFailed = failed.sum();
+                out.append(format(totalFailed == reportedFailed
+                        ? new Entry(Level.WARNING, Log.class.getName(), 0, "{0} log records dropped (buffer full)",
+                                new Object[] { totalDropped - reportedDropped }, null)
+                        : new Entry(Level.WARNING, Log.class.getName(), 0, "{0} log records dropped ({1} could not be written)",
+                                new Object[] { totalDropped - reportedDropped, totalFailed - reportedFailed }, null)));
+                reportedDropped = totalDropped;
+                reportedFailed = totalFailed;
+                count++;
+            }
+
+            if ( count > 0 ) {
+                out.flush();
+            }
+            return count;
+        } catch (IOException | RuntimeException ex) {
+            // the records taken off the buffer are lost
+            dropped.add(polled);
+            failed.add(polled);
+            throw ex;
+        }
+    }
+
+    /**
+     * @param e
+     * @return the record as a line of JSON
+     */
+    CharSequence format(Entry e) {
+        line.setLength(0);
+        line.append("{\"time\":\"").append(Instant.ofEpochMilli(e.time)).append('"');
+        field("level", e.level.getName());
+        field("logger", e.logger);
+        field("thread", e.thread);
+        field("source", Integer.toHexString(e.source));
+        field("message", formatMessage(e));
+        if ( e.thrown != null ) {
+            StringWriter sw = new StringWriter();
+            e.thrown.printStackTrace(new PrintWriter(sw));
+            field("thrown", sw.toString());
+        }
+        return line.append("}\n");
+    }
+
+    private void field(String name, String value) {
+        line.append(",\"").append(name).append("\":\"").append(encoder.quoteAsString(String.valueOf(value))).append('"');
+    }
+
+    private static String formatMessage(Entry e) {
+        if ( e.args == null || e.args.length == 0 ) {
+            return e.message;
+        }
+        try {
+            return MessageFormat.format(e.message, e.args);
+        } catch (IllegalArgumentException ex) {
+            return e.message;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName()
+                + "[capacity=" + capacity()
+                + ", whenFull=" + whenFull
+                + ", dropped=" + dropped
+                + "]";
+    }
+}
@@ -126,7 +126,7 @@ public class ClientMediator implements UserView {
     }
 
     public void handleMessage(RoutedMessage message) {
-        Log.log(Level.FINEST, toClient, "handleMessage -- {0}", message);
+        Log.relay(toClient, "handleMessage -- {0}", message);
         if ( roomMediator != null ) {
             if ( message.isSOS() ) {
                 switchRooms(message);
@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.Deflater;
+
+import javax.websocket.Extension;
+import javax.websocket.Session;
+import javax.websocket.server.ServerEndpointConfig;
+
+import org.gameontext.mediator.metrics.MediatorMetrics;
+
+/**
+ * Per-message compression ({@code permessage-deflate}, RFC 7692) for client
+ * and room websockets.
+ * <p>
+ * Location responses, descriptions and help text are large and repetitive,
+ * and compress well. The extension is offered to rooms
+ * ({@link #requestedExtensions()}), and accepted from clients
+ * ({@link ServerConfigurator}), when the container supports it. Once
+ * negotiated, the container compresses every frame of the session:
+ * JSR 356 gives the application no control over individual frames.
+ * </p>
+ * <p>
+ * Optionally, to estimate what compression buys, one in
+ * {@link #SAMPLE_RATE} frames of at least {@link #sampleMinSize} characters
+ * sent on a compressed session is also deflated on the given executor (not on
+ * the sending thread), and the sizes and time are recorded (see
+ * {@link MediatorMetrics#deflated(int, int, long)}). Each sample is deflated
+ * on its own: a container that keeps the compression context between frames
+ * sends less, so the ratio is an upper bound. The time is that of this extra
+ * deflate, not what the container spends on the session. Sampling is off
+ * unless a minimum size is configured.
+ * </p>
+ */
+public final class Compression {
+
+    public static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+    /** One in this many frames (of at least the minimum size) is measured */
+    static final int SAMPLE_RATE = 16;
+
+    private static volatile boolean enabled = true;
+
+    /** Minimum size of sampled frames, 0 when sampling is off */
+    private static volatile int sampleMinSize = 0;
+
+    /** Deflates sampled frames */
+    private static volatile Executor sampleExecutor;
+
+    /** Frames eligible for sampling, per sending thread */
+    private static final ThreadLocal<int[]> frames = ThreadLocal.withInitial(() -> new int[1]);
+
+    /** Raw deflate, as used by permessage-deflate */
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[8192]);
+
+    /** The extension, without parameters */
+    static final Extension DEFLATE = new Extension() {
+        @Override
+        public String getName() {
+            return PERMESSAGE_DEFLATE;
+        }
+
+        @Override
+        public List<Parameter> getParameters() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public String toString() {
+            return PERMESSAGE_DEFLATE;
+        }
+    };
+
+    private Compression() {}
+
+    /**
+     * @param enable
+     *            {@code false} to turn compression off, anything else
+     *            (including null) to leave it on
+     * @param sampleSize
+     *            Minimum size of frames sampled for metrics, null (or 0)
+     *            to turn sampling off
+     * @param executor
+     *            Deflates sampled frames
+     */
+    static void configure(String enable, String sampleSize, Executor executor) {
+        // an unset environment variable leaves the ${...} reference as-is
+        enabled = !"false".equalsIgnoreCase(enable == null ? null : enable.trim());
+        int minSize = 0;
+        if ( sampleSize != null && !sampleSize.startsWith("${") ) {
+            try {
+                minSize = Math.max(0, Integer.parseInt(sampleSize.trim()));
+            } catch (NumberFormatException e) {
+                // not a number: no sampling
+            }
+        }
+        sampleExecutor = executor;
+        sampleMinSize = enabled && executor != null ? minSize : 0;
+    }
+
+    static String describe() {
+        if ( !enabled ) {
+            return "off";
+        }
+        return sampleMinSize > 0 ? PERMESSAGE_DEFLATE + " (frames of " + sampleMinSize + "+ characters sampled)" : PERMESSAGE_DEFLATE;
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    static int getSampleMinSize() {
+        return sampleMinSize;
+    }
+
+    /**
+     * @return the extensions to request when connecting to a room
+     */
+    public static List<Extension> requestedExtensions() {
+        return enabled ? Collections.singletonList(DEFLATE) : Collections.emptyList();
+    }
+
+    /**
+     * @param installed
+     *            Extensions supported by the container
+     * @param requested
+     *            Extensions requested by the client, in order of preference
+     * @return the client's permessage-deflate offer if the container
+     *         supports it (and compression is enabled), or nothing
+     */
+    static List<Extension> negotiate(List<Extension> installed, List<Extension> requested) {
+        if ( !enabled || !contains(installed) ) {
+            return Collections.emptyList();
+        }
+        for (Extension e : requested) {
+            if ( PERMESSAGE_DEFLATE.equals(e.getName()) ) {
+                return Collections.singletonList(e);
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * @param session
+     * @return true if the session's frames are compressed
+     */
+    public static boolean isNegotiated(Session session) {
+        return contains(session.getNegotiatedExtensions());
+    }
+
+    private static boolean contains(List<Extension> extensions) {
+        if ( extensions != null ) {
+            for (Extension e : extensions) {
+                if ( PERMESSAGE_DEFLATE.equals(e.getName()) ) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A message was sent on the given session: if sampling is on, hand a
+     * sample of large frames on compressed sessions to the executor to be
+     * measured.
+     *
+     * @param session
+     * @param message
+     */
+    public static void sent(Session session, RoutedMessage message) {
+        int minSize = sampleMinSize;
+        if ( minSize == 0 ) {
+            return;
+        }
+        String text = message.encode();
+        if ( text.length() < minSize || ++frames.get()[0] % SAMPLE_RATE != 0 || !isNegotiated(session) ) {
+            return;
+        }
+        try {
+            sampleExecutor.execute(() -> measure(text));
+        } catch (RejectedExecutionException e) {
+            // shutting down: skip the sample
+        }
+    }
+
+    private static void measure(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        long start = System.nanoTime();
+        int compressed = deflate(bytes);
+        MediatorMetrics.deflated(bytes.length, compressed, System.nanoTime() - start);
+    }
+
+    /**
+     * @param bytes
+     * @return size of the bytes deflated (without context takeover) and
+     *         flushed, as a permessage-deflate frame
+     */
+    static int deflate(byte[] bytes) {
+        Deflater deflater = deflaters.get();
+        byte[] buffer = buffers.get();
+        deflater.reset();
+        deflater.setInput(bytes);
+
+        int size = 0;
+        int n;
+        do {
+            n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+            size += n;
+        } while ( n == buffer.length );
+
+        // the frame leaves out the 4 bytes (00 00 ff ff) that end the flush
+        return Math.max(0, size - 4);
+    }
+
+    /**
+     * Negotiates {@code permessage-deflate} for client sessions. Everything
+     * else is left to the container's configurator.
+     */
+    public static class ServerConfigurator extends ServerEndpointConfig.Configurator {
+        @Override
+        public List<Extension> getNegotiatedExtensions(List<Extension> installed, List<Extension> requested) {
+            return negotiate(installed, requested);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
+import javax.websocket.Session;
+
+import org.gameontext.mediator.metrics.MediatorMetrics;
+import org.gameontext.mediator.metrics.MediatorMetrics.Direction;
+
+/**
+ * A drain that does not own a thread. Messages are queued per session, and
+ * the drain hands itself to the shared {@link DrainDispatcher} whenever it
+ * has something to send.
+ *
+ * @see WSDrain
+ */
+class DispatchedDrain implements Drain {
+    private final String id;
+    private final DrainDispatcher dispatcher;
+    private KeepAliveWheel.Entry keepAlive;
+    private volatile Session targetSession;
+    final boolean wsToRoom;
+
+    /** Queue of messages */
+    private final DrainQueue pendingMessages;
+
+    /** True while this drain is queued with (or being serviced by) the dispatcher */
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    /** True once the target session has been closed */
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    private volatile boolean started = false;
+    private volatile boolean keepGoing = true;
+
+    /**
+     * Wait before retrying after a failed send, 0 after a successful one.
+     * Only used by the worker servicing this drain.
+     */
+    private long retryMs = 0;
+
+    /**
+     * Construct a drain for an outbound client connection.
+     *
+     * @param id
+     *            An identifier for the drain (used in logs)
+     * @param targetSession
+     *            The target session to publish queued messages
+     * @param dispatcher
+     *            Shared dispatcher that will send queued messages
+     */
+    public DispatchedDrain(String id, Session targetSession, DrainDispatcher dispatcher) {
+        this.id = id;
+        this.targetSession = targetSession;
+        this.dispatcher = dispatcher;
+        this.pendingMessages = new DrainQueue(id, false);
+        this.wsToRoom = false; // outbound client connection
+    }
+
+    /**
+     * Construct a drain for a connection to a room: the session is provided
+     * via {@link #start(Session)} once the connection is open.
+     *
+     * @param id
+     *            An identifier for the drain (used in logs)
+     * @param dispatcher
+     *            Shared dispatcher that will send queued messages
+     */
+    public DispatchedDrain(String id, DrainDispatcher dispatcher) {
+        this.id = id;
+        this.dispatcher = dispatcher;
+        this.pendingMessages = new DrainQueue(id, true);
+        this.wsToRoom = true; // incoming server connection
+    }
+
+    @Override
+    public void send(RoutedMessage message) {
+        if ( !pendingMessages.offer(new QueuedMessage(message)) ) {
+            Log.log(Level.FINEST, this, "Queue full, dropped message for {0}: {1}", id, message);
+        }
+        if ( pendingMessages.isOverloaded() && keepGoing ) {
+            Log.log(Level.INFO, this, "Closing session for {0}: {1} messages waiting", id, pendingMessages.size());
+            MediatorMetrics.slowConsumer();
+            close(new CloseReason(CloseCodes.TRY_AGAIN_LATER, "Too many messages waiting to be sent"));
+            stop();
+            return;
+        }
+        schedule();
+    }
+
+    @Override
+    public void close(CloseReason reason) {
+        WSUtils.tryToClose(targetSession, reason);
+    }
+
+    @Override
+    public void start() {
+        if ( targetSession == null )
+            return;
+        started = true;
+        Log.log(Level.FINER, this, "DRAIN OPEN {0}", id);
+        schedule();
+    }
+
+    @Override
+    public void start(Session session) {
+        this.targetSession = session;
+        started = true;
+        Log.log(Level.FINER, this, "DRAIN OPEN {0}", id);
+        schedule();
+    }
+
+    @Override
+    public void stop() {
+        keepGoing = false;
+
+        if ( keepAlive != null ) {
+            keepAlive.cancel();
+        }
+
+        // The session is closed by a dispatcher worker, after which
+        // this drain will not be scheduled again.
+        schedule();
+    }
+
+    public void setKeepAlive(KeepAliveWheel.Entry keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Called by a dispatcher worker: send up to {@code batchSize} messages,
+     * then yield the worker. The drain re-queues itself if there are still
+     * messages pending.
+     *
+     * @param batchSize
+     *            Maximum number of messages to send in this turn
+     */
+    void drain(int batchSize) {
+        try {
+            if ( !keepGoing ) {
+                pendingMessages.close();
+                if ( closed.compareAndSet(false, true) ) {
+                    Log.log(Level.FINER, this, "DRAIN CLOSED {0}", id);
+                    WSUtils.tryToClose(targetSession);
+                }
+                return;
+            }
+
+            for (int i = 0; i < batchSize && keepGoing; i++) {
+                QueuedMessage queued = pendingMessages.poll();
+                if ( queued == null )
+                    break;
+                RoutedMessage message = queued.message;
+
+                if ( Log.isRelayLoggable() ) {
+                    Log.relay(this, wsToRoom ? "C    M -> R : {0} {1}" : "C <- M    R : {0} {1}", message, targetSession.getId());
+                }
+
+                boolean sent;
+                try {
+                    sent = WSUtils.sendMessage(targetSession, message);
+                } catch (IllegalStateException e) {
+                    // write not allowed because another in progress. Try again.
+                    sent = false;
+                }
+
+                if ( !sent ) {
+                    // If the send failed, tuck the message back in the
+                    // head of the queue, and give other drains a turn
+                    // while we back off.
+                    pendingMessages.offerFirst(queued);
+                    retryMs = retryMs == 0 ? WSDrain.MIN_RETRY_MS : Math.min(retryMs * 2, WSDrain.MAX_RETRY_MS);
+                    break;
+                }
+                retryMs = 0;
+
+                MediatorMetrics.dequeued(queued.queuedAt);
+                MediatorMetrics.message(wsToRoom ? Direction.MEDIATOR_TO_ROOM : Direction.MEDIATOR_TO_CLIENT, message);
+                Compression.sent(targetSession, message);
+
+                if ( keepAlive != null ) {
+                    keepAlive.touch();
+                }
+            }
+        } finally {
+            if ( retryMs > 0 && keepGoing ) {
+                // still scheduled: new messages wait for the retry
+                Log.log(Level.FINEST, this, "Send failed for {0}, retry in {1}ms", id, retryMs);
+                dispatcher.schedule(this, retryMs);
+                return;
+            }
+            scheduled.set(false);
+
+            // pick up anything that arrived while we were busy
+            if ( !pendingMessages.isEmpty() || (!keepGoing && !closed.get()) ) {
+                schedule();
+            }
+        }
+    }
+
+    private void schedule() {
+        if ( (started || !keepGoing) && !closed.get() && scheduled.compareAndSet(false, true) ) {
+            dispatcher.schedule(this);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * A small, fixed pool of workers shared by all {@link DispatchedDrain}s.
+ * <p>
+ * A drain with pending messages schedules itself here, and the next free
+ * worker sends a batch of its messages before moving on to the next drain.
+ * A drain is only ever queued once at a time, so only one worker is
+ * sending on a given session at any point, which preserves per-session
+ * ordering.
+ * </p>
+ */
+class DrainDispatcher {
+
+    /** Maximum number of messages sent for one drain before yielding the worker */
+    static final int BATCH_SIZE = 32;
+
+    /** Drains that have pending messages (or need to be closed) */
+    private final LinkedBlockingQueue<DispatchedDrain> readyDrains = new LinkedBlockingQueue<>();
+
+    private final Thread[] workers;
+
+    /** Re-queues drains that are waiting to retry a failed send */
+    private final ScheduledExecutorService scheduledExecutor;
+
+    private volatile boolean keepGoing = true;
+
+    /**
+     * @param threadFactory
+     *            Factory used to create the worker threads (usually the
+     *            {@code ManagedThreadFactory})
+     * @param numWorkers
+     *            Number of worker threads, usually the number of cores
+     * @param scheduledExecutor
+     *            Used to re-queue drains after a delay
+     */
+    DrainDispatcher(ThreadFactory threadFactory, int numWorkers, ScheduledExecutorService scheduledExecutor) {
+        this.scheduledExecutor = scheduledExecutor;
+        this.workers = new Thread[Math.max(1, numWorkers)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = threadFactory.newThread(this::work);
+        }
+    }
+
+    void start() {
+        Log.log(Level.FINER, this, "DISPATCHER START {0} workers", workers.length);
+        for (Thread t : workers) {
+            t.start();
+        }
+    }
+
+    void stop() {
+        Log.log(Level.FINER, this, "DISPATCHER STOP");
+        keepGoing = false;
+        for (Thread t : workers) {
+            t.interrupt();
+        }
+        readyDrains.clear();
+    }
+
+    /**
+     * Queue a drain to be serviced by the next free worker. Called by the
+     * drain itself, and only when it is not already queued.
+     *
+     * @param drain
+     *            Drain with pending work
+     */
+    void schedule(DispatchedDrain drain) {
+        readyDrains.offer(drain);
+    }
+
+    /**
+     * Queue a drain after a delay, e.g. to retry a failed send without
+     * keeping a worker busy. Called by the drain itself, which stays marked
+     * as scheduled meanwhile.
+     *
+     * @param drain
+     *            Drain with pending work
+     * @param delayMs
+     *            Milliseconds to wait before the drain is queued
+     */
+    void schedule(DispatchedDrain drain, long delayMs) {
+        try {
+            scheduledExecutor.schedule(() -> schedule(drain), delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            schedule(drain);
+        }
+    }
+
+    int size() {
+        return workers.length;
+    }
+
+    private void work() {
+        boolean interrupted = false;
+
+        while (keepGoing) {
+            try {
+                DispatchedDrain drain = readyDrains.take();
+                drain.drain(BATCH_SIZE);
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            } catch (Exception e) {
+                // one bad session should not take the worker down with it
+                Log.log(Level.WARNING, this, "Uncaught exception draining messages", e);
+            }
+        }
+
+        // reset interrupted flag
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,405 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
+import org.gameontext.mediator.metrics.MediatorMetrics;
+
+/**
+ * Bounded queue of messages waiting in a {@link Drain}.
+ * <p>
+ * A client on a bad network (or a hung room) stops reading, and messages
+ * for it pile up. The queue holds at most {@link Limits#capacity} messages:
+ * when it is full, the oldest ping is dropped, then (with
+ * {@link Policy#DROP_OLDEST_CHAT}) the oldest chat message. If neither can
+ * be dropped, the new message is. With {@link Policy#COALESCE_PINGS}, a ping
+ * isn't queued if one is already waiting. With {@link Policy#DISCONNECT},
+ * the drain is told to close the session once the queue has been above its
+ * high-water mark for {@link Limits#maxOverHighWater}.
+ * </p>
+ * <p>
+ * Each queue keeps its own high-water mark (the deepest it has been), and
+ * open queues can be listed with {@link #deepest(int)}.
+ * </p>
+ */
+class DrainQueue {
+
+    enum Policy {
+        DROP_OLDEST_CHAT,
+        COALESCE_PINGS,
+        DISCONNECT
+    }
+
+    /** Limits shared by all drains of a mediator */
+    static final class Limits {
+        static final int DEFAULT_CAPACITY = 1000;
+        static final long DEFAULT_DISCONNECT_SECONDS = 30;
+
+        static final Limits DEFAULT = new Limits(DEFAULT_CAPACITY, EnumSet.allOf(Policy.class),
+                TimeUnit.SECONDS.toNanos(DEFAULT_DISCONNECT_SECONDS));
+
+        /** Maximum number of messages in the queue */
+        final int capacity;
+
+        /** Number of messages above which the queue is falling behind (3/4 of capacity) */
+        final int highWater;
+
+        /** How long (ns) the queue can stay above the high-water mark with {@link Policy#DISCONNECT} */
+        final long maxOverHighWater;
+
+        final Set<Policy> policies;
+
+        Limits(int capacity, Set<Policy> policies, long maxOverHighWater) {
+            this.capacity = Math.max(1, capacity);
+            this.highWater = Math.max(1, this.capacity * 3 / 4);
+            this.policies = policies.isEmpty() ? EnumSet.noneOf(Policy.class) : EnumSet.copyOf(policies);
+            this.maxOverHighWater = maxOverHighWater;
+        }
+
+        /**
+         * @param capacity
+         *            Maximum number of messages, or null for the default
+         * @param policies
+         *            Comma separated policies (e.g.
+         *            {@code dropOldestChat,coalescePings,disconnect}),
+         *            {@code none}, or null for all of them
+         * @param disconnectSeconds
+         *            Seconds above the high-water mark before the session
+         *            is closed, or null for the default
+         * @return limits, defaults used for values that aren't set or valid
+         */
+        static Limits parse(String capacity, String policies, String disconnectSeconds) {
+            int c = (int) parseLong(capacity, DEFAULT_CAPACITY);
+            long seconds = parseLong(disconnectSeconds, DEFAULT_DISCONNECT_SECONDS);
+
+            Set<Policy> p = EnumSet.allOf(Policy.class);
+            if ( isSet(policies) ) {
+                p = EnumSet.noneOf(Policy.class);
+                for (String name : policies.split(",")) {
+                    // dropOldestChat -> DROP_OLDEST_CHAT
+                    String n = name.trim().replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase();
+                    for (Policy policy : Policy.values()) {
+                        if ( policy.name().equals(n) ) {
+                            p.add(policy);
+                        }
+                    }
+                }
+            }
+            return new Limits(c, p, TimeUnit.SECONDS.toNanos(seconds));
+        }
+
+        private static boolean isSet(String value) {
+            // an unset environment variable leaves the ${...} reference as-is
+            return value != null && !value.trim().isEmpty() && !value.startsWith("${");
+        }
+
+        private static long parseLong(String value, long defaultValue) {
+            if ( isSet(value) ) {
+                try {
+                    long l = Long.parseLong(value.trim());
+                    return l > 0 ? l : defaultValue;
+                } catch (NumberFormatException e) {
+                    // not a number: use the default
+                }
+            }
+            return defaultValue;
+        }
+
+        @Override
+        public String toString() {
+            return "capacity=" + capacity + ", policies=" + policies
+                    + ", disconnect after " + TimeUnit.NANOSECONDS.toSeconds(maxOverHighWater) + "s";
+        }
+    }
+
+    /** State of one queue, for {@link #deepest(int)} */
+    public static final class Stats {
+        public final String id;
+        public final boolean toRoom;
+        public final int depth;
+        public final int highWater;
+        public final long dropped;
+        public final long overHighWaterMillis;
+
+        Stats(DrainQueue q, long now) {
+            synchronized (q) {
+                this.id = q.id;
+                this.toRoom = q.toRoom;
+                this.depth = q.messages.size();
+                this.highWater = q.peak;
+                this.dropped = q.dropped;
+                this.overHighWaterMillis = q.overSince == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(now - q.overSince);
+            }
+        }
+    }
+
+    /** Open queues */
+    private static final Set<DrainQueue> open = ConcurrentHashMap.newKeySet();
+
+    /** Limits for new queues */
+    private static volatile Limits defaultLimits = Limits.DEFAULT;
+
+    private final String id;
+    private final boolean toRoom;
+    private final Limits limits;
+
+    private final ArrayDeque<QueuedMessage> messages = new ArrayDeque<>();
+
+    /** Number of pings in the queue */
+    private int pings = 0;
+
+    /** Deepest the queue has been */
+    private int peak = 0;
+
+    /** Messages dropped (or pings coalesced) from this queue */
+    private long dropped = 0;
+
+    /** {@link System#nanoTime()} when the queue went above the high-water mark, or 0 */
+    private long overSince = 0;
+
+    /**
+     * @param id
+     *            Id of the drain (user or room id)
+     * @param toRoom
+     *            True if messages are sent to a room
+     */
+    DrainQueue(String id, boolean toRoom) {
+        this(id, toRoom, defaultLimits);
+    }
+
+    /**
+     * @param id
+     *            Id of the drain (user or room id)
+     * @param toRoom
+     *            True if messages are sent to a room
+     * @param limits
+     */
+    DrainQueue(String id, boolean toRoom, Limits limits) {
+        this.id = id;
+        this.toRoom = toRoom;
+        this.limits = limits;
+        open.add(this);
+    }
+
+    /**
+     * Add a message at the tail of the queue.
+     *
+     * @param message
+     * @return false if the message was dropped
+     */
+    synchronized boolean offer(QueuedMessage message) {
+        boolean ping = message.message.getFlowTarget() == FlowTarget.ping;
+        if ( ping && pings > 0 && limits.policies.contains(Policy.COALESCE_PINGS) ) {
+            dropped++;
+            MediatorMetrics.dropped(MediatorMetrics.DROPPED_PING);
+            return false;
+        }
+
+        if ( messages.size() >= limits.capacity && !dropOldest() ) {
+            dropped++;
+            MediatorMetrics.dropped(MediatorMetrics.DROPPED_FULL);
+            return false;
+        }
+
+        add(message, false);
+        return true;
+    }
+
+    /**
+     * Put back a message that couldn't be sent, at the head of the queue
+     * (limits don't apply).
+     *
+     * @param message
+     */
+    synchronized void offerFirst(QueuedMessage message) {
+        add(message, true);
+    }
+
+    /**
+     * @return the message at the head of the queue, or null if it is empty
+     */
+    synchronized QueuedMessage poll() {
+        QueuedMessage message = messages.poll();
+        if ( message != null ) {
+            removed(message);
+        }
+        return message;
+    }
+
+    /**
+     * @return the message at the head of the queue, waiting for one if it is empty
+     * @throws InterruptedException
+     */
+    synchronized QueuedMessage take() throws InterruptedException {
+        while ( messages.isEmpty() ) {
+            wait();
+        }
+        return poll();
+    }
+
+    synchronized int size() {
+        return messages.size();
+    }
+
+    synchronized boolean isEmpty() {
+        return messages.isEmpty();
+    }
+
+    /**
+     * @return true if the drain should give up on its session: the queue has
+     *         been above the high-water mark for too long
+     */
+    synchronized boolean isOverloaded() {
+        return overSince != 0
+                && limits.policies.contains(Policy.DISCONNECT)
+                && System.nanoTime() - overSince > limits.maxOverHighWater;
+    }
+
+    /**
+     * Drop all messages, and stop listing this queue.
+     */
+    synchronized void close() {
+        messages.clear();
+        pings = 0;
+        overSince = 0;
+        open.remove(this);
+    }
+
+    private void add(QueuedMessage message, boolean first) {
+        if ( first ) {
+            messages.offerFirst(message);
+        } else {
+            messages.offer(message);
+        }
+        if ( message.message.getFlowTarget() == FlowTarget.ping ) {
+            pings++;
+        }
+
+        int size = messages.size();
+        if ( size > peak ) {
+            peak = size;
+        }
+        if ( size > limits.highWater && overSince == 0 ) {
+            overSince = System.nanoTime();
+        }
+        MediatorMetrics.queued(size);
+        notify();
+    }
+
+    private void removed(QueuedMessage message) {
+        if ( message.message.getFlowTarget() == FlowTarget.ping ) {
+            pings--;
+        }
+        if ( messages.size() <= limits.highWater ) {
+            overSince = 0;
+        }
+    }
+
+    /**
+     * The queue is full: make room by dropping the oldest ping, or the
+     * oldest chat message.
+     *
+     * @return true if a message was dropped
+     */
+    private boolean dropOldest() {
+        if ( pings > 0 && remove(m -> m.getFlowTarget() == FlowTarget.ping) ) {
+            dropped++;
+            MediatorMetrics.dropped(MediatorMetrics.DROPPED_PING);
+            return true;
+        }
+        if ( limits.policies.contains(Policy.DROP_OLDEST_CHAT) && remove(DrainQueue::isChat) ) {
+            dropped++;
+            MediatorMetrics.dropped(MediatorMetrics.DROPPED_CHAT);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean remove(Predicate<RoutedMessage> test) {
+        for (Iterator<QueuedMessage> i = messages.iterator(); i.hasNext();) {
+            QueuedMessage q = i.next();
+            if ( test.test(q.message) ) {
+                i.remove();
+                removed(q);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true for chat: to players, messages of type chat; to rooms,
+     *         anything said that isn't a command
+     */
+    static boolean isChat(RoutedMessage message) {
+        switch (message.getFlowTarget()) {
+            case player:
+                return "chat".equals(message.getString("type"));
+            case room:
+                String content = message.getString("content");
+                return content != null && !content.startsWith("/");
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Set the limits of queues created from now on.
+     *
+     * @param limits
+     */
+    static void setLimits(Limits limits) {
+        defaultLimits = limits;
+    }
+
+    static Limits getLimits() {
+        return defaultLimits;
+    }
+
+    /**
+     * @param limit
+     *            Maximum number of queues returned
+     * @return open queues with the most messages waiting (then the highest
+     *         high-water mark), deepest first
+     */
+    static List<Stats> deepest(int limit) {
+        long now = System.nanoTime();
+        List<Stats> result = new ArrayList<>();
+        for (DrainQueue q : open) {
+            result.add(new Stats(q, now));
+        }
+        result.sort(Comparator.comparingInt((Stats s) -> s.depth)
+                              .thenComparingInt(s -> s.highWater)
+                              .reversed());
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "[" + id + ", " + limits + "]";
+    }
+}
@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.List;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Sessions with the most messages waiting to be sent, with each queue's
+ * high-water mark: {@code GET /mediator/rest/drains/deepest?limit=10}
+ *
+ * @see DrainQueue
+ */
+@ApplicationScoped
+@Path("drains")
+public class DrainQueueResource {
+
+    static final int MAX_LIMIT = 1000;
+
+    @GET
+    @Path("deepest")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<DrainQueue.Stats> getDeepestQueues(@QueryParam("limit") @DefaultValue("10") int limit) {
+        return DrainQueue.deepest(Math.max(0, Math.min(limit, MAX_LIMIT)));
+    }
+}
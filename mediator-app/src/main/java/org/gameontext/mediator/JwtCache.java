@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import io.jsonwebtoken.Claims;
+
+/**
+ * Bounded cache of validated client JWTs, for {@link MediatorEndpoint}.
+ * <p>
+ * Validating a client's JWT and signing the matching server JWT are the
+ * most expensive steps of opening a session (one RSA verification and one
+ * RSA signature), and clients that reconnect present the same token again.
+ * Entries are keyed by a SHA-256 digest of the token (the token itself is
+ * not kept), and hold the token's claims and the server JWT until the
+ * token expires, or for at most {@link #maxTtl}, whichever is sooner.
+ * The least recently used entry is evicted when the cache is full.
+ * </p>
+ */
+class JwtCache {
+
+    static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    /** The server JWT is reused for at most this long (ms), even if the client's token is valid for longer */
+    static final long DEFAULT_MAX_TTL = TimeUnit.MINUTES.toMillis(15);
+
+    /** A validated token */
+    static final class Entry {
+        final Claims claims;
+        final String serverJwt;
+
+        /** {@link System#currentTimeMillis()} after which the entry can't be used */
+        final long expiresAt;
+
+        Entry(Claims claims, String serverJwt, long expiresAt) {
+            this.claims = claims;
+            this.serverJwt = serverJwt;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final ThreadLocal<MessageDigest> sha256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final int maxEntries;
+    private final long maxTtl;
+    private final LongSupplier clock;
+
+    /** Entries by token digest, in LRU order */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if ( size() > maxEntries ) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxEntries
+     *            Maximum number of cached tokens
+     * @param maxTtl
+     *            Maximum time (ms) a token is cached
+     */
+    JwtCache(int maxEntries, long maxTtl) {
+        this(maxEntries, maxTtl, System::currentTimeMillis);
+    }
+
+    JwtCache(int maxEntries, long maxTtl, LongSupplier clock) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.maxTtl = maxTtl;
+        this.clock = clock;
+    }
+
+    /**
+     * @param token
+     *            The client's JWT
+     * @return the cached entry for the token, or null if it isn't cached (or
+     *         has expired)
+     */
+    Entry get(String token) {
+        String key = digest(token);
+        long now = clock.getAsLong();
+        synchronized (this) {
+            Entry e = entries.get(key);
+            if ( e != null && e.expiresAt <= now ) {
+                entries.remove(key);
+                e = null;
+            }
+            if ( e == null ) {
+                misses.increment();
+            } else {
+                hits.increment();
+            }
+            return e;
+        }
+    }
+
+    /**
+     * Cache a token that was validated.
+     *
+     * @param token
+     *            The client's JWT
+     * @param claims
+     *            Claims of the validated token
+     * @param serverJwt
+     *            Server JWT created for the client's token
+     */
+    void put(String token, Claims claims, String serverJwt) {
+        long now = clock.getAsLong();
+        long expiresAt = now + maxTtl;
+        Date expiration = claims == null ? null : claims.getExpiration();
+        if ( expiration != null ) {
+            expiresAt = Math.min(expiresAt, expiration.getTime());
+        }
+        if ( expiresAt <= now ) {
+            return;
+        }
+
+        String key = digest(token);
+        synchronized (this) {
+            entries.put(key, new Entry(claims, serverJwt, expiresAt));
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    static String digest(String token) {
+        MessageDigest md = sha256.get();
+        md.reset();
+        return Base64.getEncoder().encodeToString(md.digest(token.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName()
+                + "[maxEntries=" + maxEntries
+                + ", maxTtl=" + TimeUnit.MILLISECONDS.toSeconds(maxTtl) + "s"
+                + "]";
+    }
+}
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * A hashed timing wheel that owns the keepalive pings for all client
+ * sessions, driven by a single scheduled task.
+ * <p>
+ * Each drain is assigned to one slot of the wheel. Every tick visits the
+ * next slot, so each drain is looked at once per ping interval, and the
+ * pings for a slot are queued together. A drain that has sent something
+ * since it was last visited is skipped: the client already knows we are
+ * alive.
+ * </p>
+ */
+class KeepAliveWheel {
+
+    /** Interval between pings to an idle client */
+    static final long INTERVAL_MS = 2000;
+
+    /** Number of slots: one tick every INTERVAL_MS / SLOTS milliseconds */
+    static final int SLOTS = 20;
+
+    /** Delay before the first ping, as the old per-session task */
+    static final long INITIAL_DELAY_MS = 50000;
+
+    static final long TICK_MS = INTERVAL_MS / SLOTS;
+
+    private final ScheduledExecutorService scheduledExecutor;
+    private final List<Set<Entry>> wheel;
+    private final AtomicInteger nextSlot = new AtomicInteger();
+
+    /** Number of ticks so far. Only written by the tick task */
+    private volatile long ticks = 0;
+
+    private ScheduledFuture<?> tickFuture;
+
+    KeepAliveWheel(ScheduledExecutorService scheduledExecutor) {
+        this.scheduledExecutor = scheduledExecutor;
+        this.wheel = new ArrayList<>(SLOTS);
+        for (int i = 0; i < SLOTS; i++) {
+            wheel.add(ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    void start() {
+        tickFuture = scheduledExecutor.scheduleAtFixedRate(this::tick, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        if ( tickFuture != null ) {
+            tickFuture.cancel(false);
+        }
+    }
+
+    /**
+     * Start sending keepalives to the given drain.
+     *
+     * @param drain
+     * @return entry to {@link Entry#cancel() cancel} when the drain is stopped
+     */
+    Entry register(Drain drain) {
+        int slot = Math.floorMod(nextSlot.getAndIncrement(), SLOTS);
+        Entry e = new Entry(drain, wheel.get(slot), ticks + INITIAL_DELAY_MS / TICK_MS);
+        e.slot.add(e);
+        return e;
+    }
+
+    int size() {
+        int size = 0;
+        for (Set<Entry> slot : wheel) {
+            size += slot.size();
+        }
+        return size;
+    }
+
+    /**
+     * Advance the wheel by one slot, and queue pings for the idle drains in
+     * that slot.
+     */
+    void tick() {
+        long now = ++ticks;
+        Set<Entry> slot = wheel.get((int) (now % SLOTS));
+
+        int pings = 0;
+        for (Entry e : slot) {
+            if ( now >= e.due ) {
+                e.due = now + SLOTS;
+                e.drain.send(RoutedMessage.PING_MSG);
+                pings++;
+            }
+        }
+
+        if ( pings > 0 ) {
+            Log.log(Level.FINEST, this, "KEEPALIVE tick {0}: {1} of {2}", now, pings, slot.size());
+        }
+    }
+
+    /**
+     * Keepalive registration for a single drain.
+     */
+    class Entry {
+        final Drain drain;
+        final Set<Entry> slot;
+
+        /** Tick at (or after) which this drain should be pinged */
+        volatile long due;
+
+        Entry(Drain drain, Set<Entry> slot, long due) {
+            this.drain = drain;
+            this.slot = slot;
+            this.due = due;
+        }
+
+        /**
+         * Note outbound traffic: postpones the next ping by a full interval.
+         * Called by the drain for every message it sends.
+         */
+        void touch() {
+            long next = ticks + SLOTS;
+            if ( next > due ) {
+                due = next;
+            }
+        }
+
+        /** Stop sending keepalives to this drain */
+        void cancel() {
+            slot.remove(this);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Player location updates, sent to the player service in the background.
+ * <p>
+ * Updates are queued per player, and at most one request per player is in
+ * flight at a time. If a player moves again before their pending update is
+ * sent, the two are merged: the update keeps the old location (the one the
+ * player service knows about) and takes the latest new location, so a player
+ * hopping through several rooms produces a single request.
+ * </p>
+ * <p>
+ * Requests that fail without a response, or with a server error, are retried
+ * with exponential backoff. Other failures (e.g. a rejected jwt) are not.
+ * </p>
+ */
+class LocationUpdates {
+
+    /** Sends one update to the player service */
+    interface Sender {
+        /**
+         * @return HTTP status of the response, or 0 if there was no response
+         */
+        int put(String playerId, String jwt, String oldRoomId, String newRoomId);
+    }
+
+    /** Delay before the first retry of a failed update, doubled for each retry */
+    static final long MIN_RETRY_MS = 500;
+
+    /** Maximum delay between retries */
+    static final long MAX_RETRY_MS = 30000;
+
+    /** Failed attempts before an update is dropped */
+    static final int MAX_ATTEMPTS = 6;
+
+    /** Location updates for one player */
+    private static final class Player {
+        /** Pending update, if newRoomId is not null */
+        String jwt;
+        String oldRoomId;
+        String newRoomId;
+
+        /** True while a send is scheduled or in flight */
+        boolean busy;
+
+        /** Failed attempts at the current update */
+        int attempts;
+    }
+
+    private final Sender sender;
+    private final ScheduledExecutorService executor;
+
+    /** Players with a pending or in-flight update: guarded by this */
+    private final Map<String, Player> players = new HashMap<>();
+
+    LocationUpdates(Sender sender, ScheduledExecutorService executor) {
+        this.sender = sender;
+        this.executor = executor;
+    }
+
+    /**
+     * Queue a location update for a player, merging it with any update that
+     * hasn't been sent yet.
+     *
+     * @param playerId
+     * @param jwt
+     * @param oldRoomId
+     * @param newRoomId
+     */
+    void update(String playerId, String jwt, String oldRoomId, String newRoomId) {
+        synchronized (this) {
+            Player p = players.computeIfAbsent(playerId, k -> new Player());
+            if ( p.newRoomId == null ) {
+                p.oldRoomId = oldRoomId;
+            } else {
+                Log.log(Level.FINER, this, "{0}: location update {1} -> {2} merged with {3} -> {4}",
+                        playerId, p.oldRoomId, p.newRoomId, oldRoomId, newRoomId);
+            }
+            p.newRoomId = newRoomId;
+            p.jwt = jwt;
+            if ( p.busy ) {
+                return;
+            }
+            p.busy = true;
+        }
+        schedule(playerId, 0);
+    }
+
+    /**
+     * @return number of players with a pending or in-flight update
+     */
+    synchronized int size() {
+        return players.size();
+    }
+
+    /**
+     * Send the pending update for a player, then schedule the next one (or
+     * a retry of this one).
+     *
+     * @param playerId
+     */
+    void send(String playerId) {
+        String jwt, oldRoomId, newRoomId;
+        synchronized (this) {
+            Player p = players.get(playerId);
+            if ( p == null || p.newRoomId == null ) {
+                return;
+            }
+            jwt = p.jwt;
+            oldRoomId = p.oldRoomId;
+            newRoomId = p.newRoomId;
+            p.newRoomId = null;
+        }
+
+        int status;
+        try {
+            status = sender.put(playerId, jwt, oldRoomId, newRoomId);
+        } catch (RuntimeException e) {
+            Log.log(Level.WARNING, this, "Exception sending location update", e);
+            status = 0;
+        }
+
+        long delay = 0;
+        synchronized (this) {
+            Player p = players.get(playerId);
+            if ( status >= 200 && status < 300 ) {
+                p.attempts = 0;
+            } else if ( ++p.attempts < MAX_ATTEMPTS && (status == 0 || status >= 500) ) {
+                // retry, taking any move made meanwhile along with it
+                if ( p.newRoomId == null ) {
+                    p.newRoomId = newRoomId;
+                }
+                p.oldRoomId = oldRoomId;
+                delay = Math.min(MAX_RETRY_MS, MIN_RETRY_MS << (p.attempts - 1));
+                Log.log(Level.FINE, this, "{0}: location update {1} -> {2} failed ({3}), retry {4} in {5}ms",
+                        playerId, oldRoomId, p.newRoomId, status, p.attempts, delay);
+            } else {
+                Log.log(Level.WARNING, this, "{0}: location update {1} -> {2} dropped after {3} attempts (status {4})",
+                        playerId, oldRoomId, newRoomId, p.attempts, status);
+                p.attempts = 0;
+                if ( p.newRoomId != null ) {
+                    // the player service still has the old location
+                    p.oldRoomId = oldRoomId;
+                }
+            }
+
+            if ( p.newRoomId == null ) {
+                p.busy = false;
+                players.remove(playerId);
+                return;
+            }
+        }
+        schedule(playerId, delay);
+    }
+
+    private void schedule(String playerId, long delay) {
+        try {
+            executor.schedule(() -> send(playerId), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            Log.log(Level.WARNING, this, "{0}: location update dropped, executor unavailable", playerId);
+            synchronized (this) {
+                players.remove(playerId);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "[pending=" + size() + "]";
+    }
+}
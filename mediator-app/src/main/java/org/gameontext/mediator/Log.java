@@ -15,29 +15,150 @@
  *******************************************************************************/
 package org.gameontext.mediator;
 
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Wrapper to provide a single logger with a consistent format that helps
  * identify different endpoints in the messages
- *
+ * <p>
+ * Nothing is formatted or allocated unless the level is enabled: use the
+ * fixed-argument or {@link Supplier} variants rather than building the message
+ * at the call site, and check {@link #isLoggable(Level)} or
+ * {@link #isRelayLoggable()} before computing arguments in hot paths.
+ * </p>
+ * <p>
+ * Tracing of every message relayed between clients and rooms uses its own
+ * logger ({@code org.gameontext.mediator.relay}), so that it can be enabled
+ * or disabled separately.
+ * </p>
+ * <p>
+ * Trace can be handed off to an {@link AsyncLogSink}, so that threads relaying
+ * messages don't wait for it to be written. Trace arguments are then formatted
+ * later: arguments other than strings, boxed primitives, enums and messages
+ * are converted to strings when the record is created, so pass values
+ * rather than objects that are expensive to convert.
+ * </p>
  */
 public class Log {
     private final static Logger log = Logger.getLogger("org.gameontext.mediator");
-    private static final String endpoint_log_format = ": %-8x : %s";
+    private final static Logger relay = Logger.getLogger("org.gameontext.mediator.relay");
+
+    /** Level used for relay trace */
+    private static final Level RELAY_LEVEL = Level.FINEST;
+
+    /** Asynchronous destination for trace, null to write trace directly */
+    private static volatile AsyncLogSink sink;
+
+    public static boolean isLoggable(Level level) {
+        return log.isLoggable(level);
+    }
+
+    public static void log(Level level, Object source, String message) {
+        if (log.isLoggable(level)) {
+            write(log, level, source, message, null, null);
+        }
+    }
+
+    public static void log(Level level, Object source, String message, Object arg) {
+        if (log.isLoggable(level)) {
+            write(log, level, source, message, new Object[] { arg }, null);
+        }
+    }
+
+    public static void log(Level level, Object source, String message, Object arg1, Object arg2) {
+        if (log.isLoggable(level)) {
+            write(log, level, source, message, new Object[] { arg1, arg2 }, null);
+        }
+    }
+
+    public static void log(Level level, Object source, String message, Object arg1, Object arg2, Object arg3) {
+        if (log.isLoggable(level)) {
+            write(log, level, source, message, new Object[] { arg1, arg2, arg3 }, null);
+        }
+    }
 
     public static void log(Level level, Object source, String message, Object... args) {
         if (log.isLoggable(level)) {
-            String msg = String.format(endpoint_log_format, getHash(source), message);
-            log.log(useLevel(level), msg, args);
+            write(log, level, source, message, args, null);
+        }
+    }
+
+    public static void log(Level level, Object source, Supplier<String> message) {
+        if (log.isLoggable(level)) {
+            write(log, level, source, message.get(), null, null);
         }
     }
 
     public static void log(Level level, Object source, String message, Throwable thrown) {
         if (log.isLoggable(level)) {
-            String msg = String.format(endpoint_log_format, getHash(source), message);
-            log.log(useLevel(level), msg, thrown);
+            write(log, level, source, message, null, thrown);
+        }
+    }
+
+    public static void log(Level level, Object source, Supplier<String> message, Throwable thrown) {
+        if (log.isLoggable(level)) {
+            write(log, level, source, message.get(), null, thrown);
+        }
+    }
+
+    /**
+     * @return true if messages relayed between clients and rooms are traced
+     */
+    public static boolean isRelayLoggable() {
+        return relay.isLoggable(RELAY_LEVEL);
+    }
+
+    public static void relay(Object source, String message, Object arg) {
+        if (relay.isLoggable(RELAY_LEVEL)) {
+            write(relay, RELAY_LEVEL, source, message, new Object[] { arg }, null);
+        }
+    }
+
+    public static void relay(Object source, String message, Object arg1, Object arg2) {
+        if (relay.isLoggable(RELAY_LEVEL)) {
+            write(relay, RELAY_LEVEL, source, message, new Object[] { arg1, arg2 }, null);
+        }
+    }
+
+    public static void relay(Object source, String message, Object arg1, Object arg2, Object arg3) {
+        if (relay.isLoggable(RELAY_LEVEL)) {
+            write(relay, RELAY_LEVEL, source, message, new Object[] { arg1, arg2, arg3 }, null);
+        }
+    }
+
+    /**
+     * Send trace (records below INFO) to an asynchronous sink rather than
+     * {@code java.util.logging}. INFO and above are always written directly.
+     *
+     * @param newSink
+     *            The sink to use, or null to go back to writing trace directly
+     * @return the previous sink
+     */
+    static AsyncLogSink setSink(AsyncLogSink newSink) {
+        AsyncLogSink old = sink;
+        sink = newSink;
+        return old;
+    }
+
+    /**
+     * @return number of trace records dropped because the asynchronous sink was
+     *         full, or the records couldn't be written
+     */
+    public static long droppedRecords() {
+        AsyncLogSink s = sink;
+        return s == null ? 0 : s.dropped.sum();
+    }
+
+    private static void write(Logger logger, Level level, Object source, String message, Object[] args, Throwable thrown) {
+        AsyncLogSink s = sink;
+        if ( s != null && level.intValue() < Level.INFO.intValue() ) {
+            s.offer(new AsyncLogSink.Entry(level, logger.getName(), getHash(source), message, args, thrown));
+        } else if ( thrown != null ) {
+            logger.log(useLevel(level), prefix(source, message), thrown);
+        } else {
+            logger.log(useLevel(level), prefix(source, message), args);
         }
     }
 
@@ -49,6 +170,20 @@ public class Log {
         return source == null ? 0 : System.identityHashCode(source);
     }
 
+    /**
+     * Equivalent to {@code String.format(": %-8x : %s", getHash(source), message)},
+     * without parsing the format every time.
+     */
+    static String prefix(Object source, String message) {
+        String hash = getHexHash(source);
+        StringBuilder sb = new StringBuilder(16 + (message == null ? 4 : message.length()));
+        sb.append(": ").append(hash);
+        for (int i = hash.length(); i < 8; i++) {
+            sb.append(' ');
+        }
+        return sb.append(" : ").append(message).toString();
+    }
+
     /**
      * This bumps enabled trace up to INFO level, so it appears in messages.log
      * @param level Original level
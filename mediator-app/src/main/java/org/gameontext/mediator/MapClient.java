@@ -15,14 +15,23 @@
  *******************************************************************************/
 package org.gameontext.mediator;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
 import javax.enterprise.context.ApplicationScoped;
 import javax.ws.rs.ProcessingException;
 import javax.ws.rs.WebApplicationException;
@@ -34,6 +43,7 @@ import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
+import org.gameontext.mediator.metrics.MediatorMetrics;
 import org.gameontext.mediator.models.Site;
 import org.gameontext.signed.SignedClientRequestFilter;
 
@@ -82,6 +92,23 @@ public class MapClient {
     @Resource(lookup = "systemId")
     String SYSTEM_ID;
 
+    /**
+     * When true, an expired site is returned immediately while it is
+     * refreshed in the background: callers only wait for the map service
+     * when the site isn't cached at all.
+     *
+     * @see {@code siteCacheAsyncRefresh} in
+     *      {@code /mediator-wlpcfg/servers/gameon-mediator/server.xml}
+     */
+    @Resource(lookup = "siteCacheAsyncRefresh")
+    String asyncRefresh;
+
+    /** Runs background refreshes of cached sites */
+    @Resource
+    ManagedScheduledExecutorService executor;
+
+    private boolean refreshInBackground = false;
+
     /**
      * The root target used to define the root path and common query parameters
      * for all outbound requests to the concierge service.
@@ -90,8 +117,62 @@ public class MapClient {
      */
     private WebTarget queryRoot;
 
+    /**
+     * Maximum number of cached sites.
+     *
+     * @see {@code siteCacheMaxEntries} in
+     *      {@code /mediator-wlpcfg/servers/gameon-mediator/server.xml}
+     */
+    @Resource(lookup = "siteCacheMaxEntries")
+    String maxCachedSites;
+
+    /**
+     * Maximum (estimated) size of cached sites, in bytes.
+     *
+     * @see {@code siteCacheMaxWeight} in
+     *      {@code /mediator-wlpcfg/servers/gameon-mediator/server.xml}
+     */
+    @Resource(lookup = "siteCacheMaxWeight")
+    String maxCachedWeight;
+
+    /**
+     * File used to keep a snapshot of cached sites across restarts.
+     *
+     * @see {@code siteCacheSnapshot} in
+     *      {@code /mediator-wlpcfg/servers/gameon-mediator/server.xml}
+     */
+    @Resource(lookup = "siteCacheSnapshot")
+    String snapshotLocation;
+
+    /** How often cached sites are written to the snapshot */
+    static final long SNAPSHOT_INTERVAL = TimeUnit.MINUTES.toSeconds(5);
+
+    private SiteSnapshot snapshot;
+    private ScheduledFuture<?> snapshotWriter;
+
+    static final int DEFAULT_MAX_CACHED_SITES = 5000;
+    static final long DEFAULT_MAX_CACHED_WEIGHT = 16 * 1024 * 1024;
+
+    /** Name of this service in request metrics */
+    static final String METRICS_SERVICE = "map";
+
     /** Cache of retrieved room exits */
-    private ConcurrentHashMap<String, SiteCache> roomCache = new ConcurrentHashMap<>();
+    private SiteCacheMap roomCache = new SiteCacheMap(DEFAULT_MAX_CACHED_SITES, DEFAULT_MAX_CACHED_WEIGHT);
+
+    /** Room lists by owner and by name */
+    final SiteIndex siteIndex = new SiteIndex();
+
+    /** Keeps the list of system rooms warm */
+    private ScheduledFuture<?> systemRoomRefresh;
+
+    /** Room ids the map service recently said do not exist */
+    final MissCache missingSites = new MissCache();
+
+    /** Room names that recently matched no rooms */
+    final MissCache missingNames = new MissCache();
+
+    /** Requests to the map service in progress, by room id */
+    private final ConcurrentHashMap<String, CompletableFuture<Site>> pendingSites = new ConcurrentHashMap<>();
 
     /**
      * The {@code @PostConstruct} annotation indicates that this method should
@@ -126,25 +207,181 @@ public class MapClient {
         // create the jax-rs 2.0 client
         this.queryRoot = queryClient.target(mapLocation);
 
-        Log.log(Level.FINER, this, "Map client initialized with url {0}, system-id {1}", mapLocation, SYSTEM_ID);
+        refreshInBackground = Boolean.parseBoolean(asyncRefresh) && executor != null;
+        roomCache = new SiteCacheMap(
+                (int) parseLong(maxCachedSites, DEFAULT_MAX_CACHED_SITES),
+                parseLong(maxCachedWeight, DEFAULT_MAX_CACHED_WEIGHT));
+
+        // an unset environment variable leaves the ${...} reference as-is
+        if ( snapshotLocation != null && !snapshotLocation.trim().isEmpty() && !snapshotLocation.startsWith("${") ) {
+            snapshot = new SiteSnapshot(Paths.get(snapshotLocation.trim()));
+            restoreSnapshot();
+        }
+
+        if ( executor != null ) {
+            long interval = TimeUnit.NANOSECONDS.toSeconds(SiteIndex.TTL) / 2;
+            try {
+                systemRoomRefresh = executor.scheduleWithFixedDelay(this::refreshSystemRooms, 0, interval, TimeUnit.SECONDS);
+                if ( snapshot != null ) {
+                    snapshotWriter = executor.scheduleWithFixedDelay(this::writeSnapshot,
+                            SNAPSHOT_INTERVAL, SNAPSHOT_INTERVAL, TimeUnit.SECONDS);
+                }
+            } catch (RejectedExecutionException e) {
+                Log.log(Level.WARNING, this, "Unable to schedule refresh of system rooms", e);
+            }
+        }
+
+        Log.log(Level.FINER, this, "Map client initialized with url {0}, system-id {1}, async refresh {2}, cache {3}",
+                mapLocation, SYSTEM_ID, refreshInBackground, roomCache);
+    }
+
+    @PreDestroy
+    public void destroyClient() {
+        if ( systemRoomRefresh != null ) {
+            systemRoomRefresh.cancel(true);
+        }
+        if ( snapshotWriter != null ) {
+            snapshotWriter.cancel(false);
+        }
+        if ( snapshot != null ) {
+            // leave the freshest possible snapshot for the next start
+            writeSnapshot();
+        }
+    }
+
+    /**
+     * Fill the cache with sites from the snapshot. The restored sites are
+     * marked as expired: they are refreshed before they are used to connect
+     * to a room (see {@link SiteSnapshot}), otherwise they are used right
+     * away, and refreshed in the background.
+     */
+    void restoreSnapshot() {
+        List<Site> sites = snapshot.read();
+        for (Site site : sites) {
+            SiteCache sc = new SiteCache();
+            sc.update(site);
+            sc.restored = true;
+            sc.lastCheck -= SiteCache.TTL * 2;
+            roomCache.put(site.getId(), sc);
+        }
+        Log.log(Level.INFO, this, "Restored {0} sites from {1}", sites.size(), snapshot);
+    }
+
+    /**
+     * Write the cached sites to the snapshot.
+     */
+    void writeSnapshot() {
+        List<Site> sites = new ArrayList<>();
+        for (Map.Entry<String, SiteCache> e : roomCache.entries()) {
+            if ( e.getValue().site != null ) {
+                sites.add(e.getValue().site);
+            }
+        }
+        try {
+            snapshot.write(sites);
+            Log.log(Level.FINER, this, "Wrote {0} sites to {1}", sites.size(), snapshot);
+        } catch (IOException | RuntimeException e) {
+            Log.log(Level.WARNING, this, "Unable to write site snapshot", e);
+        }
+    }
+
+    /**
+     * Re-fetch the list of system rooms, so that it is ready when asked for.
+     */
+    void refreshSystemRooms() {
+        try {
+            queryByOwner(SYSTEM_ID);
+        } catch (RuntimeException e) {
+            Log.log(Level.FINER, this, "Unable to refresh system rooms", e);
+        }
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        if ( value != null ) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                // not set (or not a number): use the default
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * @return the cache of sites (for stats)
+     */
+    SiteCacheMap getSiteCache() {
+        return roomCache;
     }
 
     public List<Site> getSystemRooms() {
-        WebTarget target = this.queryRoot.queryParam("owner", SYSTEM_ID);
-        return getSites(target);
+        return getRoomsByOwner(SYSTEM_ID);
     }
 
     public List<Site> getRoomsByOwner(String ownerId) {
+        List<Site> sites = siteIndex.getByOwner(ownerId);
+        if ( sites != null ) {
+            Log.log(Level.FINEST, this, "Rooms owned by {0} (cached): {1}", ownerId, sites.size());
+            return sites;
+        }
+        return queryByOwner(ownerId);
+    }
+
+    private List<Site> queryByOwner(String ownerId) {
+        long generation = siteIndex.generation();
         WebTarget target = this.queryRoot.queryParam("owner", ownerId);
-        return getSites(target);
+        List<Site> sites = querySites(target);
+        if ( sites == null ) {
+            // don't remember a failed request
+            return Collections.emptyList();
+        }
+        siteIndex.putByOwner(ownerId, sites, generation);
+        return sites;
     }
 
     public List<Site> getRoomsByRoomName(String name) {
+        if ( missingNames.contains(name) ) {
+            Log.log(Level.FINEST, this, "No rooms named {0} (cached)", name);
+            return Collections.emptyList();
+        }
+
+        List<Site> sites = siteIndex.getByName(name);
+        if ( sites != null ) {
+            Log.log(Level.FINEST, this, "Rooms named {0} (cached): {1}", name, sites.size());
+            return sites;
+        }
+
+        long generation = siteIndex.generation();
         WebTarget target = this.queryRoot.queryParam("name", name);
-        return getSites(target);
+        sites = querySites(target);
+        if ( sites == null ) {
+            // the map service didn't answer: this is not a miss
+            return Collections.emptyList();
+        } else if ( sites.isEmpty() ) {
+            missingNames.add(name);
+        } else {
+            siteIndex.putByName(name, sites, generation);
+        }
+        return sites;
     }
 
     public List<Site> getRoomsByOwnerAndRoomName(String ownerId,String roomName) {
+        // either index can answer this one
+        List<Site> sites = siteIndex.getByOwner(ownerId);
+        if ( sites == null ) {
+            sites = siteIndex.getByName(roomName);
+        }
+        if ( sites != null ) {
+            List<Site> result = new ArrayList<>();
+            for (Site site : sites) {
+                if ( ownerId.equals(site.getOwner()) && site.getInfo() != null
+                        && roomName.equals(site.getInfo().getName()) ) {
+                    result.add(site);
+                }
+            }
+            return result;
+        }
+
         WebTarget target = this.queryRoot.queryParam("owner", ownerId).queryParam("name",roomName);
         return getSites(target);
     }
@@ -177,22 +414,116 @@ public class MapClient {
      */
     public Site getSite(String roomId) {
         SiteCache sc = roomCache.get(roomId);
-        if ( sc == null ) {
-            sc = new SiteCache();
-        }
+        Site cached = sc == null ? null : sc.site;
 
         long now = System.nanoTime();
-        if ( sc.site == null || sc.refresh(now) ) {
+        if ( cached != null && !sc.refresh(now) ) {
+            return cached;
+        }
+        if ( cached == null && missingSites.contains(roomId) ) {
+            Log.log(Level.FINEST, this, "Room {0} not found (cached)", roomId);
+            return null;
+        }
+
+        // Only one request per room: everyone else waits for its result
+        CompletableFuture<Site> fetch = new CompletableFuture<>();
+        CompletableFuture<Site> inProgress = pendingSites.putIfAbsent(roomId, fetch);
+
+        // sites restored from a snapshot are always refreshed in the background,
+        // but have no room token: those with connection details are only used
+        // after they have been fetched again
+        boolean serveStale = sc != null && sc.restored
+                ? executor != null && !hasConnectionDetails(cached)
+                : refreshInBackground;
+        if ( cached != null && serveStale ) {
+            // serve the stale site, and refresh it in the background
+            if ( inProgress == null ) {
+                try {
+                    executor.execute(() -> fetchSite(roomId, sc, fetch));
+                } catch (RejectedExecutionException e) {
+                    pendingSites.remove(roomId, fetch);
+                    fetch.complete(cached);
+                }
+            }
+            return cached;
+        }
+
+        if ( inProgress != null ) {
+            Log.log(Level.FINEST, this, "Waiting for request in progress for room {0}", roomId);
+            return inProgress.join();
+        }
+
+        return fetchSite(roomId, sc, fetch);
+    }
+
+    private static boolean hasConnectionDetails(Site site) {
+        return site.getInfo() != null && site.getInfo().getConnectionDetails() != null;
+    }
+
+    /**
+     * Fetch the site from the map service, and update the cache.
+     *
+     * @param roomId
+     * @param sc
+     *            The cache entry being replaced, may be null
+     * @param fetch
+     *            Completed with the result, for others waiting on this request
+     * @return the new site, or the previously cached site if the request failed.
+     *         A restored site with connection details is never returned in place
+     *         of a failed request: the snapshot doesn't hold its token.
+     */
+    private Site fetchSite(String roomId, SiteCache sc, CompletableFuture<Site> fetch) {
+        Site result = sc == null || (sc.restored && hasConnectionDetails(sc.site)) ? null : sc.site;
+        try {
+            // the request we might have waited for may have just finished
+            SiteCache latest = roomCache.peek(roomId);
+            if ( latest != null && latest != sc && latest.site != null && !latest.refresh(System.nanoTime()) ) {
+                result = latest.site;
+                return result;
+            }
+
             WebTarget target = this.queryRoot.path(roomId);
             Site ns = getSite(roomId, target);
             if ( ns != null ) {
-                sc.update(ns);
-                roomCache.put(roomId, sc);
-                return ns;
+                SiteCache nsc = new SiteCache();
+                nsc.update(ns);
+                roomCache.put(roomId, nsc);
+                result = ns;
             }
+        } finally {
+            pendingSites.remove(roomId, fetch);
+            fetch.complete(result);
         }
+        return result;
+    }
 
-        return sc.site;
+    /**
+     * Update the cached site for a room, in response to a site event.
+     *
+     * @param roomId
+     *            The room that was created, updated or deleted
+     * @param site
+     *            The new site, or null if the site was deleted
+     */
+    public void updateSite(String roomId, Site site) {
+        if ( site == null ) {
+            Log.log(Level.FINER, this, "Removing deleted site {0} from the cache", roomId);
+            roomCache.remove(roomId);
+            missingSites.add(roomId);
+            siteIndex.update(roomId, null);
+        } else {
+            Log.log(Level.FINER, this, "Updating cached site {0}", roomId);
+            SiteCache sc = new SiteCache();
+            sc.update(site);
+            roomCache.put(roomId, sc);
+
+            // the room exists (now), and can be found by name
+            missingSites.remove(roomId);
+            if ( site.getInfo() != null ) {
+                missingNames.remove(site.getInfo().getName());
+            }
+            siteIndex.update(roomId, site);
+        }
     }
 
     /**
@@ -225,10 +556,15 @@ public class MapClient {
 
         Log.log(Level.FINER, this, "making request to {0} for room", target.getUri().toString());
         Response r = null;
+        long start = System.nanoTime();
+        int status = 0;
         try {
             r = target.request().delete(); //
+            status = r.getStatus();
             if (r.getStatus() == 204) {
                 Log.log(Level.FINER, this, "delete reported success (204)", target.getUri().toString());
+                // don't wait for the site event to stop listing the room
+                updateSite(roomId, null);
                 return true;
             }
             Log.log(Level.FINER, this, "delete failed reason:{0} entity:{1}", r.getStatusInfo().getReasonPhrase(),r.readEntity(String.class));
@@ -245,6 +581,8 @@ public class MapClient {
             Log.log(Level.SEVERE, this, "Exception deleting room ", e);
         } catch (WebApplicationException ex) {
             Log.log(Level.SEVERE, this, "Exception deleting room ", ex);
+        } finally {
+            MediatorMetrics.request(METRICS_SERVICE, status, start);
         }
         // Sadly, badness happened while trying to do the delete
         return false;
@@ -257,14 +595,26 @@ public class MapClient {
      *            retrieve information about available or specified exits. All
      *            of the REST requests that find or work with exits return the
      *            same result structure
-     * @return A populated {@code List<Site>}. Never null
+     * @return A populated {@code List<Site>}, empty if the request failed. Never null
      */
     protected List<Site> getSites(WebTarget target) {
+        List<Site> sites = querySites(target);
+        return sites == null ? Collections.emptyList() : sites;
+    }
+
+    /**
+     * @param target
+     * @return the sites returned by the map service (possibly none), or null
+     *         if the request failed
+     */
+    List<Site> querySites(WebTarget target) {
         Log.log(Level.FINER, this, "making request to {0} for room", target.getUri().toString());
         Response r = null;
+        long start = System.nanoTime();
+        int statusCode = 0;
         try {
             r = target.request(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON).get();
-            int statusCode = r.getStatusInfo().getStatusCode();
+            statusCode = r.getStatusInfo().getStatusCode();
             if (statusCode == Response.Status.OK.getStatusCode() ) {
                 List<Site> list = r.readEntity(new GenericType<List<Site>>() {
                 });
@@ -280,7 +630,9 @@ public class MapClient {
             }
 
             // The return code indicates something went wrong, but it wasn't bad enough to cause an exception
-            return Collections.emptyList();
+            Log.log(Level.FINER, this, "Unexpected response fetching room list uri: {0} resp code: {1}",
+                    target.getUri().toString(), statusCode);
+            return null;
         } catch (ResponseProcessingException rpe) {
             Response response = rpe.getResponse();
             Log.log(Level.FINER, this, "Exception fetching room list uri: {0} resp code: {1} ",
@@ -291,10 +643,12 @@ public class MapClient {
             Log.log(Level.FINEST, this, "Exception fetching room list (" + target.getUri().toString() + ")", e);
         } catch (WebApplicationException ex) {
             Log.log(Level.FINEST, this, "Exception fetching room list (" + target.getUri().toString() + ")", ex);
+        } finally {
+            MediatorMetrics.request(METRICS_SERVICE, statusCode, start);
         }
 
         // Sadly, badness happened while trying to get the endpoints
-        return Collections.emptyList();
+        return null;
     }
 
     /**
@@ -313,8 +667,11 @@ public class MapClient {
     protected Site getSite(String roomId, WebTarget target) {
         Log.log(Level.FINER, this, "making request to {0} for room", target.getUri().toString());
         Response r = null;
+        long start = System.nanoTime();
+        int status = 0;
         try {
             r = target.request(MediaType.APPLICATION_JSON).get(); // .accept(MediaType.APPLICATION_JSON).get();
+            status = r.getStatus();
             if (r.getStatusInfo().getFamily().equals(Response.Status.Family.SUCCESSFUL)) {
                 Site site = r.readEntity(Site.class);
                 return site;
@@ -322,6 +679,7 @@ public class MapClient {
             if ( r.getStatus() == 404 ) {
                 // The room doesn't exist anymore.
                 roomCache.remove(roomId);
+                missingSites.add(roomId);
             }
 
             return null;
@@ -335,18 +693,28 @@ public class MapClient {
             Log.log(Level.FINEST, this, "Exception fetching room list (" + target.getUri().toString() + ")", e);
         } catch (WebApplicationException ex) {
             Log.log(Level.FINEST, this, "Exception fetching room list (" + target.getUri().toString() + ")", ex);
+        } finally {
+            MediatorMetrics.request(METRICS_SERVICE, status, start);
         }
         // Sadly, badness happened while trying to get the endpoints
         return null;
     }
 
     /**
-     * TODO: Contents of this cache can be maintained via push
-     * when room events start arriving: that could change our timing,
-     * or how/when the entries expire such that we re-lookup.
-     *
+     * Cached site. Entries are updated or removed by site events
+     * (see {@link #updateSite(String, Site)}), so the expiry is only a
+     * fallback in case an event is missed.
      */
     static class SiteCache {
+        /** How long a cached site is used before it is fetched again */
+        static final long TTL = TimeUnit.SECONDS.toNanos(60);
+
+        /** Estimated size, set by the {@link SiteCacheMap} */
+        long weight = 0;
+
+        /** True if the site was read from a snapshot, rather than the map service */
+        boolean restored = false;
+
         /** Last check of the assigned exits for the room */
         long lastCheck = 0;
 
@@ -354,7 +722,7 @@ public class MapClient {
         Site site = null;
 
         public boolean refresh(long now) {
-            return ( now - lastCheck > TimeUnit.SECONDS.toNanos(5) );
+            return ( now - lastCheck > TTL );
         }
 
         public void update(Site ns) {
@@ -362,4 +730,59 @@ public class MapClient {
             site = ns;
         }
     }
+
+    /**
+     * Short-lived record of lookups that found nothing, so repeated requests
+     * for a room that doesn't exist (a misspelled teleport, an exit to a
+     * deleted room) don't go to the map service every time. Entries are
+     * removed by site events when a matching room is created.
+     */
+    static class MissCache {
+        /** How long a miss is remembered */
+        static final long TTL = TimeUnit.SECONDS.toNanos(10);
+
+        /** Expired entries are purged when the cache grows past this size */
+        static final int MAX_ENTRIES = 1000;
+
+        private final ConcurrentHashMap<String, Long> expiry = new ConcurrentHashMap<>();
+
+        boolean contains(String key) {
+            if ( key == null )
+                return false;
+
+            Long until = expiry.get(key);
+            if ( until == null )
+                return false;
+
+            if ( until - System.nanoTime() > 0 )
+                return true;
+
+            expiry.remove(key, until);
+            return false;
+        }
+
+        void add(String key) {
+            if ( key == null )
+                return;
+
+            long now = System.nanoTime();
+            if ( expiry.size() >= MAX_ENTRIES ) {
+                expiry.values().removeIf(until -> until - now <= 0);
+                if ( expiry.size() >= MAX_ENTRIES ) {
+                    expiry.clear();
+                }
+            }
+            expiry.put(key, now + TTL);
+        }
+
+        void remove(String key) {
+            if ( key != null ) {
+                expiry.remove(key);
+            }
+        }
+
+        int size() {
+            return expiry.size();
+        }
+    }
 }
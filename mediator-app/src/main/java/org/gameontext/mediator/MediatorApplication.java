@@ -0,0 +1,31 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import javax.ws.rs.ApplicationPath;
+import javax.ws.rs.core.Application;
+
+/**
+ * REST endpoints of the mediator (for operators, not players), under
+ * {@code /mediator/rest}. Requests must carry the operator token.
+ *
+ * @see OperatorAuthFilter
+ * @see MetricsResource
+ * @see RoomLatencyResource
+ */
+@ApplicationPath("/rest")
+public class MediatorApplication extends Application {
+}
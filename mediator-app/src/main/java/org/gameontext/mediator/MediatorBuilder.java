@@ -15,11 +15,20 @@
  *******************************************************************************/
 package org.gameontext.mediator;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.Instant;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import javax.enterprise.concurrent.ManagedScheduledExecutorService;
 import javax.enterprise.concurrent.ManagedThreadFactory;
@@ -30,6 +39,7 @@ import javax.websocket.Session;
 import org.gameontext.mediator.MediatorNexus.ClientMediatorPod;
 import org.gameontext.mediator.MediatorNexus.UserView;
 import org.gameontext.mediator.RoutedMessage.FlowTarget;
+import org.gameontext.mediator.events.MediatorEvents;
 import org.gameontext.mediator.models.Exit;
 import org.gameontext.mediator.models.Exits;
 import org.gameontext.mediator.models.RoomInfo;
@@ -42,6 +52,7 @@ import org.gameontext.mediator.room.RemoteRoomProxy;
 import org.gameontext.mediator.room.RoomMediator;
 import org.gameontext.mediator.room.RoomMediator.Type;
 import org.gameontext.mediator.room.RoomUtils;
+import org.gameontext.mediator.room.SharedRoomConnections;
 import org.gameontext.mediator.room.SickRoom;
 import org.gameontext.mediator.room.UnknownRoom;
 
@@ -65,6 +76,9 @@ public class MediatorBuilder {
     @Inject
     MediatorNexus nexus;
 
+    @Inject
+    MediatorEvents events;
+
     /** CDI injection of Java EE7 Managed thread factory */
     @Resource
     protected ManagedThreadFactory threadFactory;
@@ -75,10 +89,277 @@ public class MediatorBuilder {
     @Resource(lookup = "systemId")
     String SYSTEM_ID;
 
+    /**
+     * How outbound messages are drained to client and room sessions:
+     * {@value #DRAIN_MODE_THREAD} (default) uses a dedicated thread per drain,
+     * {@value #DRAIN_MODE_DISPATCHED} uses a shared pool of workers sized to the
+     * number of cores, {@value #DRAIN_MODE_ASYNC} writes with the session's
+     * asynchronous remote, without a thread.
+     *
+     * @see {@code drainMode} in
+     *      {@code /mediator-wlpcfg/servers/gameon-mediator/server.xml}
+     */
+    @Resource(lookup = "drainMode")
+    String drainMode;
+
+    static final String DRAIN_MODE_THREAD = "thread";
+    static final String DRAIN_MODE_DISPATCHED = "dispatched";
+    static final String DRAIN_MODE_ASYNC = "async";
+
+    /**
+     * Maximum number of messages waiting to be sent to one client or room.
+     *
+     * @see DrainQueue
+     * @see {@code drainQueueCapacity} in
+     *      {@code /mediator-wlpcfg/servers/gameon-mediator/server.xml}
+     */
+    @Resource(lookup = "drainQueueCapacity")
+    String drainQueueCapacity;
+
+    /**
+     * What drains do when a client or room falls behind: any of
+     * {@code dropOldestChat}, {@code coalescePings} and {@code disconnect}
+     * (default: all), or {@code none}.
+     *
+     * @see DrainQueue.Policy
+     * @see {@code drainQueuePolicy} in
+     *      {@code /mediator-wlpcfg/servers/gameon-mediator/server.xml}
+     */
+    @Resource(lookup = "drainQueuePolicy")
+    String drainQueuePolicy;
+
+    /**
+     * Seconds a drain's queue can stay above its high-water mark before the
+     * session is closed (with the {@code disconnect} policy).
+     *
+     * @see {@code drainQueueDisconnectSeconds} in
+     *      {@code /mediator-wlpcfg/servers/gameon-mediator/server.xml}
+     */
+    @Resource(lookup = "drainQueueDisconnectSeconds")
+    String drainQueueDisconnectSeconds;
+
+    /**
+     * Set to {@code false} to stop negotiating per-message compression
+     * ({@code permessage-deflate}) with clients and rooms.
+     *
+     * @see Compression
+     * @see {@code compression} in
+     *      {@code /mediator-wlpcfg/servers/gameon-mediator/server.xml}
+     */
+    @Resource(lookup = "compression")
+    String compression;
+
+    /**
+     * Minimum size (in characters) of frames sampled for the compression
+     * metrics. Sampling is off when unset.
+     *
+     * @see Compression
+     * @see {@code compressionSampling} in
+     *      {@code /mediator-wlpcfg/servers/gameon-mediator/server.xml}
+     */
+    @Resource(lookup = "compressionSampling")
+    String compressionSampling;
+
+    /**
+     * Maximum number of validated client JWTs kept, so that clients that
+     * reconnect skip validation and signing. 0 turns the cache off.
+     *
+     * @see JwtCache
+     * @see {@code jwtCacheMaxEntries} in
+     *      {@code /mediator-wlpcfg/servers/gameon-mediator/server.xml}
+     */
+    @Resource(lookup = "jwtCacheMaxEntries")
+    String jwtCacheMaxEntries;
+
+    /**
+     * Maximum time (in seconds) a validated client JWT is kept, if it
+     * doesn't expire sooner.
+     *
+     * @see {@code jwtCacheMaxSeconds} in
+     *      {@code /mediator-wlpcfg/servers/gameon-mediator/server.xml}
+     */
+    @Resource(lookup = "jwtCacheMaxSeconds")
+    String jwtCacheMaxSeconds;
+
+    /**
+     * Opt-in (JDK 21+): when true, drain threads and tasks passed to
+     * {@link #execute(Runnable)} run on virtual threads instead of managed
+     * platform threads.
+     *
+     * @see {@code virtualThreads} in
+     *      {@code /mediator-wlpcfg/servers/gameon-mediator/server.xml}
+     */
+    @Resource(lookup = "virtualThreads")
+    String virtualThreads;
+
+    /**
+     * File that trace is written to (as JSON lines) by a background writer.
+     * When not set, trace is written directly to the server log.
+     *
+     * @see {@code asyncLogFile} in
+     *      {@code /mediator-wlpcfg/servers/gameon-mediator/server.xml}
+     */
+    @Resource(lookup = "asyncLogFile")
+    String asyncLogFile;
+
+    /**
+     * Maximum number of trace records waiting to be written to the {@link #asyncLogFile}.
+     *
+     * @see {@code asyncLogCapacity} in
+     *      {@code /mediator-wlpcfg/servers/gameon-mediator/server.xml}
+     */
+    @Resource(lookup = "asyncLogCapacity")
+    String asyncLogCapacity;
+
+    /**
+     * What to do with trace when the {@link #asyncLogFile} falls behind:
+     * {@code drop} (default) or {@code block}.
+     *
+     * @see {@code asyncLogWhenFull} in
+     *      {@code /mediator-wlpcfg/servers/gameon-mediator/server.xml}
+     */
+    @Resource(lookup = "asyncLogWhenFull")
+    String asyncLogWhenFull;
+
+    static final int DEFAULT_ASYNC_LOG_CAPACITY = 64 * 1024;
+
+    /** Background writer for trace, null when trace is written directly */
+    AsyncLogSink logSink;
+    private Writer logWriter;
+
+    /** Validated client JWTs, null if the cache is turned off */
+    JwtCache jwtCache;
+
+    /** Shared workers for dispatched drains, null when using a thread per drain */
+    DrainDispatcher dispatcher;
+
+    /** True when drains write with the session's asynchronous remote */
+    boolean asyncDrains;
+
+    /** Creates the thread for each {@link WSDrain} */
+    ThreadFactory drainThreadFactory;
+
+    /** Virtual thread per task executor, null unless virtual threads are enabled */
+    ExecutorService virtualExecutor;
+
+    /** Keepalive pings for all client sessions */
+    KeepAliveWheel keepAlives;
+
+    /** One websocket per mediator for rooms that ask for a shared connection */
+    final SharedRoomConnections sharedConnections = new SharedRoomConnections();
+
     @PostConstruct
     public void postConstruct() {
         // They need each other, it's cute
         nexus.setBuilder(this);
+
+        startLogSink();
+
+        DrainQueue.setLimits(DrainQueue.Limits.parse(drainQueueCapacity, drainQueuePolicy, drainQueueDisconnectSeconds));
+        Compression.configure(compression, compressionSampling, scheduledExecutor);
+
+        long maxJwts = parseLong(jwtCacheMaxEntries, JwtCache.DEFAULT_MAX_ENTRIES);
+        if ( maxJwts > 0 ) {
+            long maxTtl = TimeUnit.SECONDS.toMillis(parseLong(jwtCacheMaxSeconds, TimeUnit.MILLISECONDS.toSeconds(JwtCache.DEFAULT_MAX_TTL)));
+            jwtCache = new JwtCache((int) Math.min(maxJwts, Integer.MAX_VALUE), maxTtl);
+        }
+
+        drainThreadFactory = threadFactory;
+        if ( Boolean.parseBoolean(virtualThreads) ) {
+            ThreadFactory vtf = VirtualThreads.newThreadFactory("drain-");
+            ExecutorService vex = VirtualThreads.newExecutor();
+            if ( vtf != null && vex != null ) {
+                drainThreadFactory = vtf;
+                virtualExecutor = vex;
+            }
+        }
+
+        // Keep cached sites (and connected rooms) up to date
+        events.subscribeToSiteEvents(this::siteUpdated);
+
+        keepAlives = new KeepAliveWheel(scheduledExecutor);
+        keepAlives.start();
+
+        String mode = DRAIN_MODE_THREAD;
+        if ( DRAIN_MODE_DISPATCHED.equalsIgnoreCase(drainMode) ) {
+            dispatcher = new DrainDispatcher(threadFactory, Runtime.getRuntime().availableProcessors(), scheduledExecutor);
+            dispatcher.start();
+            mode = DRAIN_MODE_DISPATCHED;
+        } else if ( DRAIN_MODE_ASYNC.equalsIgnoreCase(drainMode) ) {
+            asyncDrains = true;
+            mode = DRAIN_MODE_ASYNC;
+        }
+        Log.log(Level.INFO, this, "Outbound drain mode: {0}, virtual threads: {1}, queues: {2}, compression: {3}, JWT cache: {4}",
+                mode, virtualExecutor != null, DrainQueue.getLimits(), Compression.describe(), jwtCache);
+    }
+
+    @PreDestroy
+    public void preDestroy() {
+        if ( keepAlives != null ) {
+            keepAlives.stop();
+        }
+        if ( dispatcher != null ) {
+            dispatcher.stop();
+        }
+        if ( virtualExecutor != null ) {
+            virtualExecutor.shutdownNow();
+        }
+        stopLogSink();
+    }
+
+    private void startLogSink() {
+        // an unset environment variable leaves the ${...} reference as-is
+        if ( asyncLogFile == null || asyncLogFile.trim().isEmpty() || asyncLogFile.startsWith("${") ) {
+            return;
+        }
+
+        int capacity = DEFAULT_ASYNC_LOG_CAPACITY;
+        try {
+            if ( asyncLogCapacity != null ) {
+                capacity = Integer.parseInt(asyncLogCapacity.trim());
+            }
+        } catch (NumberFormatException e) {
+            // not set (or not a number): use the default
+        }
+        AsyncLogSink.WhenFull whenFull = "block".equalsIgnoreCase(asyncLogWhenFull)
+                ? AsyncLogSink.WhenFull.BLOCK : AsyncLogSink.WhenFull.DROP;
+
+        try {
+            logWriter = Files.newBufferedWriter(Paths.get(asyncLogFile.trim()), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            Log.log(Level.WARNING, this, () -> "Unable to open " + asyncLogFile + ", trace will be written to the server log", e);
+            return;
+        }
+
+        logSink = new AsyncLogSink(logWriter, capacity, whenFull, threadFactory);
+        logSink.start();
+        Log.setSink(logSink);
+        Log.log(Level.INFO, this, "Trace written to {0}: {1}", asyncLogFile, logSink);
+    }
+
+    private void stopLogSink() {
+        if ( logSink != null ) {
+            Log.setSink(null);
+            logSink.stop();
+            logSink = null;
+            try {
+                logWriter.close();
+            } catch (IOException e) {
+                Log.log(Level.FINEST, this, "Error closing trace file", e);
+            }
+        }
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        if ( value != null ) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                // not set (or not a number): use the default
+            }
+        }
+        return defaultValue;
     }
 
     /**
@@ -90,18 +371,46 @@ public class MediatorBuilder {
      * @return
      */
     public ClientMediator buildClientMediator(String userId, Session session, String serverJwt) {
-        WSDrain drain = new WSDrain(userId, session);
-        drain.setThread(threadFactory.newThread(drain));
-
-        // Send a keep-alive to the client.
-        drain.setFuture(scheduledExecutor.scheduleAtFixedRate(() -> {
-            drain.send(RoutedMessage.PING_MSG);
-        }, 50, 2, TimeUnit.SECONDS));
+        Drain drain;
+        if ( dispatcher != null ) {
+            DispatchedDrain dispatchedDrain = new DispatchedDrain(userId, session, dispatcher);
+            dispatchedDrain.setKeepAlive(keepAlives.register(dispatchedDrain));
+            drain = dispatchedDrain;
+        } else if ( asyncDrains ) {
+            AsyncDrain asyncDrain = new AsyncDrain(userId, session);
+            asyncDrain.setKeepAlive(keepAlives.register(asyncDrain));
+            drain = asyncDrain;
+        } else {
+            WSDrain wsDrain = new WSDrain(userId, session);
+            wsDrain.setThread(drainThreadFactory.newThread(wsDrain));
+            wsDrain.setKeepAlive(keepAlives.register(wsDrain));
+            drain = wsDrain;
+        }
 
         ClientMediator clientMediator = new ClientMediator(nexus, drain, userId, serverJwt);
         return clientMediator;
     }
 
+    /**
+     * Create a drain for messages headed to a room. The session is provided
+     * when the connection to the room is opened.
+     *
+     * @param roomId
+     * @return a new (not yet started) drain
+     */
+    private Drain createRoomDrain(String roomId) {
+        if ( dispatcher != null ) {
+            return new DispatchedDrain(roomId, dispatcher);
+        }
+        if ( asyncDrains ) {
+            return new AsyncDrain(roomId);
+        }
+
+        WSDrain drain = new WSDrain(roomId);
+        drain.setThread(drainThreadFactory.newThread(drain));
+        return drain;
+    }
+
     /**
      * Find a new mediator for the given room id
      *
@@ -268,13 +577,13 @@ public class MediatorBuilder {
                 Log.getHexHash(proxy), user, Log.getHexHash(currentDelegate), currentDelegate.getType(), site, user);
 
         String roomId = site.getId();
-        WSDrain drain = new WSDrain(roomId);
-        drain.setThread(threadFactory.newThread(drain));
-        
+
         String reason = null;
 
         try {
-            RemoteRoom room = new RemoteRoom(proxy, mapClient, scheduledExecutor, site, drain, nexus.getSingleUserView(roomId, user));
+            RemoteRoom room = new RemoteRoom(proxy, mapClient, scheduledExecutor, site,
+                    () -> createRoomDrain(roomId), nexus.getSingleUserView(roomId, user),
+                    sharedConnections, nexus.getMultiUserView(roomId));
             switch(updateType) {
                 case HELLO:
                     room.hello(user);
@@ -321,7 +630,31 @@ public class MediatorBuilder {
         return mediator;
     }
 
+    /**
+     * A site was created, updated or deleted: update the cached site, and
+     * refresh the rooms of connected players. Connecting to rooms can block,
+     * so the refresh is not done on the thread delivering the event.
+     *
+     * @param siteId
+     * @param site the new site, or null if it was deleted
+     */
+    void siteUpdated(String siteId, Site site) {
+        mapClient.updateSite(siteId, site);
+        execute(() -> nexus.updateRoomInformation(siteId, site));
+    }
+
+    /**
+     * Run a task (e.g. the initial connection to a remote room) asynchronously.
+     * Blocking calls made by the task (map lookups, the websocket handshake)
+     * run on a virtual thread when those are enabled.
+     *
+     * @param r
+     */
     public void execute(Runnable r) {
-        this.scheduledExecutor.execute(r);
+        if ( virtualExecutor != null ) {
+            virtualExecutor.execute(r);
+        } else {
+            this.scheduledExecutor.execute(r);
+        }
     }
 }
@@ -32,6 +32,8 @@ import javax.websocket.server.PathParam;
 import javax.websocket.server.ServerEndpoint;
 
 import org.gameontext.mediator.RoutedMessage.FlowTarget;
+import org.gameontext.mediator.metrics.MediatorMetrics;
+import org.gameontext.mediator.metrics.MediatorMetrics.Direction;
 import org.gameontext.signed.SignedJWT;
 import org.gameontext.signed.SignedJWTValidator;
 import org.gameontext.signed.SignedRequestMap;
@@ -43,7 +45,8 @@ import org.gameontext.signed.SignedRequestMap;
  * (in that the user id is in it), but all sessions are still iterable over the same
  * endpoint.
  */
-@ServerEndpoint(value = "/ws/{userId}", decoders = RoutedMessageDecoder.class, encoders = RoutedMessageEncoder.class)
+@ServerEndpoint(value = "/ws/{userId}", decoders = RoutedMessageDecoder.class, encoders = RoutedMessageEncoder.class,
+        configurator = Compression.ServerConfigurator.class)
 public class MediatorEndpoint {
 
     @Inject
@@ -73,9 +76,20 @@ public class MediatorEndpoint {
         String jwtParam = map.getAll(SignedJWTValidator.JWT_QUERY_PARAMETER, "");
 
         try {
+            // a client that reconnects with the same token skips validation and signing
+            JwtCache cache = mediatorBuilder.jwtCache;
+            JwtCache.Entry cached = cache == null || jwtParam.isEmpty() ? null : cache.get(jwtParam);
+            if (cached != null) {
+                clientMediator = mediatorBuilder.buildClientMediator(userId, session, cached.serverJwt);
+                return;
+            }
+
             SignedJWT clientJWT = validator.getJWT(jwtParam);
             if (clientJWT.isValid()) {
                 String serverJwt = validator.clientToServer(clientJWT);
+                if (cache != null) {
+                    cache.put(jwtParam, clientJWT.getClaims(), serverJwt);
+                }
                 clientMediator = mediatorBuilder.buildClientMediator(userId, session, serverJwt);
             } else {
                 WSUtils.sendMessage(session, RoutedMessage.createSimpleEventMessage(FlowTarget.player, userId, Constants.EVENTMSG_INVALID_JWT));
@@ -114,7 +128,9 @@ public class MediatorEndpoint {
     @OnMessage
     public void onMessage(@PathParam("userId") String userId, RoutedMessage message, Session session)
             throws IOException {
-        Log.log(Level.FINEST, this, "C -> M    R : {0}", message);
+        message.setIngressTime(System.nanoTime());
+        Log.relay(this, "C -> M    R : {0}", message);
+        MediatorMetrics.message(Direction.CLIENT_TO_MEDIATOR, message);
 
         try {
             if (message.getFlowTarget() == FlowTarget.ready) {
@@ -137,7 +153,7 @@ public class MediatorEndpoint {
 
     @OnError
     public void onError(@PathParam("userId") String userId, Session session, Throwable t) {
-        Log.log(Level.FINER, session, "oops for client " + userId + " connection", t);
+        Log.log(Level.FINER, session, () -> "oops for client " + userId + " connection", t);
 
         WSUtils.tryToClose(session, new CloseReason(CloseReason.CloseCodes.UNEXPECTED_CONDITION,
                 WSUtils.trimReason(t.getClass().getName())));
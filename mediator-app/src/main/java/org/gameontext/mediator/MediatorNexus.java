@@ -16,6 +16,8 @@
 package org.gameontext.mediator;
 
 import java.util.ConcurrentModificationException;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
@@ -30,6 +32,8 @@ import org.gameontext.mediator.RoutedMessage.FlowTarget;
 import org.gameontext.mediator.events.EventSubscription;
 import org.gameontext.mediator.events.MediatorEvents;
 import org.gameontext.mediator.events.MediatorEvents.PlayerEventHandler;
+import org.gameontext.mediator.models.Site;
+import org.gameontext.mediator.room.RemoteRoomProxy;
 import org.gameontext.mediator.room.RoomMediator;
 import org.gameontext.mediator.room.RoomMediator.Type;
 
@@ -80,6 +84,31 @@ public class MediatorNexus  {
         this.mediatorBuilder = builder;
     }
 
+    /**
+     * Site information for a room changed: update the room mediators of
+     * connected players.
+     *
+     * @param roomId
+     * @param site the new site, or null if the site was deleted
+     */
+    public void updateRoomInformation(String roomId, Site site) {
+        PodsByRoom list = roomClients.get(roomId);
+        if ( list == null )
+            return;
+
+        for ( ClientMediatorPod pod : list.sessionPods ) {
+            RoomMediator room = pod.room;
+            if ( room instanceof RemoteRoomProxy ) {
+                if ( site == null ) {
+                    // look the room up again (without the cached site)
+                    ((RemoteRoomProxy) room).reconnect();
+                } else {
+                    room.updateInformation(site);
+                }
+            }
+        }
+    }
+
     /**
      * Have a new session join: if there are existing clientMediators, this may trigger
      * some yanking around.
@@ -149,6 +178,37 @@ public class MediatorNexus  {
         }
     }
 
+    /**
+     * @return number of players (each with one or more client sessions)
+     */
+    int playerCount() {
+        return clientMap.size();
+    }
+
+    /**
+     * @return number of rooms with connected players
+     */
+    int occupiedRoomCount() {
+        return roomClients.size();
+    }
+
+    /**
+     * @return number of room mediators (one per player) of each type
+     */
+    Map<Type, Integer> roomMediatorCounts() {
+        Map<Type, Integer> counts = new EnumMap<>(Type.class);
+        for (Type t : Type.values()) {
+            counts.put(t, 0);
+        }
+        for (ClientMediatorPod pod : clientMap.values()) {
+            RoomMediator room = pod.room;
+            if ( room != null ) {
+                counts.merge(room.getType(), 1, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
     private ClientMediatorPod getCreatePod(ClientMediator playerSession) {
         //construct pod if required, or return existing.
         return clientMap.computeIfAbsent(playerSession.getUserId(), k -> new ClientMediatorPod(playerSession.getUserId()));
@@ -185,8 +245,7 @@ public class MediatorNexus  {
 
         @Override
         public void playerUpdated(String userId, String userName, String favoriteColor) {
-            Log.log(Level.FINEST, this,
-                    "player update event for " + userId + " name:" + userName + " color:" + favoriteColor);
+            Log.log(Level.FINEST, this, "player update event for {0} name:{1} color:{2}", userId, userName, favoriteColor);
             send(clientUpdateRequiredAck());
         }
 
@@ -194,11 +253,10 @@ public class MediatorNexus  {
         public void locationUpdated(String userId, String newLocation) {
             if (room.getId().equals(newLocation)) {
                 // no action.. we're already in the right room..
-                Log.log(Level.FINEST, this,
-                        "location update event for " + userId + " pod is already in correct location");
+                Log.log(Level.FINEST, this, "location update event for {0} pod is already in correct location", userId);
             } else {
-                Log.log(Level.INFO, this, "location update event for " + userId + " (known at location " + room.getId()
-                        + ") to location " + newLocation);
+                Log.log(Level.INFO, this, "location update event for {0} (known at location {1}) to location {2}",
+                        userId, room.getId(), newLocation);
                 // transition, but do not update the db, else db update will
                 // lead to locationUpdated which could trigger a loop / war
                 // between scaled pods.
@@ -237,7 +295,7 @@ public class MediatorNexus  {
                     m.switchRooms(message);
                 }
             } else if ( !clientMediators.isEmpty() ){
-                Log.log(Level.FINEST, this, "send -- Dropping message as not for user {0}, destination={0},{1}", userId, message.getFlowTarget(), message.getDestination());
+                Log.relay(this, "send -- Dropping message as not for user {0}, destination={1},{2}", userId, message.getFlowTarget(), message.getDestination());
             }
         }
 
@@ -438,10 +496,9 @@ public class MediatorNexus  {
                 });
                 
                 if(withUpdate){
-                    //update the location in the db.
+                    //update the location in the db: the update is queued, and sent in the background.
                     playerClient.updatePlayerLocation(getUserId(), getUserJwt(), oldRoom.getId(), newRoom.getId());
-                    //we could read the response from updatePlayerLocation to know if the db update was succesfull,
-                    //but if we lost a race to update the location, we'll process the location that won via the 
+                    //if we lost a race to update the location, we'll process the location that won via the 
                     //event from kafka.. giving us a single timeline of locations to process.
                 }
 
@@ -568,19 +625,32 @@ public class MediatorNexus  {
 
             if ("*".equals(message.getDestination()) ) {
                 PodsByRoom list = roomClients.get(roomId);
-                Log.log(Level.FINEST, this, "MUV-broadcast({0}): Send {1} to {2}",
-                        list.sessionPods.isEmpty(), message);
+                if ( list == null ) {
+                    // a shared room connection can outlive the last player
+                    return;
+                }
+                Log.relay(this, "MUV-broadcast({0}): Send {1} to {2}",
+                        list.sessionPods.isEmpty(), message, list);
+
+                // encode once, the same frame is written to every session
+                message.encode();
 
                 for( ClientMediatorPod cm : list.sessionPods ) {
                     cm.send(message);
                 }
             } else {
                 ClientMediatorPod p = clientMap.get(message.getDestination());
-                Log.log(Level.FINEST, this, "MUV-send({0}): Send {1} to {2}",
-                        stillConnected(), message, p);
+                if ( Log.isRelayLoggable() ) {
+                    Log.relay(this, "MUV-send({0}): Send {1} to {2}", stillConnected(), message, p);
+                }
 
-                if ( p != null )
+                // a (shared) room may only address players that are in it
+                PodsByRoom list = roomClients.get(roomId);
+                if ( p != null && list != null && list.sessionPods.contains(p) ) {
                     p.send(message);
+                } else if ( p != null ) {
+                    Log.log(Level.FINE, this, "MUV-send: Dropping {0} for player not in room {1}", message, roomId);
+                }
             }
         }
 
@@ -590,7 +660,7 @@ public class MediatorNexus  {
             if ( list == null )
                 return false;
 
-            return list.sessionPods.isEmpty();
+            return !list.sessionPods.isEmpty();
         }
     }
 
@@ -608,16 +678,22 @@ public class MediatorNexus  {
 
             if ("*".equals(message.getDestination()) ) {
                 PodsByRoom list = roomClients.get(roomId);
-                Log.log(Level.FINEST, this, "FMUV-broadcast({0}/{1}): Send {2} to {3}",
-                        roomType, list.sessionPods.isEmpty(), message, list);
+                if ( Log.isRelayLoggable() ) {
+                    Log.relay(this, "FMUV-broadcast({0}): Send {1} to {2}",
+                            roomType + "/" + list.sessionPods.isEmpty(), message, list);
+                }
+
+                // encode once, the same frame is written to every session
+                message.encode();
 
                 for( ClientMediatorPod cm : list.sessionPods ) {
                     cm.filteredSend(roomType, message);
                 }
             } else {
                 ClientMediatorPod p = clientMap.get(message.getDestination());
-                Log.log(Level.FINEST, this, "FMUV-send({0}): Send {1} to {2}",
-                        stillConnected(), message, p);
+                if ( Log.isRelayLoggable() ) {
+                    Log.relay(this, "FMUV-send({0}): Send {1} to {2}", stillConnected(), message, p);
+                }
 
                 if ( p != null )
                     p.send(message);
@@ -648,8 +724,9 @@ public class MediatorNexus  {
 
         @Override
         public void sendToClients(RoutedMessage message) {
-            Log.log(Level.FINEST, this, "Single-user view {0}: Send {1} to {2}",
-                    stillConnected(), message, connectedClients);
+            if ( Log.isRelayLoggable() ) {
+                Log.relay(this, "Single-user view {0}: Send {1} to {2}", stillConnected(), message, connectedClients);
+            }
 
             if ( stillConnected() ) {
                 connectedClients.send(message);
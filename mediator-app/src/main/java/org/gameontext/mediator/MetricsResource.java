@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.Map;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+
+import org.gameontext.mediator.metrics.MediatorMetrics;
+import org.gameontext.mediator.metrics.RoomLatency;
+import org.gameontext.mediator.room.RoomMediator.Type;
+
+/**
+ * Mediator metrics, in Prometheus text format: {@code GET /mediator/rest/metrics}
+ * <p>
+ * Counters and histograms are updated as messages flow
+ * (see {@link MediatorMetrics}); gauges are read from the nexus and the
+ * map client when metrics are requested.
+ * </p>
+ */
+@ApplicationScoped
+@Path("metrics")
+public class MetricsResource {
+
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+
+    @Inject
+    MediatorNexus nexus;
+
+    @Inject
+    MapClient mapClient;
+
+    @Inject
+    MediatorBuilder mediatorBuilder;
+
+    @GET
+    @Produces(CONTENT_TYPE)
+    public String getMetrics() {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        MediatorMetrics.write(out);
+        RoomLatency.write(out);
+
+        gauge(out, "mediator_players", "Players with connected sessions", nexus.playerCount());
+        gauge(out, "mediator_occupied_rooms", "Rooms with connected players", nexus.occupiedRoomCount());
+
+        MediatorMetrics.header(out, "mediator_room_mediators", "gauge", "Room mediators, by type");
+        for (Map.Entry<Type, Integer> e : nexus.roomMediatorCounts().entrySet()) {
+            out.append("mediator_room_mediators{type=\"").append(e.getKey()).append("\"} ")
+               .append(e.getValue()).append('\n');
+        }
+
+        SiteCacheMap cache = mapClient.getSiteCache();
+        gauge(out, "mediator_site_cache_entries", "Sites in the cache", cache.size());
+        gauge(out, "mediator_site_cache_weight", "Estimated size of cached sites", cache.weight());
+        counter(out, "mediator_site_cache_hits_total", "Site cache hits", cache.hits.sum());
+        counter(out, "mediator_site_cache_misses_total", "Site cache misses", cache.misses.sum());
+        counter(out, "mediator_site_cache_evictions_total", "Sites evicted from the cache", cache.evictions.sum());
+
+        JwtCache jwts = mediatorBuilder.jwtCache;
+        if ( jwts != null ) {
+            gauge(out, "mediator_jwt_cache_entries", "Validated client JWTs in the cache", jwts.size());
+            counter(out, "mediator_jwt_cache_hits_total", "Client sessions opened with a cached JWT", jwts.hits.sum());
+            counter(out, "mediator_jwt_cache_misses_total", "Client sessions that had to validate their JWT", jwts.misses.sum());
+            counter(out, "mediator_jwt_cache_evictions_total", "JWTs evicted from the cache", jwts.evictions.sum());
+        }
+
+        counter(out, "mediator_log_dropped_total", "Trace records dropped (asynchronous log buffer full)", Log.droppedRecords());
+        return out.toString();
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        MediatorMetrics.header(out, name, "gauge", help);
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        MediatorMetrics.header(out, name, "counter", help);
+        out.append(name).append(' ').append(value).append('\n');
+    }
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.logging.Level;
+
+import javax.annotation.Resource;
+import javax.enterprise.context.ApplicationScoped;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Restricts the REST endpoints (metrics, queues, room latency) to operators.
+ * They are served on the same endpoint as player connections, so requests
+ * must carry the configured operator token:
+ * {@code Authorization: Bearer <operatorToken>}.
+ * <p>
+ * When no token is configured, the endpoints are disabled.
+ * </p>
+ *
+ * @see MediatorApplication
+ */
+@ApplicationScoped
+@Provider
+public class OperatorAuthFilter implements ContainerRequestFilter {
+
+    static final String BEARER = "Bearer ";
+
+    /**
+     * Token operators (and metrics scrapers) present to use the REST endpoints.
+     *
+     * @see {@code operatorToken} in
+     *      {@code /mediator-wlpcfg/servers/gameon-mediator/server.xml}
+     */
+    @Resource(lookup = "operatorToken")
+    String operatorToken;
+
+    @Override
+    public void filter(ContainerRequestContext request) {
+        Response.Status status = check(request.getHeaderString(HttpHeaders.AUTHORIZATION));
+        if ( status == Response.Status.FORBIDDEN ) {
+            Log.log(Level.FINER, this, "Operator endpoints are disabled: no operatorToken, {0}", request.getUriInfo().getPath());
+            request.abortWith(Response.status(status).build());
+        } else if ( status != null ) {
+            Log.log(Level.FINER, this, "Unauthorized request for {0}", request.getUriInfo().getPath());
+            request.abortWith(Response.status(status).header(HttpHeaders.WWW_AUTHENTICATE, "Bearer").build());
+        }
+    }
+
+    /**
+     * @param authorization
+     *            Value of the Authorization header, may be null
+     * @return null if the request may proceed, otherwise the status of the
+     *         response: FORBIDDEN if no token is configured, UNAUTHORIZED if
+     *         the request doesn't carry it
+     */
+    Response.Status check(String authorization) {
+        // An unset environment variable leaves the ${...} reference as-is
+        if ( operatorToken == null || operatorToken.trim().isEmpty() || operatorToken.startsWith("${") ) {
+            return Response.Status.FORBIDDEN;
+        }
+        if ( authorization == null || !authorization.startsWith(BEARER)
+                || !matches(authorization.substring(BEARER.length()).trim()) ) {
+            return Response.Status.UNAUTHORIZED;
+        }
+        return null;
+    }
+
+    /** Compare tokens in constant time */
+    private boolean matches(String token) {
+        return MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                operatorToken.trim().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -15,12 +15,12 @@
  *******************************************************************************/
 package org.gameontext.mediator;
 
-import java.io.IOException;
 import java.io.StringReader;
 import java.util.logging.Level;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
 import javax.enterprise.context.ApplicationScoped;
 import javax.json.Json;
 import javax.json.JsonObject;
@@ -38,7 +38,7 @@ import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import org.gameontext.mediator.metrics.MediatorMetrics;
 
 /**
  * A wrapped/encapsulation of outbound REST requests to the player service.
@@ -67,6 +67,13 @@ public class PlayerClient {
     @Resource(lookup = "playerUrl")
     String playerLocation;
 
+    /** Sends location updates in the background */
+    @Resource
+    ManagedScheduledExecutorService executor;
+
+    /** Location updates waiting to be sent, or null to send them inline */
+    LocationUpdates locationUpdates;
+
     /**
      * The root target used to define the root path and common query parameters
      * for all outbound requests to the player service.
@@ -75,6 +82,8 @@ public class PlayerClient {
      */
     WebTarget root;
 
+    /** Name of this service in request metrics */
+    static final String METRICS_SERVICE = "player";
 
     public class TheNotVerySensibleHostnameVerifier implements HostnameVerifier {
         @Override
@@ -107,13 +116,45 @@ public class PlayerClient {
 
         this.root = client.target(playerLocation);
 
+        if ( executor != null ) {
+            locationUpdates = new LocationUpdates(this::putPlayerLocation, executor);
+        }
+
         Log.log(Level.FINER, this, "Player client initialized with {0}", playerLocation);
     }
 
     /**
-     * Update the player's location. The new location will always be returned
-     * from the service, in the face of a conflict between updates for the
-     * player across devices, we'll get back the one that won.
+     * Update the player's location. The update is queued, and sent in the
+     * background: if the player moves again before it is sent, only one
+     * update (from the old location to the latest) is sent.
+     * <p>
+     * In the face of a conflict between updates for the player across
+     * devices, the service keeps the one that won, and we'll hear about it
+     * from the player's location event.
+     * </p>
+     *
+     * @param playerId
+     *            The player id
+     * @param jwt
+     *            The server jwt for this player id.
+     * @param oldRoomId
+     *            The old room's id
+     * @param newRoomId
+     *            The new room's id
+     * @see LocationUpdates
+     */
+    public void updatePlayerLocation(String playerId, String jwt, String oldRoomId, String newRoomId) {
+        if ( locationUpdates != null ) {
+            locationUpdates.update(playerId, jwt, oldRoomId, newRoomId);
+        } else {
+            putPlayerLocation(playerId, jwt, oldRoomId, newRoomId);
+        }
+    }
+
+    /**
+     * Send a location update to the player service. The new location is
+     * returned by the service: it should match {@code newRoomId} unless we
+     * didn't win the race to change the location.
      *
      * @param playerId
      *            The player id
@@ -123,11 +164,9 @@ public class PlayerClient {
      *            The old room's id
      * @param newRoomId
      *            The new room's id
-     * @return The id of the selected new room, taking contention into account.
-     * @throws IOException
-     * @throws JsonProcessingException
+     * @return HTTP status of the response, or 0 if there was no response
      */
-    public String updatePlayerLocation(String playerId, String jwt, String oldRoomId, String newRoomId) {
+    int putPlayerLocation(String playerId, String jwt, String oldRoomId, String newRoomId) {
         WebTarget target = this.root.path("{playerId}/location").resolveTemplate("playerId", playerId).queryParam("jwt",
                 jwt);
 
@@ -135,11 +174,14 @@ public class PlayerClient {
 
         Log.log(Level.INFO, this, "updating location using {0} with putdata {1}", target.getUri().toString(), parameter.toString());
 
+        long start = System.nanoTime();
+        int status = 0;
         try {
             // Make PUT request using the specified target, get result as a
             // string containing JSON
             String resultString = target.request(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON)
                     .header("Content-type", "application/json").put(Entity.json(parameter), String.class);
+            status = Response.Status.OK.getStatusCode();
 
             Log.log(Level.INFO, this, "response was {0}", resultString);
 
@@ -148,22 +190,21 @@ public class PlayerClient {
             String location = result.getString("location");
 
             Log.log(Level.INFO, this, "response location {0}", location);
-            //location should match the 'newRoomId' unless we didn't win the race to change the location.
-            return location;
         } catch (ResponseProcessingException rpe) {
             Response response = rpe.getResponse();
+            status = response.getStatus();
             Log.log(Level.WARNING, this, "Exception changing player location,  uri: {0} resp code: {1}",
                     target.getUri().toString(),
                     response.getStatusInfo().getStatusCode() + " " + response.getStatusInfo().getReasonPhrase()
                     );
             Log.log(Level.WARNING, this, "Exception changing player location", rpe);
         } catch (ProcessingException | WebApplicationException ex) {
+            status = status(ex);
             Log.log(Level.WARNING, this, "Exception changing player location (" + target.getUri().toString() + ")", ex);
+        } finally {
+            MediatorMetrics.request(METRICS_SERVICE, status, start);
         }
-
-        // Sadly, badness happened while trying to set the new room location
-        // return to old room
-        return oldRoomId;
+        return status;
     }
 
     /**
@@ -179,6 +220,8 @@ public class PlayerClient {
 
         Log.log(Level.FINER, this, "requesting shared secret using {0}", target.getUri().toString());
 
+        long start = System.nanoTime();
+        int status = 0;
         try {
             // Make PUT request using the specified target, get result as a
             // string containing JSON
@@ -186,6 +229,7 @@ public class PlayerClient {
             builder.header("Content-type", "application/json");
             builder.header("gameon-jwt", jwt);
             String result = builder.get(String.class);
+            status = Response.Status.OK.getStatusCode();
 
             JsonReader p = Json.createReader(new StringReader(result));
             JsonObject j = p.readObject();
@@ -193,6 +237,7 @@ public class PlayerClient {
             return creds.getString("sharedSecret");
         } catch (ResponseProcessingException rpe) {
             Response response = rpe.getResponse();
+            status = response.getStatus();
             Log.log(Level.FINER, this, "Exception obtaining shared secret for player,  uri: {0} resp code: {1} data: {2}",
                     target.getUri().toString(),
                     response.getStatusInfo().getStatusCode() + " " + response.getStatusInfo().getReasonPhrase(),
@@ -200,11 +245,27 @@ public class PlayerClient {
 
             Log.log(Level.FINEST, this, "Exception obtaining shared secret for player", rpe);
         } catch (ProcessingException | WebApplicationException ex) {
+            status = status(ex);
             Log.log(Level.FINEST, this, "Exception obtaining shared secret for player (" + target.getUri().toString() + ")", ex);
+        } finally {
+            MediatorMetrics.request(METRICS_SERVICE, status, start);
         }
 
         // Sadly, badness happened while trying to get the shared secret
         return null;
     }
 
+    /**
+     * @param ex
+     * @return status of the response for a failed request, or 0 if there was
+     *         no response
+     */
+    private static int status(RuntimeException ex) {
+        if ( ex instanceof WebApplicationException ) {
+            Response response = ((WebApplicationException) ex).getResponse();
+            return response == null ? 0 : response.getStatus();
+        }
+        return 0;
+    }
+
 }
@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+/**
+ * A message waiting in a {@link Drain}'s queue, with the time it was queued.
+ * Messages can be shared (e.g. {@link RoutedMessage#PING_MSG}), so the time
+ * is kept here rather than on the message.
+ */
+final class QueuedMessage {
+    final RoutedMessage message;
+
+    /** {@link System#nanoTime()} when the message was queued */
+    final long queuedAt = System.nanoTime();
+
+    QueuedMessage(RoutedMessage message) {
+        this.message = message;
+    }
+}
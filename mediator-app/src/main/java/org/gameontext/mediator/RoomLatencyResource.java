@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.List;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+import org.gameontext.mediator.metrics.RoomLatency;
+
+/**
+ * Rooms that take the longest to respond to players:
+ * {@code GET /mediator/rest/rooms/slowest?limit=10}
+ *
+ * @see RoomLatency
+ */
+@ApplicationScoped
+@Path("rooms")
+public class RoomLatencyResource {
+
+    static final int MAX_LIMIT = 1000;
+
+    @GET
+    @Path("slowest")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<RoomLatency.Stats> getSlowestRooms(@QueryParam("limit") @DefaultValue("10") int limit) {
+        return RoomLatency.slowest(Math.max(0, Math.min(limit, MAX_LIMIT)));
+    }
+}
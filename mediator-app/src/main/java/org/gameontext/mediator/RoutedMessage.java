@@ -15,6 +15,7 @@
  *******************************************************************************/
 package org.gameontext.mediator;
 
+import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
@@ -91,10 +92,27 @@ public class RoutedMessage {
 
         private final String name;
 
+        private static final FlowTarget[] VALUES = values();
+
         FlowTarget(String name) {
             this.name = name;
         }
 
+        /**
+         * Equivalent to {@code valueOf(s.substring(start, end))}, without
+         * creating the substring.
+         */
+        static FlowTarget valueOf(String s, int start, int end) {
+            int len = end - start;
+            for (FlowTarget t : VALUES) {
+                if ( t.name.length() == len && s.regionMatches(start, t.name, 0, len) ) {
+                    return t;
+                }
+            }
+            throw new IllegalArgumentException("No enum constant " + FlowTarget.class.getCanonicalName()
+                    + "." + s.substring(start, end));
+        }
+
         public boolean forPlayer() {
             return name.startsWith(RoutedMessage.PLAYER);
         }
@@ -173,9 +191,10 @@ public class RoutedMessage {
     }
     
     /**
-     * For pass-through messages, keep the original value to resend.
+     * For pass-through messages, keep the original value to resend. For
+     * other messages, this is built once by {@link #encode()}.
      */
-    private String wholeMessage;
+    private volatile String wholeMessage;
 
     /**
      * Either player* if the message is flowing from room to player, or room* if
@@ -189,14 +208,26 @@ public class RoutedMessage {
      * out messages that aren't intended for them (more common with the player
      * service than with the room).
      */
-    private final String destination;
+    private String destination;
+
+    /**
+     * Offsets of the destination in {@link #wholeMessage}, used to create
+     * {@link #destination} only when asked for it.
+     */
+    private int destinationStart, destinationEnd;
 
     /**
      * String containing the payload of the message. Not set when the message is
-     * constructed using a JsonObject
+     * constructed using a JsonObject, or when it was parsed from a whole
+     * message (see {@link #bodyStart}).
      */
     private String messageData = null;
 
+    /**
+     * For parsed messages, the offset of the payload in {@link #wholeMessage}.
+     */
+    private int bodyStart = -1;
+
     /**
      * JsonObject representing the payload of the message (beyond the routing
      * data). This field is set lazily for objects built by the decoder. We try
@@ -205,6 +236,13 @@ public class RoutedMessage {
      */
     private JsonObject jsonData = null;
 
+    /**
+     * {@link System#nanoTime()} when a message from a client was received by
+     * the mediator, 0 for other messages. Used to measure how long a room
+     * takes to respond.
+     */
+    private long ingressTime = 0;
+
     /**
      * Parse the source message to pull off the routing data. Routing data has
      * two or three parts:
@@ -231,29 +269,60 @@ public class RoutedMessage {
         // anything with the Json payload unless/until we need to.
         // Also, we don't split on commas arbitrarily: there are commas in the
         // json payload, which means unnecessary splitting and joining.
-        ArrayList<String> list = new ArrayList<>(3);
-        
+        // Only offsets are recorded: the routing fields and the payload
+        // are not copied out of the original message, which is forwarded
+        // as-is if the mediator is only relaying it.
         int brace = message.indexOf('{');
+        int count = 0;
         int i = 0;
+        int targetEnd = 0;
         int j = message.indexOf(',');
         while (j > 0 && j < brace) {
-            list.add(message.substring(i, j).trim());
+            if ( count == 0 ) {
+                targetEnd = j;
+            } else if ( count == 1 ) {
+                destinationStart = skipWhitespace(message, i, j);
+                destinationEnd = trimWhitespace(message, destinationStart, j);
+            }
+            count++;
             i = j + 1;
             j = message.indexOf(',', i);
         }
-        
-        if ( list.isEmpty() ) {
+
+        if ( count == 0 ) {
             // UMMM. Badness. Bad message. Bad!
             throw new DecodeException(message, "Badly formatted payload, unable to determine flow target");
         }
 
-        // stash all of the rest in the data field.
-        this.messageData = message.substring(i).trim();
+        // the rest is the payload
+        this.bodyStart = skipWhitespace(message, i, message.length());
 
         // The flowTarget is always present.
         // The destination may or may not be present, but shouldn't return null.
-        this.flowTarget = FlowTarget.valueOf(list.get(0));
-        this.destination = list.size() > 1 ? list.get(1) : "";
+        int targetStart = skipWhitespace(message, 0, targetEnd);
+        this.flowTarget = FlowTarget.valueOf(message, targetStart, trimWhitespace(message, targetStart, targetEnd));
+
+        if ( count == 1 ) {
+            this.destination = "";
+        } else if ( destinationEnd - destinationStart == 1 && message.charAt(destinationStart) == '*' ) {
+            this.destination = "*";
+        }
+    }
+
+    /** @return index of the first non-whitespace character in [start, end) (as String.trim) */
+    private static int skipWhitespace(String s, int start, int end) {
+        while (start < end && s.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    /** @return end index of [start, end) with trailing whitespace removed (as String.trim) */
+    private static int trimWhitespace(String s, int start, int end) {
+        while (end > start && s.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
     }
 
     /**
@@ -289,6 +358,22 @@ public class RoutedMessage {
         this.jsonData = jsonData;
     }
 
+    /**
+     * @return {@link System#nanoTime()} when the message was received from a
+     *         client, or 0
+     */
+    public long getIngressTime() {
+        return ingressTime;
+    }
+
+    /**
+     * @param ingressTime
+     *            {@link System#nanoTime()} when the message was received from a client
+     */
+    public void setIngressTime(long ingressTime) {
+        this.ingressTime = ingressTime;
+    }
+
     /**
      * @return the routing portion of the original message (player*, room*,
      *         ready, ack, sos)
@@ -310,7 +395,19 @@ public class RoutedMessage {
         // We also are not using the more advanced streaming APIs, as the
         // messages the player service unpacks tend to be short and focused.
         if (jsonData == null) {
-            JsonReader jsonReader = Json.createReader(new StringReader(messageData));
+            StringReader reader;
+            if ( messageData != null ) {
+                reader = new StringReader(messageData);
+            } else {
+                // read the payload straight out of the original message
+                reader = new StringReader(wholeMessage);
+                try {
+                    reader.skip(bodyStart);
+                } catch (IOException e) {
+                    // not thrown by StringReader
+                }
+            }
+            JsonReader jsonReader = Json.createReader(reader);
             jsonData = jsonReader.readObject();
         }
 
@@ -330,16 +427,31 @@ public class RoutedMessage {
      *         sessionPods)
      */
     public String getDestination() {
+        if ( destination == null ) {
+            destination = wholeMessage.substring(destinationStart, destinationEnd);
+        }
         return destination;
     }
 
+    /**
+     * @param id
+     * @return true if the destination is the given (room or player) id
+     */
+    private boolean isDestination(String id) {
+        if ( destination != null ) {
+            return destination.equals(id);
+        }
+        int len = destinationEnd - destinationStart;
+        return id.length() == len && wholeMessage.regionMatches(destinationStart, id, 0, len);
+    }
+
     /**
      * @param userId
      * @return true if this message should be sent to the specified user
      */
     public boolean isForUser(String userId) {
         if (flowTarget.forPlayer() ) {
-            return "*".equals(destination) || destination.equals(userId);
+            return "*".equals(destination) || isDestination(userId);
         }
         return flowTarget == FlowTarget.ack;
     }
@@ -357,7 +469,7 @@ public class RoutedMessage {
      */
     public boolean isForRoom(RoomMediator targetRoom) {
         if ( flowTarget.forRoom() ) {
-            return destination.equals(targetRoom.getId());
+            return isDestination(targetRoom.getId());
         }
         return false;
     }
@@ -381,7 +493,7 @@ public class RoutedMessage {
                     result = value.toString();
                 }
             } catch (Exception e) { // class cast, etc
-                Log.log(Level.FINER, this, "Exception parsing String: " + value, e);
+                Log.log(Level.FINER, this, () -> "Exception parsing String: " + value, e);
                 // fall through to return default value
             }
         }
@@ -429,7 +541,7 @@ public class RoutedMessage {
                 ((JsonArray) arrayValue).forEach(value -> result.add(((JsonNumber) value).longValue()));
                 return result;
             } catch (Exception e) { // class cast, etc
-                Log.log(Level.FINER, this, "Exception parsing JsonArray: " + arrayValue, e);
+                Log.log(Level.FINER, this, () -> "Exception parsing JsonArray: " + arrayValue, e);
                 // fall through to return default value
             }
         }
@@ -476,26 +588,39 @@ public class RoutedMessage {
     }
 
 
-    @Override
-    public String toString() {
-        if (wholeMessage != null)
-            return wholeMessage;
+    /**
+     * Get the text frame for this message. It is built at most once, and the
+     * same String is written to every session the message is sent to:
+     * broadcasts should call this before fanning out.
+     *
+     * @return the encoded message
+     */
+    public String encode() {
+        String result = wholeMessage;
+        if (result != null)
+            return result;
 
-        StringBuilder result = new StringBuilder();
-        result.append(flowTarget).append(',');
+        StringBuilder builder = new StringBuilder();
+        builder.append(flowTarget).append(',');
 
         if (!destination.isEmpty()) {
-            result.append(destination).append(',');
+            builder.append(destination).append(',');
         }
 
         if (messageData != null) {
-            result.append(messageData);
+            builder.append(messageData);
         } else if (jsonData != null) {
-            result.append(jsonData.toString());
+            builder.append(jsonData.toString());
         }
 
-        wholeMessage = result.toString();
-        return wholeMessage;
+        result = builder.toString();
+        wholeMessage = result;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return encode();
     }
 
 }
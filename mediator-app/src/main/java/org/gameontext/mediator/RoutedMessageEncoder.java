@@ -28,13 +28,13 @@ import javax.websocket.EndpointConfig;
 public class RoutedMessageEncoder implements Encoder.Text<RoutedMessage> {
 
     /**
-     * Simple encoder: relies in the RoutedMessage to stringify itself
+     * Simple encoder: relies on the RoutedMessage to encode itself
      *
      * @see javax.websocket.Encoder.Text#encode(java.lang.Object)
      */
     @Override
     public String encode(RoutedMessage object) throws EncodeException {
-        return object.toString();
+        return object.encode();
     }
 
     @Override
@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+import org.gameontext.mediator.MapClient.SiteCache;
+import org.gameontext.mediator.models.RoomInfo;
+import org.gameontext.mediator.models.Site;
+
+/**
+ * Bounded cache of sites, by room id, for the {@link MapClient}.
+ * <p>
+ * Eviction uses a segmented LRU: new entries start in a probationary segment,
+ * and move to the protected segment if they are used again. When the cache is
+ * over its maximum number of entries, or maximum (estimated) weight, the least
+ * recently used probationary entries are evicted first, so a burst of rooms
+ * visited once does not push out the rooms everyone keeps coming back to.
+ * </p>
+ */
+class SiteCacheMap {
+
+    /** Fraction of the entries (and weight) reserved for the protected segment */
+    static final double PROTECTED_RATIO = 0.8;
+
+    /** Approximate size of a cached site excluding its strings (exits, etc.), in bytes */
+    static final long BASE_WEIGHT = 512;
+
+    private final int maxEntries;
+    private final long maxWeight;
+
+    /** Entries seen once, in LRU order */
+    private final LinkedHashMap<String, SiteCache> probation = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Entries used more than once, in LRU order */
+    private final LinkedHashMap<String, SiteCache> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long weight = 0;
+    private long protectedWeight = 0;
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxEntries
+     *            Maximum number of cached sites
+     * @param maxWeight
+     *            Maximum estimated size of the cached sites, in bytes
+     */
+    SiteCacheMap(int maxEntries, long maxWeight) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.maxWeight = Math.max(1, maxWeight);
+    }
+
+    /**
+     * @param roomId
+     * @return the cached entry, or null
+     */
+    synchronized SiteCache get(String roomId) {
+        SiteCache sc = protectedSegment.get(roomId);
+        if ( sc == null ) {
+            sc = probation.remove(roomId);
+            if ( sc == null ) {
+                misses.increment();
+                return null;
+            }
+
+            // used again: promote
+            protectedSegment.put(roomId, sc);
+            protectedWeight += sc.weight;
+            demoteProtected();
+        }
+        hits.increment();
+        return sc;
+    }
+
+    /**
+     * @param roomId
+     * @return the cached entry, or null, without counting as a use
+     */
+    synchronized SiteCache peek(String roomId) {
+        SiteCache sc = protectedSegment.get(roomId);
+        return sc == null ? probation.get(roomId) : sc;
+    }
+
+    synchronized void put(String roomId, SiteCache sc) {
+        sc.weight = weigh(sc.site);
+        removeEntry(roomId);
+
+        probation.put(roomId, sc);
+        weight += sc.weight;
+        evict();
+    }
+
+    synchronized void remove(String roomId) {
+        removeEntry(roomId);
+    }
+
+    synchronized int size() {
+        return probation.size() + protectedSegment.size();
+    }
+
+    synchronized long weight() {
+        return weight;
+    }
+
+    /**
+     * @return a copy of the cached entries
+     */
+    synchronized List<Map.Entry<String, SiteCache>> entries() {
+        List<Map.Entry<String, SiteCache>> result = new ArrayList<>(size());
+        result.addAll(protectedSegment.entrySet());
+        result.addAll(probation.entrySet());
+        return result;
+    }
+
+    private void removeEntry(String roomId) {
+        SiteCache old = probation.remove(roomId);
+        if ( old == null ) {
+            old = protectedSegment.remove(roomId);
+            if ( old != null ) {
+                protectedWeight -= old.weight;
+            }
+        }
+        if ( old != null ) {
+            weight -= old.weight;
+        }
+    }
+
+    /** Move the least recently used protected entries back to probation */
+    private void demoteProtected() {
+        Iterator<Map.Entry<String, SiteCache>> i = protectedSegment.entrySet().iterator();
+        while ( i.hasNext() && (protectedSegment.size() > maxEntries * PROTECTED_RATIO
+                || protectedWeight > maxWeight * PROTECTED_RATIO) ) {
+            Map.Entry<String, SiteCache> e = i.next();
+            i.remove();
+            protectedWeight -= e.getValue().weight;
+            probation.put(e.getKey(), e.getValue());
+        }
+    }
+
+    /** Evict probationary (then protected) entries until we're within bounds */
+    private void evict() {
+        while ( size() > maxEntries || weight > maxWeight ) {
+            Map<String, SiteCache> victims = probation.isEmpty() ? protectedSegment : probation;
+            Iterator<Map.Entry<String, SiteCache>> i = victims.entrySet().iterator();
+            if ( !i.hasNext() )
+                return;
+
+            Map.Entry<String, SiteCache> e = i.next();
+            i.remove();
+            weight -= e.getValue().weight;
+            if ( victims == protectedSegment ) {
+                protectedWeight -= e.getValue().weight;
+            }
+            evictions.increment();
+            Log.log(Level.FINEST, this, "Evicted site {0}", e.getKey());
+        }
+    }
+
+    /**
+     * @param site
+     * @return estimated size of the site in memory, in bytes
+     */
+    static long weigh(Site site) {
+        long w = BASE_WEIGHT;
+        if ( site != null ) {
+            w += length(site.getId()) + length(site.getOwner());
+            RoomInfo info = site.getInfo();
+            if ( info != null ) {
+                w += length(info.getName()) + length(info.getFullName()) + length(info.getDescription());
+            }
+        }
+        return w;
+    }
+
+    private static long length(String s) {
+        return s == null ? 0 : 2L * s.length();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return this.getClass().getSimpleName()
+                + "[size=" + size()
+                + ", weight=" + weight
+                + ", hits=" + hits
+                + ", misses=" + misses
+                + ", evictions=" + evictions
+                + "]";
+    }
+}
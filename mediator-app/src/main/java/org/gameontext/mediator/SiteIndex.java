@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.gameontext.mediator.models.Site;
+
+/**
+ * Results of room-list queries to the map service (by owner, or by room
+ * name), for the {@link MapClient}.
+ * <p>
+ * A query result is only indexed when it is complete, i.e. it was returned
+ * by the map service. Site events then keep the indexed results current:
+ * sites that are created, updated or deleted are added to or removed from
+ * the results they belong to. Results are used until they expire, in case
+ * an event was missed.
+ * </p>
+ */
+class SiteIndex {
+
+    /** How long an indexed result is used before it is fetched again */
+    static final long TTL = TimeUnit.SECONDS.toNanos(60);
+
+    /** Maximum number of indexed results (by owner, and by name) */
+    static final int MAX_KEYS = 1000;
+
+    private final Map<String, Entry> byOwner = lru();
+    private final Map<String, Entry> byName = lru();
+
+    /** Where each indexed site is, so it can be moved when it changes */
+    private final Map<String, Site> indexed = new HashMap<>();
+
+    /** Incremented by every update, to discard query results that raced with one */
+    private long generation = 0;
+
+    static class Entry {
+        final long loaded = System.nanoTime();
+        final Map<String, Site> sites = new LinkedHashMap<>();
+
+        boolean isFresh(long now) {
+            return now - loaded <= TTL;
+        }
+    }
+
+    /**
+     * @param owner
+     * @return indexed sites owned by the owner, or null if there is no fresh result
+     */
+    synchronized List<Site> getByOwner(String owner) {
+        return get(byOwner, owner);
+    }
+
+    /**
+     * @param name
+     * @return indexed sites with the given name, or null if there is no fresh result
+     */
+    synchronized List<Site> getByName(String name) {
+        return get(byName, name);
+    }
+
+    /**
+     * @return the generation to pass to {@link #putByOwner} or {@link #putByName}
+     *      once the query completes
+     */
+    synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Index the result of a query by owner.
+     * @param owner
+     * @param sites complete list of sites owned by the owner
+     * @param generation from {@link #generation()} before the query was made
+     */
+    synchronized void putByOwner(String owner, List<Site> sites, long generation) {
+        put(byOwner, owner, sites, generation);
+    }
+
+    /**
+     * Index the result of a query by name.
+     * @param name
+     * @param sites complete list of sites with the given name
+     * @param generation from {@link #generation()} before the query was made
+     */
+    synchronized void putByName(String name, List<Site> sites, long generation) {
+        put(byName, name, sites, generation);
+    }
+
+    /**
+     * Move a created or updated site to the results it now belongs to,
+     * or remove a deleted site.
+     * @param roomId
+     * @param site The new site, or null if the site was deleted
+     */
+    synchronized void update(String roomId, Site site) {
+        generation++;
+
+        Site old = indexed.remove(roomId);
+        if ( old != null ) {
+            remove(byOwner, old.getOwner(), roomId);
+            remove(byName, nameOf(old), roomId);
+        }
+
+        if ( site != null ) {
+            boolean added = add(byOwner, site.getOwner(), roomId, site);
+            added |= add(byName, nameOf(site), roomId, site);
+            if ( added ) {
+                indexed.put(roomId, site);
+            }
+        }
+    }
+
+    synchronized int size() {
+        return byOwner.size() + byName.size();
+    }
+
+    private List<Site> get(Map<String, Entry> index, String key) {
+        Entry e = index.get(key);
+        if ( e == null || !e.isFresh(System.nanoTime()) ) {
+            return null;
+        }
+        return Collections.unmodifiableList(new ArrayList<>(e.sites.values()));
+    }
+
+    private void put(Map<String, Entry> index, String key, List<Site> sites, long generation) {
+        if ( key == null || generation != this.generation ) {
+            // something changed while the query was in flight: don't index the result
+            return;
+        }
+
+        Entry old = index.remove(key);
+        if ( old != null ) {
+            for (String id : old.sites.keySet()) {
+                forget(id);
+            }
+        }
+
+        Entry e = new Entry();
+        for (Site site : sites) {
+            e.sites.put(site.getId(), site);
+        }
+        index.put(key, e);
+        for (Site site : sites) {
+            indexed.put(site.getId(), site);
+        }
+    }
+
+    private boolean add(Map<String, Entry> index, String key, String roomId, Site site) {
+        Entry e = key == null ? null : index.get(key);
+        if ( e == null ) {
+            // no (complete) result for this key to add the site to
+            return false;
+        }
+        e.sites.put(roomId, site);
+        return true;
+    }
+
+    private void remove(Map<String, Entry> index, String key, String roomId) {
+        Entry e = key == null ? null : index.get(key);
+        if ( e != null ) {
+            e.sites.remove(roomId);
+        }
+    }
+
+    /** Stop tracking a site if it is no longer in any indexed result */
+    private void forget(String roomId) {
+        Site site = indexed.get(roomId);
+        if ( site != null && !contains(byOwner, site.getOwner(), roomId) && !contains(byName, nameOf(site), roomId) ) {
+            indexed.remove(roomId);
+        }
+    }
+
+    private boolean contains(Map<String, Entry> index, String key, String roomId) {
+        Entry e = key == null ? null : index.get(key);
+        return e != null && e.sites.containsKey(roomId);
+    }
+
+    private static String nameOf(Site site) {
+        return site.getInfo() == null ? null : site.getInfo().getName();
+    }
+
+    private Map<String, Entry> lru() {
+        return new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if ( size() > MAX_KEYS ) {
+                    // called during put, with the lock held
+                    remove(eldest.getKey());
+                    for (String id : eldest.getValue().sites.keySet()) {
+                        forget(id);
+                    }
+                }
+                return false;
+            }
+        };
+    }
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.gameontext.mediator.models.ConnectionDetails;
+import org.gameontext.mediator.models.Site;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Snapshot of cached sites in a local file, one JSON site per line,
+ * so that a restarted mediator doesn't start with an empty cache.
+ * <p>
+ * Room tokens (the secret shared with each room) are not written: sites
+ * read from the snapshot must be fetched again before they are used to
+ * connect to a room. The file is only readable by its owner.
+ * </p>
+ */
+class SiteSnapshot {
+
+    /** Snapshots older than this are ignored */
+    static final long MAX_AGE = TimeUnit.HOURS.toMillis(24);
+
+    /** Leaves the room token out of the snapshot */
+    @JsonIgnoreProperties({ "token" })
+    abstract static class WithoutToken {
+    }
+
+    private final Path file;
+    private final ObjectMapper om = new ObjectMapper();
+
+    SiteSnapshot(Path file) {
+        this.file = file;
+        // same (de)serialization as requests to the map service
+        om.setVisibilityChecker(om.getVisibilityChecker().withFieldVisibility(JsonAutoDetect.Visibility.ANY));
+        om.addMixInAnnotations(ConnectionDetails.class, WithoutToken.class);
+    }
+
+    /**
+     * Replace the snapshot with the given sites. The new snapshot is written
+     * to a temporary file first, so a crash never leaves a partial snapshot.
+     *
+     * @param sites
+     * @throws IOException
+     */
+    void write(Collection<Site> sites) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        if ( file.getFileSystem().supportedFileAttributeViews().contains("posix") ) {
+            Files.createFile(tmp, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Site site : sites) {
+                out.write(om.writeValueAsString(site));
+                out.newLine();
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return sites in the snapshot, or an empty list if there is no
+     *         (recent) snapshot. Lines that can't be read are skipped.
+     */
+    List<Site> read() {
+        try {
+            if ( !Files.isReadable(file) ) {
+                return Collections.emptyList();
+            }
+
+            long age = System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis();
+            if ( age > MAX_AGE ) {
+                Log.log(Level.INFO, this, "Ignoring site snapshot {0}, last written {1} minutes ago",
+                        file, TimeUnit.MILLISECONDS.toMinutes(age));
+                return Collections.emptyList();
+            }
+
+            List<Site> sites = new ArrayList<>();
+            try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ( (line = in.readLine()) != null ) {
+                    try {
+                        Site site = om.readValue(line, Site.class);
+                        if ( site.getId() != null ) {
+                            sites.add(site);
+                        }
+                    } catch (IOException e) {
+                        Log.log(Level.FINEST, this, "Skipping unreadable site in snapshot", e);
+                    }
+                }
+            }
+            return sites;
+        } catch (IOException e) {
+            Log.log(Level.WARNING, this, "Unable to read site snapshot " + file, e);
+            return Collections.emptyList();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "[" + file + "]";
+    }
+}
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+
+/**
+ * Access to virtual threads (JDK 21+) without requiring them at compile time:
+ * the mediator still builds for, and runs on, Java 8.
+ * <p>
+ * Virtual threads are not managed by the container: they inherit the
+ * context class loader of the thread that creates them, but no other
+ * Java EE context is propagated.
+ * </p>
+ */
+class VirtualThreads {
+
+    /**
+     * @param prefix
+     *            Prefix for thread names, a counter is appended
+     * @return a factory creating (unstarted) virtual threads, or null if
+     *         virtual threads are not supported by this JVM
+     */
+    static ThreadFactory newThreadFactory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> ofVirtual = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            builder = ofVirtual.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Log.log(Level.WARNING, VirtualThreads.class, "Virtual threads are not available in this JVM", e);
+        }
+        return null;
+    }
+
+    /**
+     * @return an executor that starts a new virtual thread for each task, or
+     *         null if virtual threads are not supported by this JVM
+     */
+    static ExecutorService newExecutor() {
+        try {
+            Method m = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Log.log(Level.WARNING, VirtualThreads.class, "Virtual threads are not available in this JVM", e);
+        }
+        return null;
+    }
+}
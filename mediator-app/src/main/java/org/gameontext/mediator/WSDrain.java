@@ -15,27 +15,37 @@
  *******************************************************************************/
 package org.gameontext.mediator;
 
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
 import javax.websocket.Session;
 
+import org.gameontext.mediator.metrics.MediatorMetrics;
+import org.gameontext.mediator.metrics.MediatorMetrics.Direction;
+
 /**
  * Encapsulation of a drain. Uses the {@code ManagedThreadFactory} to create
  * a dedicated thread that will drain the queue as messages arrive.
  *
  */
 class WSDrain implements Runnable, Drain {
+
+    /** First wait before retrying a message that couldn't be sent */
+    static final long MIN_RETRY_MS = 1;
+
+    /** Longest wait between retries */
+    static final long MAX_RETRY_MS = TimeUnit.SECONDS.toMillis(1);
+
     private final String id;
     private Thread thread;
-    private ScheduledFuture<?> pingFuture;
+    private KeepAliveWheel.Entry keepAlive;
     private Session targetSession;
     boolean wsToRoom;
 
     /** Queue of messages  */
-    private final LinkedBlockingDeque<RoutedMessage> pendingMessages;
+    private final DrainQueue pendingMessages;
 
     private volatile boolean keepGoing = true;
 
@@ -55,19 +65,27 @@ class WSDrain implements Runnable, Drain {
     public WSDrain(String id, Session targetSession) {
         this.id = id;
         this.targetSession = targetSession;
-        this.pendingMessages = new LinkedBlockingDeque<>();
+        this.pendingMessages = new DrainQueue(id, false);
         this.wsToRoom = false; // outbound client connection
     }
 
     public WSDrain(String id) {
         this.id = id;
-        this.pendingMessages = new LinkedBlockingDeque<>();
+        this.pendingMessages = new DrainQueue(id, true);
         this.wsToRoom = true; // incoming server connection
     }
 
     @Override
     public void send(RoutedMessage message) {
-        pendingMessages.offer(message);
+        if ( !pendingMessages.offer(new QueuedMessage(message)) ) {
+            Log.log(Level.FINEST, this, "Queue full, dropped message for {0}: {1}", id, message);
+        }
+        if ( pendingMessages.isOverloaded() && keepGoing ) {
+            Log.log(Level.INFO, this, "Closing session for {0}: {1} messages waiting", id, pendingMessages.size());
+            MediatorMetrics.slowConsumer();
+            close(new CloseReason(CloseCodes.TRY_AGAIN_LATER, "Too many messages waiting to be sent"));
+            stop();
+        }
     }
 
     @Override
@@ -80,28 +98,41 @@ class WSDrain implements Runnable, Drain {
 
         Log.log(Level.FINER, this, "DRAIN OPEN {0}", id);
         boolean interrupted = false;
+        long retryMs = 0;
 
         // Dedicated thread sending messages to the room as fast
         // as it can take them: maybe we batch these someday.
         while (keepGoing) {
             try {
-                RoutedMessage message = pendingMessages.take();
+                QueuedMessage queued = pendingMessages.take();
+                RoutedMessage message = queued.message;
 
-                if ( wsToRoom ) {
-                    Log.log(Level.FINEST, this, "C    M -> R : {0} {1}", message, targetSession.getId());
-                } else {
-                    Log.log(Level.FINEST, this, "C <- M    R : {0} {1}", message, targetSession.getId());
+                if ( Log.isRelayLoggable() ) {
+                    Log.relay(this, wsToRoom ? "C    M -> R : {0} {1}" : "C <- M    R : {0} {1}", message, targetSession.getId());
                 }
 
+                boolean sent;
                 try {
-                    if (!WSUtils.sendMessage(targetSession, message)) {
-                        // If the send failed, tuck the message back in the
-                        // head of the queue.
-                        pendingMessages.offerFirst(message);
-                    }
+                    sent = WSUtils.sendMessage(targetSession, message);
                 } catch (IllegalStateException e) {
                     // write not allowed because another in progress. Try again.
-                    pendingMessages.offerFirst(message);
+                    sent = false;
+                }
+
+                if ( sent ) {
+                    retryMs = 0;
+                    MediatorMetrics.dequeued(queued.queuedAt);
+                    MediatorMetrics.message(wsToRoom ? Direction.MEDIATOR_TO_ROOM : Direction.MEDIATOR_TO_CLIENT, message);
+                    Compression.sent(targetSession, message);
+                    if ( keepAlive != null ) {
+                        keepAlive.touch();
+                    }
+                } else {
+                    // If the send failed, tuck the message back in the
+                    // head of the queue, and back off before trying again
+                    pendingMessages.offerFirst(queued);
+                    retryMs = retryMs == 0 ? MIN_RETRY_MS : Math.min(retryMs * 2, MAX_RETRY_MS);
+                    Thread.sleep(retryMs);
                 }
             } catch (InterruptedException ex) {
                 interrupted = true;
@@ -109,6 +140,7 @@ class WSDrain implements Runnable, Drain {
         }
 
         Log.log(Level.FINER, this, "DRAIN CLOSED {0}", id);
+        pendingMessages.close();
 
         // this really needs to not be in the stop method.
         WSUtils.tryToClose(targetSession);
@@ -140,8 +172,9 @@ class WSDrain implements Runnable, Drain {
         if (thread != null) {
             thread.interrupt();
         }
-        if ( pingFuture != null ) {
-            pingFuture.cancel(true);
+        pendingMessages.close();
+        if ( keepAlive != null ) {
+            keepAlive.cancel();
         }
     }
 
@@ -149,7 +182,7 @@ class WSDrain implements Runnable, Drain {
         this.thread = t;
     }
 
-    public void setFuture(ScheduledFuture<?> pingFuture) {
-        this.pingFuture = pingFuture;
+    public void setKeepAlive(KeepAliveWheel.Entry keepAlive) {
+        this.keepAlive = keepAlive;
     }
 }
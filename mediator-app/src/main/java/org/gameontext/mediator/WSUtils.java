@@ -21,7 +21,6 @@ import java.util.logging.Level;
 
 import javax.websocket.CloseReason;
 import javax.websocket.CloseReason.CloseCodes;
-import javax.websocket.EncodeException;
 import javax.websocket.RemoteEndpoint.Basic;
 import javax.websocket.Session;
 
@@ -48,7 +47,9 @@ public class WSUtils {
 
     /**
      * Try sending the {@link RoutedMessage} using
-     * {@link Session#getBasicRemote()}, {@link Basic#sendObject(Object)}.
+     * {@link Session#getBasicRemote()}, {@link Basic#sendText(String)}.
+     * The message is written as its {@link RoutedMessage#encode() encoded}
+     * frame, which is shared by all sessions the message is sent to.
      *
      * @param session
      *            Session to send the message on
@@ -59,12 +60,8 @@ public class WSUtils {
     public static boolean sendMessage(Session session, RoutedMessage message) {
         if (session.isOpen()) {
             try {
-                session.getBasicRemote().sendObject(message);
+                session.getBasicRemote().sendText(message.encode());
                 return true;
-            } catch (EncodeException e) {
-                Log.log(Level.FINEST, session, "Unexpected condition writing message", e);
-                // Something was wrong encoding this message, but the connection
-                // is likely just fine.
             } catch (IOException ioe) {
                 // An IOException, on the other hand, suggests the connection is
                 // in a bad state.
@@ -15,17 +15,18 @@
  *******************************************************************************/
 package org.gameontext.mediator.events;
 
-import rx.Subscription;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class EventSubscription {
-	private Subscription subscription;
+	private final Runnable unsubscribe;
+	private final AtomicBoolean subscribed = new AtomicBoolean(true);
 	
-	EventSubscription(Subscription s){
-		subscription = s;
+	EventSubscription(Runnable unsubscribe){
+		this.unsubscribe = unsubscribe;
 	}
 	
 	public void unsubscribe(){
-		if(!subscription.isUnsubscribed())
-			subscription.unsubscribe();
+		if(subscribed.compareAndSet(true, false))
+			unsubscribe.run();
 	}
 }
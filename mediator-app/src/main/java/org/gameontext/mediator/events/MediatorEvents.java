@@ -16,19 +16,37 @@
 package org.gameontext.mediator.events;
 
 import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.logging.Level;
 
-import javax.inject.Inject;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
 
 import org.gameontext.mediator.Log;
 import org.gameontext.mediator.kafka.GameOnEvent;
-import org.gameontext.mediator.kafka.KafkaRxJavaObservable;
+import org.gameontext.mediator.models.Site;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import rx.Subscription;
-
+/**
+ * Routes events from Kafka (fired as CDI events by the KafkaCDIBridge) to
+ * interested parties. Player events are keyed by user id: each record is
+ * looked up once in the handler map, and only parsed if the player is
+ * connected to this mediator. Site events are parsed once, and passed to
+ * every site event handler.
+ * <p>
+ * Events are fired on the Kafka polling thread, so player event callbacks
+ * (which may move the player between rooms) run on the managed executor,
+ * in order for each player. A bad record is logged and skipped.
+ * </p>
+ */
+@ApplicationScoped
 public class MediatorEvents {
 
     public interface PlayerEventHandler {
@@ -38,19 +56,101 @@ public class MediatorEvents {
         // add additional methods as required for other event types...
     }
 
-    @Inject
-    KafkaRxJavaObservable kafka;
+    public interface SiteEventHandler {
+        /**
+         * @param siteId
+         *            Id of the created, updated or deleted site
+         * @param site
+         *            The new site, or null if the site was deleted
+         */
+        public void siteUpdated(String siteId, Site site);
+    }
+
+    /** Player event handlers, by user id */
+    final ConcurrentHashMap<String, PlayerEventHandler> playerHandlers = new ConcurrentHashMap<>();
+
+    /** Site event handlers */
+    final Set<SiteEventHandler> siteHandlers = new CopyOnWriteArraySet<>();
+
+    /** Runs player event callbacks; when null, they run on the caller's thread */
+    @Resource
+    ManagedScheduledExecutorService executor;
+
+    /** Last callback queued for each player, so callbacks run in order */
+    final ConcurrentHashMap<String, CompletableFuture<Void>> playerTasks = new ConcurrentHashMap<>();
+
+    private final ObjectMapper om = new ObjectMapper();
 
     public EventSubscription subscribeToPlayerEvents(String userId, PlayerEventHandler peh) {
-        Subscription subscription = kafka.consume().filter(event -> "playerEvents".equals(event.getTopic()))
-                .filter(event -> userId.equals(event.getKey())).subscribe(event -> handlePlayerEvent(event, peh));
+        playerHandlers.put(userId, peh);
+
+        // only remove our own handler
+        return new EventSubscription(() -> playerHandlers.remove(userId, peh));
+    }
+
+    public EventSubscription subscribeToSiteEvents(SiteEventHandler seh) {
+        siteHandlers.add(seh);
+        return new EventSubscription(() -> siteHandlers.remove(seh));
+    }
+
+    public void processEvent(@Observes GameOnEvent event) {
+        if ( "playerEvents".equals(event.getTopic()) && event.getKey() != null ) {
+            PlayerEventHandler peh = playerHandlers.get(event.getKey());
+            if ( peh != null ) {
+                handlePlayerEvent(event, peh);
+            }
+        } else if ( "siteEvents".equals(event.getTopic()) && !siteHandlers.isEmpty() ) {
+            handleSiteEvent(event);
+        }
+    }
+
+    // Map site events into site event handler callbacks.
+    private void handleSiteEvent(GameOnEvent goe) {
+        try {
+            // the value is JSON: the type of event, and the site (the record
+            // key is the site id)
+            JsonNode tree = om.readTree(goe.getValue());
+            String type = tree.get("type").asText();
 
-        return new EventSubscription(subscription);
+            String siteId = goe.getKey();
+            Site site = null;
+            JsonNode siteNode = tree.get("site");
+            if ( siteNode != null ) {
+                site = om.treeToValue(siteNode, Site.class);
+                if ( site.getId() != null ) {
+                    siteId = site.getId();
+                }
+            }
+
+            if ( siteId == null ) {
+                Log.log(Level.FINER, this, "Ignoring site event without a site id: {0}", goe);
+                return;
+            }
+
+            switch (type) {
+            case "CREATE":
+            case "UPDATE":
+                if ( site == null ) {
+                    return;
+                }
+                break;
+            case "DELETE":
+                site = null;
+                break;
+            default:
+                return;
+            }
+
+            for (SiteEventHandler seh : siteHandlers) {
+                seh.siteUpdated(siteId, site);
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.log(Level.SEVERE, this, "Error parsing site event", e);
+        }
     }
 
     // Map events into player event handler callbacks.
     private void handlePlayerEvent(GameOnEvent goe, PlayerEventHandler peh) {
-        ObjectMapper om = new ObjectMapper();
         JsonNode tree;
         try {
             // the value in the GameOnEvent is JSON, with a type field that
@@ -72,7 +172,7 @@ public class MediatorEvents {
                 String username = player.get("name").asText();
                 String color = player.get("favoriteColor").asText();
 
-                peh.playerUpdated(goe.getKey(), username, color);
+                dispatch(goe.getKey(), () -> peh.playerUpdated(goe.getKey(), username, color));
                 break;
             }
             case "DELETE": {
@@ -82,7 +182,7 @@ public class MediatorEvents {
             case "UPDATE_LOCATION": {
                 JsonNode player = tree.get("player");
                 String location = player.get("location").asText();
-                peh.locationUpdated(goe.getKey(), location);
+                dispatch(goe.getKey(), () -> peh.locationUpdated(goe.getKey(), location));
                 break;
             }
             case "UPDATE_APIKEY": {
@@ -94,8 +194,34 @@ public class MediatorEvents {
             default:
                 break;
             }
-        } catch (IOException e) {
+        } catch (IOException | RuntimeException e) {
             Log.log(Level.SEVERE, this, "Error parsing event", e);
         }
     }
+
+    /**
+     * Run a player event callback on the executor, after any callbacks
+     * already queued for that player.
+     *
+     * @param userId
+     * @param callback
+     */
+    private void dispatch(String userId, Runnable callback) {
+        Runnable task = () -> {
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                Log.log(Level.SEVERE, this, "Error handling player event", e);
+            }
+        };
+
+        if ( executor == null ) {
+            task.run();
+            return;
+        }
+
+        CompletableFuture<Void> next = playerTasks.compute(userId,
+                (k, last) -> last == null ? CompletableFuture.runAsync(task, executor) : last.thenRunAsync(task, executor));
+        next.whenComplete((r, e) -> playerTasks.remove(userId, next));
+    }
 }
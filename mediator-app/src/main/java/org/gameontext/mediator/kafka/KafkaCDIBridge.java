@@ -67,7 +67,13 @@ public class KafkaCDIBridge {
                     BeanManager bm = CDI.current().getBeanManager();
                     for (ConsumerRecord<String, String> record : records) {
                     	Log.log(Level.FINEST, this, "CDI Event firing..");
-                        bm.fireEvent(new GameOnEvent(record.offset(), record.topic(), record.key(), record.value()));
+                        try {
+                            bm.fireEvent(new GameOnEvent(record.offset(), record.topic(), record.key(), record.value()));
+                        } catch (RuntimeException e) {
+                            // an exception would cancel the polling task: skip the record
+                            Log.log(Level.SEVERE, this, "CDI Event failed for record at offset " + record.offset(), e);
+                            continue;
+                        }
                         Log.log(Level.FINEST, this, "CDI Event fired.");
                     }
                 }
@@ -78,7 +84,7 @@ public class KafkaCDIBridge {
         pollingThread = executor.scheduleWithFixedDelay(r, 100, 100, TimeUnit.MILLISECONDS);
 
         List<String> topics = Arrays.asList(new String[] { "gameon", "playerEvents", "siteEvents" });
-        Log.log(Level.FINEST, this, "CDI Subscribing to topics : "+topics);
+        Log.log(Level.FINEST, this, "CDI Subscribing to topics : {0}", topics);
         consumer.subscribe(topics);
     }
 
@@ -38,7 +38,7 @@ public class KafkaConsumerInjector {
 
     @Produces
     public KafkaConsumer<String, String> expose(InjectionPoint injection) {
-        Log.log(Level.FINEST, this, "Building kafka for url " + kafkaUrl + " for class " + injection.getBean().getBeanClass().getName());
+        Log.log(Level.FINEST, this, "Building kafka for url {0} for class {1}", kafkaUrl, injection.getBean().getBeanClass().getName());
 
         if (System.getProperty("java.security.auth.login.config") == null) {
             Log.log(Level.FINEST, this, "Fudging JAAS property.");
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram with fixed buckets. Recording a value only increments striped
+ * counters, so it never blocks or contends with other recording threads.
+ */
+public final class Histogram {
+
+    /** Bucket bounds for durations, in nanoseconds: 10us to 10s (1-2.5-5 steps) */
+    public static final long[] DURATION_BOUNDS = durationBounds();
+
+    /** Bucket bounds for sizes and counts: 1 to 10000 (1-2-5 steps) */
+    public static final long[] COUNT_BOUNDS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000 };
+
+    /** Multiplier to convert nanoseconds to seconds, for durations */
+    public static final double NANOS_TO_SECONDS = 1e-9;
+
+    /** Inclusive upper bound of each bucket (but the last, which is unbounded) */
+    private final long[] bounds;
+
+    /** Applied to bounds and sum when written */
+    private final double scale;
+
+    private final LongAdder[] buckets;
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * @param bounds
+     *            Inclusive upper bound of each bucket, in increasing order
+     * @param scale
+     *            Multiplier applied to recorded values when they are written
+     *            (e.g. {@link #NANOS_TO_SECONDS}), 1 to write them as-is
+     */
+    public Histogram(long[] bounds, double scale) {
+        this.bounds = bounds.clone();
+        this.scale = scale;
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return a histogram for durations recorded in nanoseconds
+     */
+    public static Histogram durations() {
+        return new Histogram(DURATION_BOUNDS, NANOS_TO_SECONDS);
+    }
+
+    public void record(long value) {
+        int i = Arrays.binarySearch(bounds, value);
+        buckets[i < 0 ? -i - 1 : i].increment();
+        sum.add(value);
+    }
+
+    public long count() {
+        long count = 0;
+        for (LongAdder b : buckets) {
+            count += b.sum();
+        }
+        return count;
+    }
+
+    /**
+     * @return mean of the recorded values (scaled), 0 if there are none
+     */
+    public double mean() {
+        long count = count();
+        return count == 0 ? 0 : sum.sum() * scale / count;
+    }
+
+    /**
+     * Estimate a quantile: the upper bound of the bucket it falls in.
+     *
+     * @param q
+     *            The quantile, e.g. 0.95
+     * @return the estimate (scaled), 0 if there are no values, or the
+     *         largest bound if the quantile is above it
+     */
+    public double quantile(double q) {
+        long count = count();
+        if ( count == 0 ) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(q * count);
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += buckets[i].sum();
+            if ( cumulative >= rank ) {
+                return bounds[i] * scale;
+            }
+        }
+        return bounds[bounds.length - 1] * scale;
+    }
+
+    /**
+     * Write the histogram in Prometheus text format (without HELP / TYPE lines).
+     *
+     * @param out
+     * @param name
+     *            Metric name
+     * @param labels
+     *            Labels for this series, e.g. {@code service="map",}, or empty.
+     *            Must end with a comma if not empty.
+     */
+    public void write(StringBuilder out, String name, String labels) {
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += buckets[i].sum();
+            out.append(name).append("_bucket{").append(labels).append("le=\"")
+               .append(bounds[i] * scale).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += buckets[bounds.length].sum();
+        out.append(name).append("_bucket{").append(labels).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+
+        String plain = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+        out.append(name).append("_sum").append(plain).append(' ').append(sum.sum() * scale).append('\n');
+        out.append(name).append("_count").append(plain).append(' ').append(cumulative).append('\n');
+    }
+
+    private static long[] durationBounds() {
+        long[] steps = { 10, 25, 50 };
+        long[] result = new long[19];
+        long decade = TimeUnit.MICROSECONDS.toNanos(1);
+        for (int i = 0; i < result.length; i++) {
+            result[i] = steps[i % 3] * decade;
+            if ( i % 3 == 2 ) {
+                decade *= 10;
+            }
+        }
+        return result;
+    }
+}
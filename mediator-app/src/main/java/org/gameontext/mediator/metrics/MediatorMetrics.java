@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.gameontext.mediator.RoutedMessage;
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
+
+/**
+ * Metrics for the mediator's hot paths: messages relayed, outbound queues,
+ * and requests to other services.
+ * <p>
+ * Updates only touch striped counters ({@link LongAdder}), so they are
+ * lock-free and cheap enough for every message. Values are read when the
+ * metrics are written (see {@link #write(StringBuilder)}).
+ * </p>
+ */
+public final class MediatorMetrics {
+
+    /** Direction of a relayed message: C(lient), M(ediator), R(oom) */
+    public enum Direction {
+        CLIENT_TO_MEDIATOR("c_m"),
+        MEDIATOR_TO_ROOM("m_r"),
+        ROOM_TO_MEDIATOR("r_m"),
+        MEDIATOR_TO_CLIENT("m_c");
+
+        final String label;
+
+        Direction(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final LongAdder[][] messages = adders();
+    private static final LongAdder[][] bytes = adders();
+
+    /** Number of messages waiting in a drain's queue, when a message is added */
+    private static final Histogram queueDepth = new Histogram(Histogram.COUNT_BOUNDS, 1);
+
+    /** Time messages spend in a drain's queue */
+    private static final Histogram queueTime = Histogram.durations();
+
+    /** Reasons a message was dropped from a drain's queue */
+    public static final String DROPPED_PING = "ping";
+    public static final String DROPPED_CHAT = "chat";
+    public static final String DROPPED_FULL = "full";
+
+    /** Messages dropped from drain queues, by reason */
+    private static final ConcurrentHashMap<String, LongAdder> dropped = new ConcurrentHashMap<>();
+
+    /** Sessions closed because their drain's queue stayed above its high-water mark */
+    private static final LongAdder slowConsumers = new LongAdder();
+
+    /** Bounds for compressed / original size, in thousandths */
+    static final long[] RATIO_BOUNDS = { 50, 100, 150, 200, 250, 300, 400, 500, 600, 700, 800, 900, 1000 };
+
+    /** Size of sampled frames deflated on their own, relative to their original size */
+    private static final Histogram deflateRatio = new Histogram(RATIO_BOUNDS, 0.001);
+
+    /** Time to deflate sampled frames (off the send path) */
+    private static final Histogram deflateTime = Histogram.durations();
+
+    private static final LongAdder deflateIn = new LongAdder();
+    private static final LongAdder deflateOut = new LongAdder();
+
+    /** Request latency, by service and status */
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, Histogram>> requests = new ConcurrentHashMap<>();
+
+    private MediatorMetrics() {}
+
+    /**
+     * Count a message relayed in the given direction.
+     *
+     * @param direction
+     * @param message
+     */
+    public static void message(Direction direction, RoutedMessage message) {
+        int target = message.getFlowTarget().ordinal();
+        messages[direction.ordinal()][target].increment();
+        bytes[direction.ordinal()][target].add(message.encode().length());
+    }
+
+    /**
+     * A message was added to a drain's queue.
+     *
+     * @param depth
+     *            Number of messages in the queue
+     */
+    public static void queued(int depth) {
+        queueDepth.record(depth);
+    }
+
+    /**
+     * A message was taken from a drain's queue to be sent.
+     *
+     * @param queuedAt
+     *            {@link System#nanoTime()} when the message was queued
+     */
+    public static void dequeued(long queuedAt) {
+        queueTime.record(System.nanoTime() - queuedAt);
+    }
+
+    /**
+     * A message was dropped from (or not added to) a drain's queue.
+     *
+     * @param reason
+     *            {@link #DROPPED_PING}, {@link #DROPPED_CHAT} or {@link #DROPPED_FULL}
+     */
+    public static void dropped(String reason) {
+        dropped.computeIfAbsent(reason, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * A session was closed because it could not keep up with its messages.
+     */
+    public static void slowConsumer() {
+        slowConsumers.increment();
+    }
+
+    /**
+     * A sampled frame was deflated on its own, to estimate compression.
+     *
+     * @param original
+     *            Size of the frame, in bytes
+     * @param compressed
+     *            Size after compression, in bytes
+     * @param nanos
+     *            Time taken to compress the frame
+     */
+    public static void deflated(int original, int compressed, long nanos) {
+        if ( original > 0 ) {
+            deflateRatio.record(1000L * compressed / original);
+        }
+        deflateTime.record(nanos);
+        deflateIn.add(original);
+        deflateOut.add(compressed);
+    }
+
+    /**
+     * Record the duration of a request to another service.
+     *
+     * @param service
+     *            The service, e.g. {@code map} or {@code player}
+     * @param status
+     *            HTTP status code of the response, or 0 if there was no response
+     * @param startNanos
+     *            {@link System#nanoTime()} when the request started
+     */
+    public static void request(String service, int status, long startNanos) {
+        long duration = System.nanoTime() - startNanos;
+        String s = status == 0 ? "error" : Integer.toString(status);
+        requests.computeIfAbsent(service, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(s, k -> Histogram.durations())
+                .record(duration);
+    }
+
+    /**
+     * Write all metrics in Prometheus text format.
+     *
+     * @param out
+     */
+    public static void write(StringBuilder out) {
+        header(out, "mediator_messages_total", "counter", "Messages relayed, by direction and flow target");
+        writeAdders(out, "mediator_messages_total", messages);
+
+        header(out, "mediator_message_bytes_total", "counter", "Size of messages relayed (characters), by direction and flow target");
+        writeAdders(out, "mediator_message_bytes_total", bytes);
+
+        header(out, "mediator_drain_queue_depth", "histogram", "Messages waiting in an outbound queue when another is added");
+        queueDepth.write(out, "mediator_drain_queue_depth", "");
+
+        header(out, "mediator_drain_queue_seconds", "histogram", "Time messages wait in an outbound queue");
+        queueTime.write(out, "mediator_drain_queue_seconds", "");
+
+        header(out, "mediator_drain_dropped_total", "counter", "Messages dropped from outbound queues, by reason");
+        for (Map.Entry<String, LongAdder> reason : dropped.entrySet()) {
+            out.append("mediator_drain_dropped_total{reason=\"").append(reason.getKey()).append("\"} ")
+               .append(reason.getValue().sum()).append('\n');
+        }
+
+        header(out, "mediator_slow_consumer_closed_total", "counter", "Sessions closed because their outbound queue stayed above its high-water mark");
+        out.append("mediator_slow_consumer_closed_total ").append(slowConsumers.sum()).append('\n');
+
+        header(out, "mediator_deflate_ratio", "histogram", "Size of sampled frames on compressed sessions when deflated on their own, relative to their size (an upper bound)");
+        deflateRatio.write(out, "mediator_deflate_ratio", "");
+
+        header(out, "mediator_deflate_seconds", "histogram", "Time to deflate sampled frames for these metrics, off the send path");
+        deflateTime.write(out, "mediator_deflate_seconds", "");
+
+        header(out, "mediator_deflate_bytes_total", "counter", "Size of sampled frames before (in) and after (out) compression");
+        out.append("mediator_deflate_bytes_total{stage=\"in\"} ").append(deflateIn.sum()).append('\n');
+        out.append("mediator_deflate_bytes_total{stage=\"out\"} ").append(deflateOut.sum()).append('\n');
+
+        header(out, "mediator_request_seconds", "histogram", "Requests to other services, by service and status");
+        for (Map.Entry<String, ConcurrentHashMap<String, Histogram>> service : requests.entrySet()) {
+            for (Map.Entry<String, Histogram> status : service.getValue().entrySet()) {
+                status.getValue().write(out, "mediator_request_seconds",
+                        "service=\"" + service.getKey() + "\",status=\"" + status.getKey() + "\",");
+            }
+        }
+    }
+
+    /**
+     * Write the HELP and TYPE lines for a metric.
+     */
+    public static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void writeAdders(StringBuilder out, String name, LongAdder[][] adders) {
+        FlowTarget[] targets = FlowTarget.values();
+        for (Direction d : Direction.values()) {
+            for (FlowTarget t : targets) {
+                out.append(name).append("{direction=\"").append(d.label)
+                   .append("\",target=\"").append(t.name()).append("\"} ")
+                   .append(adders[d.ordinal()][t.ordinal()].sum()).append('\n');
+            }
+        }
+    }
+
+    private static LongAdder[][] adders() {
+        LongAdder[][] result = new LongAdder[Direction.values().length][FlowTarget.values().length];
+        for (LongAdder[] row : result) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = new LongAdder();
+            }
+        }
+        return result;
+    }
+}
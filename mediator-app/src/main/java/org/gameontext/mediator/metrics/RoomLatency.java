@@ -0,0 +1,291 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gameontext.mediator.RoutedMessage;
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
+
+/**
+ * Round-trip latency of remote rooms: from the time a client's message
+ * arrives at the mediator, to the time the room's response to that player
+ * arrives back at the mediator.
+ * <p>
+ * The room protocol doesn't echo anything from the request (bookmarks are
+ * assigned by the room to its responses), so requests and responses are
+ * paired in order for each player and room: the first message the room
+ * sends to a player completes that player's oldest outstanding request.
+ * Broadcasts ({@code player,*,...}) aren't addressed to one player, and are
+ * not used. Chat is answered with a broadcast, so it isn't timed either: only
+ * commands (content starting with {@code /}) are.
+ * </p>
+ * <p>
+ * Outstanding requests that will never see a response (the room didn't
+ * answer, or the player left) are swept periodically, and rooms without
+ * traffic for {@link #MAX_IDLE} are forgotten, along with their histogram.
+ * At most {@link #MAX_ROOMS} rooms are tracked.
+ * </p>
+ */
+public final class RoomLatency {
+
+    /** Outstanding requests kept per player and room: older ones are dropped */
+    static final int MAX_PENDING = 16;
+
+    /** Requests without a response for this long are dropped */
+    static final long MAX_WAIT = TimeUnit.SECONDS.toNanos(30);
+
+    /** Rooms without requests or responses for this long are dropped */
+    static final long MAX_IDLE = TimeUnit.HOURS.toNanos(1);
+
+    /** Maximum number of rooms tracked: the least recently used are dropped */
+    static final int MAX_ROOMS = 1000;
+
+    /** Round-trip latency of one room */
+    public static final class Stats {
+        public final String roomId;
+        public final long count;
+        public final double mean;
+        public final double p95;
+        public final double p99;
+
+        Stats(String roomId, Histogram h) {
+            this.roomId = roomId;
+            this.count = h.count();
+            this.mean = h.mean();
+            this.p95 = h.quantile(0.95);
+            this.p99 = h.quantile(0.99);
+        }
+    }
+
+    /** Latency and outstanding requests for one room */
+    private static final class Room {
+        final Histogram latency = Histogram.durations();
+        final ConcurrentHashMap<String, Pending> pending = new ConcurrentHashMap<>();
+        volatile long lastUsed = System.nanoTime();
+    }
+
+    /** Ingress times of one player's outstanding requests, oldest first */
+    private static final class Pending {
+        final long[] times = new long[MAX_PENDING];
+        int head = 0;
+        int size = 0;
+
+        synchronized void add(long time) {
+            if ( size == MAX_PENDING ) {
+                head = (head + 1) % MAX_PENDING;
+                size--;
+            }
+            times[(head + size) % MAX_PENDING] = time;
+            size++;
+        }
+
+        /** @return oldest request younger than MAX_WAIT, or 0 */
+        synchronized long poll(long now) {
+            while ( size > 0 ) {
+                long time = times[head];
+                head = (head + 1) % MAX_PENDING;
+                size--;
+                if ( now - time <= MAX_WAIT ) {
+                    return time;
+                }
+            }
+            return 0;
+        }
+
+        synchronized boolean isEmpty() {
+            return size == 0;
+        }
+
+        /** @return true if there are no requests younger than MAX_WAIT */
+        synchronized boolean isStale(long now) {
+            return size == 0 || now - times[(head + size - 1) % MAX_PENDING] > MAX_WAIT;
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+
+    /** {@link System#nanoTime()} of the last sweep */
+    private static final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+
+    private RoomLatency() {}
+
+    /**
+     * A client's message was sent to a remote room: start timing it, unless
+     * it is chat or didn't come from a client.
+     *
+     * @param roomId
+     * @param userId
+     * @param message
+     */
+    public static void sent(String roomId, String userId, RoutedMessage message) {
+        long ingressTime = message.getIngressTime();
+        if ( ingressTime != 0 && !isChat(message) ) {
+            sent(roomId, userId, ingressTime);
+        }
+    }
+
+    /**
+     * @return true for something said to the room, which the room echoes
+     *         to everyone rather than answering the player
+     */
+    static boolean isChat(RoutedMessage message) {
+        String content = message.getString("content");
+        return content != null && !content.startsWith("/");
+    }
+
+    /**
+     * A client's message was sent to a remote room.
+     *
+     * @param roomId
+     * @param userId
+     * @param ingressTime
+     *            {@link System#nanoTime()} when the message reached the mediator
+     */
+    public static void sent(String roomId, String userId, long ingressTime) {
+        long now = System.nanoTime();
+        Room room = rooms.computeIfAbsent(roomId, k -> new Room());
+        room.lastUsed = now;
+        room.pending.computeIfAbsent(userId, k -> new Pending())
+             .add(ingressTime);
+
+        long last = lastSweep.get();
+        if ( (now - last > MAX_WAIT || rooms.size() > MAX_ROOMS) && lastSweep.compareAndSet(last, now) ) {
+            sweep(now);
+        }
+    }
+
+    /**
+     * Drop outstanding requests that are too old to be paired with a
+     * response, rooms that haven't been used for {@link #MAX_IDLE}, and the
+     * least recently used rooms beyond {@link #MAX_ROOMS}.
+     *
+     * @param now
+     *            {@link System#nanoTime()}
+     */
+    static void sweep(long now) {
+        // a request added to a pending list as it is removed may be lost:
+        // acceptable for a metric
+        rooms.forEach((id, room) -> {
+            room.pending.values().removeIf(p -> p.isStale(now));
+            if ( room.pending.isEmpty() && now - room.lastUsed > MAX_IDLE ) {
+                rooms.remove(id, room);
+            }
+        });
+
+        int excess = rooms.size() - MAX_ROOMS;
+        if ( excess > 0 ) {
+            List<Map.Entry<String, Room>> lru = new ArrayList<>(rooms.entrySet());
+            lru.sort(Comparator.comparingLong(e -> e.getValue().lastUsed));
+            for (int i = 0; i < excess && i < lru.size(); i++) {
+                rooms.remove(lru.get(i).getKey(), lru.get(i).getValue());
+            }
+        }
+    }
+
+    /** @return number of rooms tracked (for tests) */
+    static int size() {
+        return rooms.size();
+    }
+
+    /** @return number of players with outstanding requests to a room (for tests) */
+    static int pending(String roomId) {
+        Room room = rooms.get(roomId);
+        return room == null ? 0 : room.pending.size();
+    }
+
+    /**
+     * A message arrived from a remote room: if it is addressed to a player
+     * with an outstanding request, record the round trip.
+     *
+     * @param roomId
+     * @param message
+     */
+    public static void received(String roomId, RoutedMessage message) {
+        if ( message.getFlowTarget() != FlowTarget.player ) {
+            return;
+        }
+        Room room = rooms.get(roomId);
+        if ( room == null || room.pending.isEmpty() ) {
+            return;
+        }
+        String userId = message.getDestination();
+        Pending p = room.pending.get(userId);
+        if ( p == null ) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        room.lastUsed = now;
+        long time = p.poll(now);
+        if ( time != 0 ) {
+            room.latency.record(now - time);
+        }
+        if ( p.isEmpty() ) {
+            // a request sent meanwhile may be lost: acceptable for a metric
+            room.pending.remove(userId, p);
+        }
+    }
+
+    /**
+     * @param limit
+     *            Maximum number of rooms returned
+     * @return rooms with the highest 95th percentile round trip (then mean),
+     *         slowest first
+     */
+    public static List<Stats> slowest(int limit) {
+        List<Stats> result = new ArrayList<>();
+        rooms.forEach((id, room) -> {
+            if ( room.latency.count() > 0 ) {
+                result.add(new Stats(id, room.latency));
+            }
+        });
+        result.sort(Comparator.comparingDouble((Stats s) -> s.p95)
+                              .thenComparingDouble(s -> s.mean)
+                              .reversed());
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    /**
+     * Write round-trip histograms for each room in Prometheus text format.
+     *
+     * @param out
+     */
+    public static void write(StringBuilder out) {
+        MediatorMetrics.header(out, "mediator_room_round_trip_seconds", "histogram",
+                "Time from a client message reaching the mediator to the room's response, by room");
+        rooms.forEach((id, room) -> {
+            if ( room.latency.count() > 0 ) {
+                room.latency.write(out, "mediator_room_round_trip_seconds", "room=\"" + escape(id) + "\",");
+            }
+        });
+    }
+
+    /** Reset all rooms (for tests) */
+    static void clear() {
+        rooms.clear();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -41,7 +41,7 @@ public class ConnectingRoom extends AbstractRoomMediator {
         this.proxy = proxy;
         this.targetUser = userId == null ? "*" : userId;
 
-        Log.log(Level.FINEST, this, "Created Connecting Room for " + targetUser + " in " + site.getId());
+        Log.log(Level.FINEST, this, "Created Connecting Room for {0} in {1}", targetUser, site.getId());
     }
 
     @Override
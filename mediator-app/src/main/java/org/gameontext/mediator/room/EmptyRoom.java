@@ -44,7 +44,7 @@ public class EmptyRoom extends AbstractRoomMediator {
         super(nexus, mapClient, site);
         this.targetUser = userId == null ? "*" : userId;
 
-        Log.log(Level.FINEST, this, "Created Empty Room for " + targetUser + " in " + site.getId());
+        Log.log(Level.FINEST, this, "Created Empty Room for {0} in {1}", targetUser, site.getId());
     }
 
     @Override
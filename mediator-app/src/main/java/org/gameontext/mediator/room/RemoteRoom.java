@@ -16,6 +16,7 @@
 package org.gameontext.mediator.room;
 
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 
 import org.gameontext.mediator.Drain;
@@ -23,6 +24,7 @@ import org.gameontext.mediator.Log;
 import org.gameontext.mediator.MapClient;
 import org.gameontext.mediator.MediatorNexus;
 import org.gameontext.mediator.RoutedMessage;
+import org.gameontext.mediator.metrics.RoomLatency;
 import org.gameontext.mediator.models.ConnectionDetails;
 import org.gameontext.mediator.models.Site;
 
@@ -40,6 +42,24 @@ public class RemoteRoom extends AbstractRoomMediator {
     final ScheduledExecutorService scheduledExecutor;
 
     public RemoteRoom(RemoteRoomProxy proxy, MapClient mapClient, ScheduledExecutorService scheduledExecutor, Site site, Drain drain, MediatorNexus.View nexusView) throws Exception {
+        this(proxy, mapClient, scheduledExecutor, site, () -> drain, nexusView, null, null);
+    }
+
+    /**
+     * @param drains
+     *            Creates the drain for a new connection to the room
+     * @param nexusView
+     *            View of the player this room is mediating for
+     * @param sharedConnections
+     *            Shared connections, used if the room asks for a shared
+     *            connection (null to always use a connection per player)
+     * @param roomView
+     *            Multi-user view of the room, used to route messages
+     *            received on a shared connection
+     */
+    public RemoteRoom(RemoteRoomProxy proxy, MapClient mapClient, ScheduledExecutorService scheduledExecutor, Site site,
+            Supplier<Drain> drains, MediatorNexus.View nexusView,
+            SharedRoomConnections sharedConnections, MediatorNexus.View roomView) throws Exception {
         super(nexusView, mapClient, site);
         this.proxy = proxy;
         this.scheduledExecutor = scheduledExecutor;
@@ -49,12 +69,22 @@ public class RemoteRoom extends AbstractRoomMediator {
 
         ConnectionDetails details = site.getInfo().getConnectionDetails();
         if ( "websocket".equals(details.getType())) {
-            connection = new WebSocketClientConnection(proxy, nexusView, drain, site);
+            if ( details.isShared() && sharedConnections != null ) {
+                connection = sharedConnections.newHandle(proxy, site, drains, roomView);
+            } else {
+                connection = new WebSocketClientConnection(proxy, nexusView, drains.get(), site);
+            }
         } else {
             throw new UnsupportedOperationException(details.getType() + " is not a supported transport type");
         }
 
-        connection.connect();
+        try {
+            connection.connect();
+        } catch (Exception e) {
+            // this room is discarded: stop the drain so its queue is released
+            connection.disconnect();
+            throw e;
+        }
     }
 
     @Override
@@ -120,6 +150,9 @@ public class RemoteRoom extends AbstractRoomMediator {
 
     @Override
     public void sendToRoom(RoutedMessage message) {
+        if ( proxy != null ) {
+            RoomLatency.sent(roomId, proxy.user.getUserId(), message);
+        }
         connection.sendToRoom(message);
     }
 
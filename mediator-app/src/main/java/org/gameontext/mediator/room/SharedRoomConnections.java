@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.room;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+import org.gameontext.mediator.Drain;
+import org.gameontext.mediator.Log;
+import org.gameontext.mediator.MediatorNexus;
+import org.gameontext.mediator.RoutedMessage;
+import org.gameontext.mediator.models.ConnectionDetails;
+import org.gameontext.mediator.models.Site;
+
+/**
+ * Rooms that set {@code shared} in their connection details get a single
+ * websocket per mediator, rather than one per player. Players in the room
+ * hold a reference to the shared connection: it is opened when the first
+ * player arrives, and closed when the last one leaves.
+ * <p>
+ * Messages from the room are routed to players using the room's
+ * {@link MediatorNexus#getMultiUserView(String) multi-user view}, based on
+ * the message destination.
+ * </p>
+ */
+public class SharedRoomConnections {
+
+    /** Open (or opening) shared connections, keyed by room id and endpoint */
+    final ConcurrentHashMap<String, SharedConnection> connections = new ConcurrentHashMap<>();
+
+    /**
+     * Create a connection handle for one player's {@link RemoteRoom}. The
+     * shared websocket is opened (if necessary) when the handle is connected.
+     *
+     * @param proxy
+     *            Player's proxy for the room, notified if the shared
+     *            connection is lost
+     * @param site
+     *            Room registration
+     * @param drains
+     *            Creates the drain for a new shared connection
+     * @param roomView
+     *            Multi-user view for the room
+     * @return connection handle
+     */
+    RemoteRoom.Connection newHandle(RemoteRoomProxy proxy, Site site, Supplier<Drain> drains, MediatorNexus.View roomView) {
+        return new Handle(proxy, site, drains, roomView);
+    }
+
+    /**
+     * @return the number of open shared connections
+     */
+    public int size() {
+        return connections.size();
+    }
+
+    static String key(Site site) {
+        ConnectionDetails details = site.getInfo().getConnectionDetails();
+        return site.getId() + " " + details.getTarget() + " " + details.getToken();
+    }
+
+    /**
+     * The connection held by a single {@link RemoteRoom}.
+     */
+    class Handle implements RemoteRoom.Connection {
+        final RemoteRoomProxy proxy;
+        final Site site;
+        final Supplier<Drain> drains;
+        final MediatorNexus.View roomView;
+        final AtomicBoolean released = new AtomicBoolean(false);
+
+        volatile SharedConnection shared;
+
+        Handle(RemoteRoomProxy proxy, Site site, Supplier<Drain> drains, MediatorNexus.View roomView) {
+            this.proxy = proxy;
+            this.site = site;
+            this.drains = drains;
+            this.roomView = roomView;
+        }
+
+        @Override
+        public void connect() throws Exception {
+            String key = key(site);
+
+            while (shared == null) {
+                SharedConnection c = connections.computeIfAbsent(key,
+                        k -> new SharedConnection(k, roomView, drains.get(), site));
+
+                // returns false if the connection was closed while we were
+                // looking it up: try again with a new one.
+                if ( c.acquire(this) ) {
+                    shared = c;
+                }
+            }
+        }
+
+        @Override
+        public void disconnect() {
+            // goodbye/part and a delegate update can both disconnect the same room
+            if ( shared != null && released.compareAndSet(false, true) ) {
+                shared.release(this);
+            }
+        }
+
+        @Override
+        public void sendToRoom(RoutedMessage message) {
+            shared.sendToRoom(message);
+        }
+
+        @Override
+        public long version() {
+            return shared.version();
+        }
+    }
+
+    /**
+     * The one websocket to the room, shared by all {@link Handle}s.
+     */
+    class SharedConnection extends WebSocketClientConnection {
+        final String key;
+        final Set<Handle> handles = ConcurrentHashMap.newKeySet();
+
+        boolean connected = false;
+        boolean closed = false;
+
+        SharedConnection(String key, MediatorNexus.View roomView, Drain drain, Site site) {
+            super(null, roomView, drain, site);
+            this.key = key;
+        }
+
+        synchronized boolean acquire(Handle handle) throws Exception {
+            if ( closed )
+                return false;
+
+            if ( !connected ) {
+                // Other players arriving now wait for this to finish
+                try {
+                    connect();
+                    connected = true;
+                    Log.log(Level.FINE, drain, "SHARED CONNECTION OPEN {0}", id);
+                } catch (Exception e) {
+                    // nobody else holds this drain: stop it so its queue is released
+                    close();
+                    disconnect();
+                    throw e;
+                }
+            }
+
+            handles.add(handle);
+            return true;
+        }
+
+        synchronized void release(Handle handle) {
+            handles.remove(handle);
+            if ( handles.isEmpty() && !closed ) {
+                Log.log(Level.FINE, drain, "SHARED CONNECTION RELEASED {0}", id);
+                close();
+                disconnect();
+            }
+        }
+
+        /** Remove from the map, so the next player opens a new connection */
+        private void close() {
+            closed = true;
+            connections.remove(key, this);
+        }
+
+        @Override
+        void connectionLost() {
+            Set<RemoteRoomProxy> proxies = ConcurrentHashMap.newKeySet();
+            synchronized(this) {
+                close();
+                for (Handle h : handles) {
+                    proxies.add(h.proxy);
+                }
+            }
+
+            // each remaining player reconnects, the first one will open
+            // a new shared connection
+            for (RemoteRoomProxy p : proxies) {
+                p.reconnect();
+            }
+        }
+    }
+}
@@ -24,6 +24,7 @@ import javax.websocket.MessageHandler;
 import javax.websocket.Session;
 import javax.websocket.WebSocketContainer;
 
+import org.gameontext.mediator.Compression;
 import org.gameontext.mediator.Drain;
 import org.gameontext.mediator.Log;
 import org.gameontext.mediator.MediatorNexus;
@@ -33,6 +34,9 @@ import org.gameontext.mediator.RoutedMessage.FlowTarget;
 import org.gameontext.mediator.RoutedMessageDecoder;
 import org.gameontext.mediator.RoutedMessageEncoder;
 import org.gameontext.mediator.WSUtils;
+import org.gameontext.mediator.metrics.MediatorMetrics;
+import org.gameontext.mediator.metrics.MediatorMetrics.Direction;
+import org.gameontext.mediator.metrics.RoomLatency;
 import org.gameontext.mediator.models.ConnectionDetails;
 import org.gameontext.mediator.models.RoomInfo;
 import org.gameontext.mediator.models.Site;
@@ -75,6 +79,7 @@ class WebSocketClientConnection extends Endpoint implements RemoteRoom.Connectio
         final ClientEndpointConfig cec = ClientEndpointConfig.Builder.create()
                 .decoders(Arrays.asList(RoutedMessageDecoder.class)).encoders(Arrays.asList(RoutedMessageEncoder.class))
                 .configurator(authConfigurator)
+                .extensions(Compression.requestedExtensions())
                 .build();
 
         WebSocketContainer c = ContainerProvider.getWebSocketContainer();
@@ -114,7 +119,9 @@ class WebSocketClientConnection extends Endpoint implements RemoteRoom.Connectio
         session.addMessageHandler(new MessageHandler.Whole<RoutedMessage>() {
             @Override
             public void onMessage(RoutedMessage message) {
-                Log.log(Level.FINEST, drain, "C    M <- R : {0}", message);
+                Log.relay(drain, "C    M <- R : {0}", message);
+                MediatorMetrics.message(Direction.ROOM_TO_MEDIATOR, message);
+                RoomLatency.received(id, message);
 
                 if(message.getFlowTarget() == FlowTarget.ack){
                     //ack from room is meant for us..
@@ -136,14 +143,24 @@ class WebSocketClientConnection extends Endpoint implements RemoteRoom.Connectio
         Log.log(Level.FINER, drain, "ROOM CONNECTION CLOSED {0}: {1}", id, closeReason);
         drain.stop();
 
-        if (nexus.stillConnected() && !closeReason.getCloseCode().equals(CloseCodes.NORMAL_CLOSURE)) {
+        if (!closeReason.getCloseCode().equals(CloseCodes.NORMAL_CLOSURE)) {
+            connectionLost();
+        }
+    }
+
+    /**
+     * The room closed the connection unexpectedly: reconnect if the player
+     * is still around.
+     */
+    void connectionLost() {
+        if (nexus.stillConnected()) {
             proxy.reconnect();
         }
     }
 
     @Override
     public void onError(Session session, Throwable thr) {
-        Log.log(Level.FINEST, drain, "BADNESS " + session.getUserProperties(), thr);
+        Log.log(Level.FINEST, drain, () -> "BADNESS " + session.getUserProperties(), thr);
 
         WSUtils.tryToClose(session,
                 new CloseReason(CloseReason.CloseCodes.UNEXPECTED_CONDITION, thr.toString()));
@@ -0,0 +1,292 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.junit.runner.RunWith;
+
+import mockit.Expectations;
+import mockit.Mock;
+import mockit.MockUp;
+import mockit.Mocked;
+import mockit.integration.junit4.JMockit;
+
+@RunWith(JMockit.class)
+public class AsyncDrainTest {
+
+    @Mocked Session session;
+
+    /** Records writes; completes them right away, or when told to */
+    final TestRemote remote = new TestRemote();
+
+    int closeCount = 0;
+    CloseReason closeReason;
+
+    @Rule
+    public TestName testName = new TestName();
+
+    @Before
+    public void before() {
+        System.out.println("-- " + testName.getMethodName() + " --------------------------------------");
+
+        new MockUp<Log>() {
+            @Mock
+            public void log(Level level, Object source, String msg, Object[] params) {
+                System.out.println("Log: " + MessageFormat.format(msg, params));
+            }
+
+            @Mock
+            public void log(Level level, Object source, String msg, Throwable thrown) {
+                System.out.println("Log: " + msg + ": " + thrown);
+            }
+        };
+
+        new MockUp<WSUtils>() {
+            @Mock
+            public void tryToClose(Closeable c) {
+                closeCount++;
+            }
+
+            @Mock
+            public void tryToClose(Session s, CloseReason reason) {
+                closeReason = reason;
+            }
+        };
+
+        new Expectations() {{
+            session.getAsyncRemote(); result = remote; minTimes = 0;
+            session.isOpen(); result = true; minTimes = 0;
+        }};
+    }
+
+    @Test
+    public void testNothingSentBeforeStart() {
+        AsyncDrain drain = new AsyncDrain("test");
+        drain.send(message("1"));
+        Assert.assertTrue("Nothing should be written until the drain is started", remote.written.isEmpty());
+
+        drain.start(session);
+        Assert.assertEquals(1, remote.written.size());
+    }
+
+    @Test
+    public void testOneWriteOutstanding() {
+        remote.completeInline = false;
+        AsyncDrain drain = new AsyncDrain("test", session);
+        drain.start();
+
+        for (int i = 0; i < 3; i++) {
+            drain.send(message(Integer.toString(i)));
+        }
+        Assert.assertEquals("Only one write should be outstanding", 1, remote.written.size());
+
+        remote.complete(SENT);
+        Assert.assertEquals(2, remote.written.size());
+        remote.complete(SENT);
+        remote.complete(SENT);
+        Assert.assertNull("No write should be outstanding", remote.handler);
+
+        Assert.assertEquals(3, remote.written.size());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(remote.written.get(i).startsWith("player," + i + ","));
+        }
+    }
+
+    @Test
+    public void testInlineCompletionDoesNotRecurse() {
+        AsyncDrain drain = new AsyncDrain("test", session);
+        int count = 20000;
+        for (int i = 0; i < count; i++) {
+            drain.send(message(Integer.toString(i)));
+        }
+
+        // every write completes before sendText returns
+        drain.start();
+        Assert.assertEquals(DrainQueue.getLimits().capacity, remote.written.size());
+        Assert.assertTrue("Writes should complete without recursion", remote.maxDepth <= 1);
+    }
+
+    @Test
+    public void testBatching() {
+        remote.batchingAllowed = true;
+        AsyncDrain drain = new AsyncDrain("test", session);
+        for (int i = 0; i < AsyncDrain.BATCH_SIZE + 8; i++) {
+            drain.send(message(Integer.toString(i)));
+        }
+
+        drain.start();
+        Assert.assertEquals(AsyncDrain.BATCH_SIZE + 8, remote.written.size());
+        Assert.assertEquals("Frames should be flushed every BATCH_SIZE, and when the queue is empty", 2, remote.flushes);
+
+        drain.send(message("last"));
+        Assert.assertEquals(3, remote.flushes);
+    }
+
+    @Test
+    public void testFailedWrite() {
+        remote.completeInline = false;
+        AsyncDrain drain = new AsyncDrain("test", session);
+        drain.start();
+
+        drain.send(message("1"));
+        drain.send(message("2"));
+        remote.complete(new SendResult(new IOException("broken pipe")));
+        Assert.assertNotNull("Session should be closed after a failed write", closeReason);
+        Assert.assertEquals(CloseCodes.UNEXPECTED_CONDITION, closeReason.getCloseCode());
+        Assert.assertNull("Drain should not retry right away", remote.handler);
+
+        // the next message tries again, starting with the one that failed
+        drain.send(message("3"));
+        Assert.assertEquals(2, remote.written.size());
+        Assert.assertEquals(remote.written.get(0), remote.written.get(1));
+    }
+
+    @Test
+    public void testStop() {
+        remote.completeInline = false;
+        AsyncDrain drain = new AsyncDrain("test", session);
+        drain.start();
+
+        drain.send(message("1"));
+        drain.send(message("2"));
+        drain.stop();
+        Assert.assertEquals("Session should be closed once the write completes", 0, closeCount);
+
+        remote.complete(SENT);
+        Assert.assertEquals(1, remote.written.size());
+        Assert.assertEquals(1, closeCount);
+
+        drain.send(message("3"));
+        drain.stop();
+        Assert.assertEquals(1, remote.written.size());
+        Assert.assertEquals(1, closeCount);
+    }
+
+    static final SendResult SENT = new SendResult();
+
+    RoutedMessage message(String destination) {
+        return RoutedMessage.createMessage(FlowTarget.player, destination, "{}");
+    }
+
+    static class TestRemote implements RemoteEndpoint.Async {
+        final List<String> written = new ArrayList<>();
+        boolean completeInline = true;
+        boolean batchingAllowed = false;
+        int flushes = 0;
+
+        SendHandler handler;
+        int depth = 0;
+        int maxDepth = 0;
+
+        @Override
+        public void sendText(String text, SendHandler handler) {
+            if ( this.handler != null ) {
+                throw new IllegalStateException("write already outstanding");
+            }
+            written.add(text);
+            this.handler = handler;
+            if ( completeInline ) {
+                depth++;
+                maxDepth = Math.max(depth, maxDepth);
+                complete(SENT);
+                depth--;
+            }
+        }
+
+        void complete(SendResult result) {
+            SendHandler h = handler;
+            handler = null;
+            h.onResult(result);
+        }
+
+        @Override
+        public void setBatchingAllowed(boolean allowed) throws IOException {
+        }
+
+        @Override
+        public boolean getBatchingAllowed() {
+            return batchingAllowed;
+        }
+
+        @Override
+        public void flushBatch() throws IOException {
+            flushes++;
+        }
+
+        @Override
+        public long getSendTimeout() {
+            return 0;
+        }
+
+        @Override
+        public void setSendTimeout(long timeoutmillis) {
+        }
+
+        @Override
+        public Future<Void> sendText(String text) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Future<Void> sendBinary(ByteBuffer data) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sendBinary(ByteBuffer data, SendHandler handler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Future<Void> sendObject(Object data) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sendObject(Object data, SendHandler handler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sendPing(ByteBuffer applicationData) throws IOException {
+        }
+
+        @Override
+        public void sendPong(ByteBuffer applicationData) throws IOException {
+        }
+    }
+}
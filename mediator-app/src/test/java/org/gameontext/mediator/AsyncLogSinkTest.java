@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import org.gameontext.mediator.AsyncLogSink.Entry;
+import org.gameontext.mediator.AsyncLogSink.WhenFull;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AsyncLogSinkTest {
+
+    @Test
+    public void testDropWhenFull() throws Exception {
+        StringWriter out = new StringWriter();
+        // not started: nothing takes records off the buffer
+        AsyncLogSink sink = new AsyncLogSink(out, 3, WhenFull.DROP, Executors.defaultThreadFactory());
+        Assert.assertEquals("Capacity should be rounded up to a power of 2", 4, sink.capacity());
+
+        for (int i = 0; i < 6; i++) {
+            sink.offer(entry("record {0}", i));
+        }
+        Assert.assertEquals(4, sink.size());
+        Assert.assertEquals(2, sink.dropped.sum());
+
+        Assert.assertEquals(5, sink.writeBatch());
+        String[] lines = out.toString().split("\n");
+        Assert.assertEquals(5, lines.length);
+        Assert.assertEquals("record 0", json(lines[0]).getString("message"));
+        Assert.assertEquals("record 3", json(lines[3]).getString("message"));
+        Assert.assertEquals("2 log records dropped (buffer full)", json(lines[4]).getString("message"));
+
+        // the buffer wraps around
+        sink.offer(entry("record {0}", 6));
+        Assert.assertEquals(6, sink.poll().args[0]);
+        Assert.assertNull(sink.poll());
+    }
+
+    @Test
+    public void testJsonFormat() throws Exception {
+        StringWriter out = new StringWriter();
+        AsyncLogSink sink = new AsyncLogSink(out, 16, WhenFull.DROP, Executors.defaultThreadFactory());
+
+        sink.offer(new Entry(Level.FINEST, "org.gameontext.mediator.relay", 0xabc,
+                "C -> M    R : {0}", new Object[] { "room,*,{\"content\":\"a \\\"quote\\\"\"}" }, null));
+        sink.offer(new Entry(Level.FINER, "org.gameontext.mediator", 1, "oops", null, new IllegalStateException("bad")));
+        sink.writeBatch();
+
+        String[] lines = out.toString().split("\n");
+        JsonObject record = json(lines[0]);
+        Assert.assertEquals("FINEST", record.getString("level"));
+        Assert.assertEquals("org.gameontext.mediator.relay", record.getString("logger"));
+        Assert.assertEquals("abc", record.getString("source"));
+        Assert.assertEquals(Thread.currentThread().getName(), record.getString("thread"));
+        Assert.assertEquals("C -> M    R : room,*,{\"content\":\"a \\\"quote\\\"\"}", record.getString("message"));
+
+        record = json(lines[1]);
+        Assert.assertTrue(record.getString("thrown").startsWith("java.lang.IllegalStateException: bad"));
+    }
+
+    @Test
+    public void testTraceWrittenBySink() throws Exception {
+        StringWriter out = new StringWriter();
+        AsyncLogSink sink = new AsyncLogSink(out, 16, WhenFull.BLOCK, Executors.defaultThreadFactory());
+        Logger logger = Logger.getLogger("org.gameontext.mediator");
+        Level oldLevel = logger.getLevel();
+
+        sink.start();
+        AsyncLogSink old = Log.setSink(sink);
+        try {
+            logger.setLevel(Level.ALL);
+            Log.log(Level.FINEST, this, "trace {0} {1}", "a", "b");
+        } finally {
+            Log.setSink(old);
+            logger.setLevel(oldLevel);
+            sink.stop();
+        }
+        Assert.assertEquals("trace a b", json(out.toString().trim()).getString("message"));
+    }
+
+    @Test
+    public void testWriteFailureCounted() throws Exception {
+        boolean[] failing = { true };
+        StringWriter writer = new StringWriter() {
+            @Override
+            public void flush() {
+                if ( failing[0] ) {
+                    throw new IllegalStateException("disk full");
+                }
+                super.flush();
+            }
+        };
+        AsyncLogSink sink = new AsyncLogSink(writer, 16, WhenFull.DROP, Executors.defaultThreadFactory());
+
+        sink.offer(entry("record {0}", 0));
+        sink.offer(entry("record {0}", 1));
+        try {
+            sink.writeBatch();
+            Assert.fail("Expected the write to fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Assert.assertEquals("Records taken off the buffer should be counted", 2, sink.dropped.sum());
+        Assert.assertEquals(2, sink.failed.sum());
+
+        failing[0] = false;
+        writer.getBuffer().setLength(0);
+        sink.offer(entry("record {0}", 2));
+        Assert.assertEquals(2, sink.writeBatch());
+        String[] lines = writer.toString().split("\n");
+        Assert.assertEquals("record 2", json(lines[0]).getString("message"));
+        Assert.assertEquals("2 log records dropped (2 could not be written)", json(lines[1]).getString("message"));
+    }
+
+    @Test
+    public void testMutableArgumentsSnapshot() throws Exception {
+        StringWriter out = new StringWriter();
+        AsyncLogSink sink = new AsyncLogSink(out, 16, WhenFull.DROP, Executors.defaultThreadFactory());
+
+        StringBuilder value = new StringBuilder("before");
+        Object[] args = { value, 1 };
+        sink.offer(new Entry(Level.FINEST, "test", 0, "{0} {1}", args, null));
+        value.setLength(0);
+        value.append("after");
+
+        Assert.assertSame("The caller's arguments should not change", value, args[0]);
+        sink.writeBatch();
+        Assert.assertEquals("before 1", json(out.toString().trim()).getString("message"));
+    }
+
+    Entry entry(String message, int i) {
+        return new Entry(Level.FINEST, "test", 0, message, new Object[] { i }, null);
+    }
+
+    JsonObject json(String line) {
+        return Json.createReader(new StringReader(line)).readObject();
+    }
+}
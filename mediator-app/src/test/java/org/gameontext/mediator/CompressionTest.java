@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.websocket.Extension;
+import javax.websocket.Session;
+
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
+import org.gameontext.mediator.metrics.MediatorMetrics;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.Verifications;
+import mockit.integration.junit4.JMockit;
+
+@RunWith(JMockit.class)
+public class CompressionTest {
+
+    static final Extension OTHER = new Extension() {
+        @Override
+        public String getName() {
+            return "x-other";
+        }
+
+        @Override
+        public List<Parameter> getParameters() {
+            return Collections.emptyList();
+        }
+    };
+
+    /** Sampled frames are measured on the calling thread */
+    static final Executor DIRECT = Runnable::run;
+
+    static final int SAMPLE_SIZE = 256;
+
+    @After
+    public void after() {
+        Compression.configure(null, null, null);
+    }
+
+    @Test
+    public void testConfigure() {
+        Compression.configure("${env.MEDIATOR_COMPRESSION}", "${env.MEDIATOR_COMPRESSION_SAMPLING}", DIRECT);
+        Assert.assertTrue(Compression.isEnabled());
+        Assert.assertEquals("Sampling should be off by default", 0, Compression.getSampleMinSize());
+
+        Compression.configure("true", "1024", DIRECT);
+        Assert.assertTrue(Compression.isEnabled());
+        Assert.assertEquals(1024, Compression.getSampleMinSize());
+
+        Compression.configure("false", "1024", DIRECT);
+        Assert.assertFalse(Compression.isEnabled());
+        Assert.assertEquals(0, Compression.getSampleMinSize());
+
+        Compression.configure("true", "lots", DIRECT);
+        Assert.assertTrue(Compression.isEnabled());
+        Assert.assertEquals(0, Compression.getSampleMinSize());
+
+        Compression.configure("true", "1024", null);
+        Assert.assertEquals("No sampling without an executor", 0, Compression.getSampleMinSize());
+    }
+
+    @Test
+    public void testRequestedExtensions() {
+        List<Extension> requested = Compression.requestedExtensions();
+        Assert.assertEquals(1, requested.size());
+        Assert.assertEquals(Compression.PERMESSAGE_DEFLATE, requested.get(0).getName());
+
+        Compression.configure("false", null, null);
+        Assert.assertTrue(Compression.requestedExtensions().isEmpty());
+    }
+
+    @Test
+    public void testNegotiate() {
+        List<Extension> installed = Arrays.asList(OTHER, Compression.DEFLATE);
+        List<Extension> requested = Arrays.asList(OTHER, Compression.DEFLATE);
+
+        List<Extension> negotiated = Compression.negotiate(installed, requested);
+        Assert.assertEquals(1, negotiated.size());
+        Assert.assertSame("The client's offer should be accepted", Compression.DEFLATE, negotiated.get(0));
+
+        Assert.assertTrue("Not requested", Compression.negotiate(installed, Arrays.asList(OTHER)).isEmpty());
+        Assert.assertTrue("Not installed", Compression.negotiate(Arrays.asList(OTHER), requested).isEmpty());
+
+        Compression.configure("false", null, null);
+        Assert.assertTrue("Disabled", Compression.negotiate(installed, requested).isEmpty());
+    }
+
+    @Test
+    public void testDeflate() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            text.append("{\"type\":\"location\",\"name\":\"room").append(i).append("\",\"description\":\"A room for testing\"}");
+        }
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        int compressed = Compression.deflate(bytes);
+        Assert.assertTrue("Repetitive JSON should compress well: " + compressed, compressed < bytes.length / 4);
+
+        // check the size against what a peer would inflate (after restoring the trailer)
+        byte[] frame = new byte[compressed + 4];
+        Deflater d = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        d.setInput(bytes);
+        Assert.assertEquals(compressed + 4, d.deflate(frame, 0, frame.length, Deflater.SYNC_FLUSH));
+
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(frame);
+        byte[] result = new byte[bytes.length];
+        Assert.assertEquals(bytes.length, inflater.inflate(result));
+        Assert.assertArrayEquals(bytes, result);
+    }
+
+    @Test
+    public void testSentSamplesLargeFrames(@Mocked Session session, @Mocked MediatorMetrics metrics) {
+        Compression.configure(null, Integer.toString(SAMPLE_SIZE), DIRECT);
+        new Expectations() {{
+            session.getNegotiatedExtensions(); result = Arrays.asList(Compression.DEFLATE); minTimes = 0;
+        }};
+
+        RoutedMessage small = RoutedMessage.createMessage(FlowTarget.player, "user", "{}");
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            content.append('a');
+        }
+        RoutedMessage large = RoutedMessage.createMessage(FlowTarget.player, "user", "{\"content\":\"" + content + "\"}");
+
+        for (int i = 0; i < Compression.SAMPLE_RATE; i++) {
+            Compression.sent(session, small);
+        }
+        new Verifications() {{
+            MediatorMetrics.deflated(anyInt, anyInt, anyLong); times = 0;
+        }};
+
+        for (int i = 0; i < Compression.SAMPLE_RATE; i++) {
+            Compression.sent(session, large);
+        }
+        new Verifications() {{
+            MediatorMetrics.deflated(withEqual(large.encode().length()), anyInt, anyLong); times = 1;
+        }};
+    }
+
+    @Test
+    public void testNoSamplingByDefault(@Mocked Session session, @Mocked MediatorMetrics metrics) {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            content.append('a');
+        }
+        RoutedMessage large = RoutedMessage.createMessage(FlowTarget.player, "user", "{\"content\":\"" + content + "\"}");
+        for (int i = 0; i < Compression.SAMPLE_RATE * 2; i++) {
+            Compression.sent(session, large);
+        }
+        new Verifications() {{
+            session.getNegotiatedExtensions(); times = 0;
+            MediatorMetrics.deflated(anyInt, anyInt, anyLong); times = 0;
+        }};
+    }
+
+    @Test
+    public void testSentIgnoresUncompressedSessions(@Mocked Session session, @Mocked MediatorMetrics metrics) {
+        Compression.configure(null, Integer.toString(SAMPLE_SIZE), DIRECT);
+        new Expectations() {{
+            session.getNegotiatedExtensions(); result = Collections.emptyList(); minTimes = 0;
+        }};
+
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            content.append('a');
+        }
+        RoutedMessage large = RoutedMessage.createMessage(FlowTarget.player, "user", "{\"content\":\"" + content + "\"}");
+        for (int i = 0; i < Compression.SAMPLE_RATE * 2; i++) {
+            Compression.sent(session, large);
+        }
+        new Verifications() {{
+            MediatorMetrics.deflated(anyInt, anyInt, anyLong); times = 0;
+        }};
+    }
+}
@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.io.Closeable;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
+import javax.websocket.Session;
+
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.junit.runner.RunWith;
+
+import mockit.Mock;
+import mockit.MockUp;
+import mockit.Mocked;
+import mockit.integration.junit4.JMockit;
+
+@RunWith(JMockit.class)
+public class DispatchedDrainTest {
+
+    @Mocked Session session;
+
+    /** Drains handed to the (mocked) dispatcher, in order */
+    final LinkedList<DispatchedDrain> scheduled = new LinkedList<>();
+
+    /** Delays of drains scheduled after a failed send */
+    final List<Long> delays = new ArrayList<>();
+
+    /** Messages "sent" to the session */
+    final List<RoutedMessage> sent = new ArrayList<>();
+
+    boolean sendResult = true;
+    int closeCount = 0;
+    CloseReason closeReason;
+
+    DrainDispatcher dispatcher;
+
+    @Rule
+    public TestName testName = new TestName();
+
+    @Before
+    public void before() {
+        System.out.println("-- " + testName.getMethodName() + " --------------------------------------");
+
+        new MockUp<Log>() {
+            @Mock
+            public void log(Level level, Object source, String msg, Object[] params) {
+                System.out.println("Log: " + MessageFormat.format(msg, params));
+            }
+
+            @Mock
+            public void log(Level level, Object source, String msg, Throwable thrown) {
+                System.out.println("Log: " + msg + ": " + thrown.getMessage());
+                thrown.printStackTrace(System.out);
+            }
+        };
+
+        new MockUp<WSUtils>() {
+            @Mock
+            public boolean sendMessage(Session session, RoutedMessage message) {
+                if ( sendResult )
+                    sent.add(message);
+                return sendResult;
+            }
+
+            @Mock
+            public void tryToClose(Closeable c) {
+                closeCount++;
+            }
+
+            @Mock
+            public void tryToClose(Session s, CloseReason reason) {
+                closeReason = reason;
+            }
+        };
+
+        dispatcher = new MockUp<DrainDispatcher>() {
+            @Mock
+            void schedule(DispatchedDrain drain) {
+                scheduled.add(drain);
+            }
+
+            @Mock
+            void schedule(DispatchedDrain drain, long delayMs) {
+                scheduled.add(drain);
+                delays.add(delayMs);
+            }
+        }.getMockInstance();
+    }
+
+    @Test
+    public void testNothingSentBeforeStart() {
+        DispatchedDrain drain = new DispatchedDrain("test", dispatcher);
+        drain.send(message("1"));
+        Assert.assertTrue("Drain should not be scheduled until it is started", scheduled.isEmpty());
+
+        drain.start(session);
+        Assert.assertEquals(1, scheduled.size());
+
+        scheduled.poll().drain(DrainDispatcher.BATCH_SIZE);
+        Assert.assertEquals(1, sent.size());
+        Assert.assertTrue("Drain should not be re-scheduled when empty", scheduled.isEmpty());
+    }
+
+    @Test
+    public void testOrderingAndBatching() {
+        DispatchedDrain drain = new DispatchedDrain("test", session, dispatcher);
+        drain.start();
+        scheduled.poll().drain(DrainDispatcher.BATCH_SIZE);
+
+        for (int i = 0; i < 5; i++) {
+            drain.send(message(Integer.toString(i)));
+        }
+        Assert.assertEquals("Drain should only be scheduled once", 1, scheduled.size());
+
+        scheduled.poll().drain(2);
+        Assert.assertEquals(2, sent.size());
+        Assert.assertEquals("Drain should re-schedule itself while messages are pending", 1, scheduled.size());
+
+        while (!scheduled.isEmpty()) {
+            scheduled.poll().drain(2);
+        }
+
+        Assert.assertEquals(5, sent.size());
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(Integer.toString(i), sent.get(i).getDestination());
+        }
+    }
+
+    @Test
+    public void testFailedSendRetried() {
+        DispatchedDrain drain = new DispatchedDrain("test", session, dispatcher);
+        drain.start();
+        scheduled.poll().drain(DrainDispatcher.BATCH_SIZE);
+
+        drain.send(message("1"));
+        drain.send(message("2"));
+
+        sendResult = false;
+        scheduled.poll().drain(DrainDispatcher.BATCH_SIZE);
+        Assert.assertTrue(sent.isEmpty());
+        Assert.assertEquals("Drain should be re-scheduled after a failed send", 1, scheduled.size());
+        Assert.assertEquals("Retry should be delayed", Arrays.asList(WSDrain.MIN_RETRY_MS), delays);
+
+        // messages arriving during the backoff don't schedule the drain again
+        drain.send(message("3"));
+        Assert.assertEquals(1, scheduled.size());
+
+        scheduled.poll().drain(DrainDispatcher.BATCH_SIZE);
+        Assert.assertEquals("Retries should back off", Arrays.asList(WSDrain.MIN_RETRY_MS, 2 * WSDrain.MIN_RETRY_MS), delays);
+
+        sendResult = true;
+        scheduled.poll().drain(DrainDispatcher.BATCH_SIZE);
+        Assert.assertEquals(3, sent.size());
+        Assert.assertEquals("1", sent.get(0).getDestination());
+        Assert.assertEquals("2", sent.get(1).getDestination());
+        Assert.assertTrue("Drain should not be re-scheduled once sent", scheduled.isEmpty());
+        Assert.assertEquals(2, delays.size());
+    }
+
+    @Test
+    public void testStop() {
+        DispatchedDrain drain = new DispatchedDrain("test", session, dispatcher);
+        drain.start();
+        scheduled.poll().drain(DrainDispatcher.BATCH_SIZE);
+
+        drain.send(message("1"));
+        drain.stop();
+        Assert.assertEquals(1, scheduled.size());
+
+        scheduled.poll().drain(DrainDispatcher.BATCH_SIZE);
+        Assert.assertTrue("Pending messages should be discarded after stop", sent.isEmpty());
+        Assert.assertEquals(1, closeCount);
+
+        drain.send(message("2"));
+        drain.stop();
+        Assert.assertTrue("Closed drain should not be scheduled again", scheduled.isEmpty());
+    }
+
+    @Test
+    public void testSlowConsumerClosed() throws Exception {
+        DrainQueue.Limits limits = DrainQueue.getLimits();
+        DrainQueue.setLimits(new DrainQueue.Limits(4, EnumSet.allOf(DrainQueue.Policy.class), TimeUnit.MILLISECONDS.toNanos(1)));
+        try {
+            DispatchedDrain drain = new DispatchedDrain("test", session, dispatcher);
+            drain.start();
+            scheduled.poll().drain(DrainDispatcher.BATCH_SIZE);
+
+            // the client doesn't keep up: nothing is drained
+            for (int i = 0; i < 4; i++) {
+                drain.send(message(Integer.toString(i)));
+            }
+            Assert.assertNull(closeReason);
+
+            Thread.sleep(5);
+            drain.send(message("4"));
+            Assert.assertNotNull("Session should be closed when the queue stays above its high-water mark", closeReason);
+            Assert.assertEquals(CloseCodes.TRY_AGAIN_LATER, closeReason.getCloseCode());
+
+            scheduled.poll().drain(DrainDispatcher.BATCH_SIZE);
+            Assert.assertTrue("Pending messages should be discarded", sent.isEmpty());
+        } finally {
+            DrainQueue.setLimits(limits);
+        }
+    }
+
+    RoutedMessage message(String destination) {
+        return RoutedMessage.createMessage(FlowTarget.player, destination, "{}");
+    }
+}
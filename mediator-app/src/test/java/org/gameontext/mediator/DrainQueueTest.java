@@ -0,0 +1,228 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.gameontext.mediator.DrainQueue.Limits;
+import org.gameontext.mediator.DrainQueue.Policy;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DrainQueueTest {
+
+    static final Limits ALL = new Limits(4, EnumSet.allOf(Policy.class), TimeUnit.SECONDS.toNanos(30));
+
+    static QueuedMessage chat(String text) {
+        return new QueuedMessage(RoutedMessage.createMessage(RoutedMessage.FlowTarget.player, "*",
+                "{\"type\":\"chat\",\"username\":\"someone\",\"content\":\"" + text + "\"}"));
+    }
+
+    static QueuedMessage location() {
+        return new QueuedMessage(RoutedMessage.createMessage(RoutedMessage.FlowTarget.player, "user",
+                "{\"type\":\"location\",\"name\":\"room\"}"));
+    }
+
+    static QueuedMessage ping() {
+        return new QueuedMessage(RoutedMessage.PING_MSG);
+    }
+
+    @Test
+    public void testFullDropsOldestChat() {
+        DrainQueue q = new DrainQueue("testFullDropsOldestChat", false, ALL);
+        QueuedMessage first = location();
+        q.offer(first);
+        q.offer(chat("one"));
+        q.offer(chat("two"));
+        q.offer(location());
+
+        QueuedMessage three = chat("three");
+        Assert.assertTrue(q.offer(three));
+        Assert.assertEquals(4, q.size());
+
+        Assert.assertSame(first, q.poll());
+        Assert.assertEquals("two", q.poll().message.getString("content"));
+        q.poll();
+        Assert.assertSame(three, q.poll());
+        Assert.assertNull(q.poll());
+        q.close();
+    }
+
+    @Test
+    public void testFullDropsPingsFirst() {
+        Limits noCoalesce = new Limits(2, EnumSet.of(Policy.DROP_OLDEST_CHAT), TimeUnit.SECONDS.toNanos(30));
+        DrainQueue q = new DrainQueue("testFullDropsPingsFirst", false, noCoalesce);
+        q.offer(chat("one"));
+        q.offer(ping());
+
+        Assert.assertTrue(q.offer(location()));
+        Assert.assertEquals("one", q.poll().message.getString("content"));
+        Assert.assertEquals("location", q.poll().message.getString("type"));
+        q.close();
+    }
+
+    @Test
+    public void testFullWithoutChatDropsNewMessage() {
+        DrainQueue q = new DrainQueue("testFullWithoutChatDropsNewMessage", false, ALL);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(q.offer(location()));
+        }
+        Assert.assertFalse(q.offer(location()));
+        Assert.assertEquals(4, q.size());
+        q.close();
+    }
+
+    @Test
+    public void testNoPolicyKeepsChat() {
+        DrainQueue q = new DrainQueue("testNoPolicyKeepsChat", false,
+                new Limits(1, EnumSet.noneOf(Policy.class), TimeUnit.SECONDS.toNanos(30)));
+        QueuedMessage one = chat("one");
+        Assert.assertTrue(q.offer(one));
+        Assert.assertFalse(q.offer(chat("two")));
+        Assert.assertSame(one, q.poll());
+        q.close();
+    }
+
+    @Test
+    public void testCoalescePings() {
+        DrainQueue q = new DrainQueue("testCoalescePings", false, ALL);
+        Assert.assertTrue(q.offer(ping()));
+        Assert.assertFalse(q.offer(ping()));
+        Assert.assertEquals(1, q.size());
+
+        // once the queued ping is sent, the next one is queued
+        q.poll();
+        Assert.assertTrue(q.offer(ping()));
+        q.close();
+    }
+
+    @Test
+    public void testOfferFirstIgnoresCapacity() {
+        DrainQueue q = new DrainQueue("testOfferFirstIgnoresCapacity", false, ALL);
+        for (int i = 0; i < 4; i++) {
+            q.offer(location());
+        }
+        QueuedMessage retry = location();
+        q.offerFirst(retry);
+        Assert.assertEquals(5, q.size());
+        Assert.assertSame(retry, q.poll());
+        q.close();
+    }
+
+    @Test
+    public void testOverloaded() throws Exception {
+        DrainQueue q = new DrainQueue("testOverloaded", false,
+                new Limits(4, EnumSet.allOf(Policy.class), TimeUnit.MILLISECONDS.toNanos(1)));
+
+        // high-water mark is 3
+        for (int i = 0; i < 4; i++) {
+            q.offer(location());
+        }
+        Thread.sleep(5);
+        Assert.assertTrue(q.isOverloaded());
+
+        // back at the high-water mark: no longer overloaded
+        q.poll();
+        Assert.assertFalse(q.isOverloaded());
+        q.close();
+    }
+
+    @Test
+    public void testOverloadedWithoutDisconnect() throws Exception {
+        DrainQueue q = new DrainQueue("testOverloadedWithoutDisconnect", false,
+                new Limits(4, EnumSet.of(Policy.DROP_OLDEST_CHAT), TimeUnit.MILLISECONDS.toNanos(1)));
+        for (int i = 0; i < 4; i++) {
+            q.offer(location());
+        }
+        Thread.sleep(5);
+        Assert.assertFalse(q.isOverloaded());
+        q.close();
+    }
+
+    @Test
+    public void testTake() throws Exception {
+        DrainQueue q = new DrainQueue("testTake", true, ALL);
+        QueuedMessage message = location();
+        Thread t = new Thread(() -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+            }
+            q.offer(message);
+        });
+        t.start();
+        Assert.assertSame(message, q.take());
+        t.join();
+        q.close();
+    }
+
+    @Test
+    public void testIsChat() {
+        Assert.assertTrue(DrainQueue.isChat(chat("hi").message));
+        Assert.assertFalse(DrainQueue.isChat(location().message));
+        Assert.assertFalse(DrainQueue.isChat(RoutedMessage.PING_MSG));
+        Assert.assertTrue(DrainQueue.isChat(RoutedMessage.createMessage(RoutedMessage.FlowTarget.room, "room1",
+                "{\"username\":\"someone\",\"content\":\"hello\"}")));
+        Assert.assertFalse(DrainQueue.isChat(RoutedMessage.createMessage(RoutedMessage.FlowTarget.room, "room1",
+                "{\"username\":\"someone\",\"content\":\"/look\"}")));
+    }
+
+    @Test
+    public void testParse() {
+        Limits limits = Limits.parse("100", "coalescePings, disconnect", "10");
+        Assert.assertEquals(100, limits.capacity);
+        Assert.assertEquals(75, limits.highWater);
+        Assert.assertEquals(EnumSet.of(Policy.COALESCE_PINGS, Policy.DISCONNECT), limits.policies);
+        Assert.assertEquals(TimeUnit.SECONDS.toNanos(10), limits.maxOverHighWater);
+
+        limits = Limits.parse("${env.MEDIATOR_DRAIN_QUEUE_CAPACITY}", null, "x");
+        Assert.assertEquals(Limits.DEFAULT_CAPACITY, limits.capacity);
+        Assert.assertEquals(EnumSet.allOf(Policy.class), limits.policies);
+        Assert.assertEquals(TimeUnit.SECONDS.toNanos(Limits.DEFAULT_DISCONNECT_SECONDS), limits.maxOverHighWater);
+
+        Assert.assertTrue(Limits.parse(null, "none", null).policies.isEmpty());
+    }
+
+    @Test
+    public void testDeepest() {
+        DrainQueue shallow = new DrainQueue("testDeepest-shallow", false, ALL);
+        DrainQueue deep = new DrainQueue("testDeepest-deep", true, ALL);
+        shallow.offer(location());
+        deep.offer(location());
+        deep.offer(location());
+        deep.offer(location());
+        deep.poll();
+
+        // other tests may leave queues open
+        List<DrainQueue.Stats> stats = DrainQueue.deepest(1000);
+        stats.removeIf(s -> !s.id.startsWith("testDeepest"));
+        Assert.assertEquals(2, stats.size());
+        Assert.assertEquals("testDeepest-deep", stats.get(0).id);
+        Assert.assertEquals(2, stats.get(0).depth);
+        Assert.assertEquals(3, stats.get(0).highWater);
+        Assert.assertTrue(stats.get(0).toRoom);
+        Assert.assertEquals("testDeepest-shallow", stats.get(1).id);
+
+        // closed queues are no longer listed
+        deep.close();
+        shallow.close();
+        for (DrainQueue.Stats s : DrainQueue.deepest(100)) {
+            Assert.assertFalse(s.id.startsWith("testDeepest"));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+
+public class JwtCacheTest {
+
+    long now = 1000000;
+
+    JwtCache cache(int maxEntries) {
+        return new JwtCache(maxEntries, TimeUnit.MINUTES.toMillis(15), () -> now);
+    }
+
+    Claims expiresIn(long millis) {
+        return Jwts.claims().setSubject("dummy.DevUser").setExpiration(new Date(now + millis));
+    }
+
+    @Test
+    public void testHit() {
+        JwtCache cache = cache(10);
+        Assert.assertNull(cache.get("token"));
+
+        Claims claims = expiresIn(TimeUnit.MINUTES.toMillis(5));
+        cache.put("token", claims, "serverJwt");
+
+        JwtCache.Entry e = cache.get("token");
+        Assert.assertNotNull(e);
+        Assert.assertEquals("serverJwt", e.serverJwt);
+        Assert.assertSame(claims, e.claims);
+        Assert.assertNull(cache.get("other"));
+
+        Assert.assertEquals(1, cache.hits.sum());
+        Assert.assertEquals(2, cache.misses.sum());
+    }
+
+    @Test
+    public void testExpiresWithToken() {
+        JwtCache cache = cache(10);
+        cache.put("token", expiresIn(TimeUnit.MINUTES.toMillis(5)), "serverJwt");
+
+        now += TimeUnit.MINUTES.toMillis(5) - 1;
+        Assert.assertNotNull(cache.get("token"));
+
+        now += 1;
+        Assert.assertNull("Entry should expire with the token", cache.get("token"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testMaxTtl() {
+        JwtCache cache = cache(10);
+        cache.put("token", expiresIn(TimeUnit.DAYS.toMillis(1)), "serverJwt");
+        cache.put("noexpiry", Jwts.claims().setSubject("someone"), "serverJwt2");
+
+        now += TimeUnit.MINUTES.toMillis(15);
+        Assert.assertNull("Entry should not outlive the maximum TTL", cache.get("token"));
+        Assert.assertNull("Entry without expiry should not outlive the maximum TTL", cache.get("noexpiry"));
+    }
+
+    @Test
+    public void testExpiredNotCached() {
+        JwtCache cache = cache(10);
+        cache.put("token", expiresIn(-1), "serverJwt");
+        Assert.assertEquals(0, cache.size());
+        Assert.assertNull(cache.get("token"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        JwtCache cache = cache(2);
+        cache.put("a", expiresIn(60000), "A");
+        cache.put("b", expiresIn(60000), "B");
+        Assert.assertNotNull(cache.get("a"));
+
+        cache.put("c", expiresIn(60000), "C");
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.evictions.sum());
+        Assert.assertNull("Least recently used token should be evicted", cache.get("b"));
+        Assert.assertNotNull(cache.get("a"));
+        Assert.assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void testDigest() {
+        Assert.assertEquals(JwtCache.digest("token"), JwtCache.digest("token"));
+        Assert.assertNotEquals(JwtCache.digest("token"), JwtCache.digest("token2"));
+        Assert.assertFalse(JwtCache.digest("token").contains("token"));
+    }
+}
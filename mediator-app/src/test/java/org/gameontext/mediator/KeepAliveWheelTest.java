@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import mockit.Mocked;
+import mockit.Verifications;
+import mockit.integration.junit4.JMockit;
+
+@RunWith(JMockit.class)
+public class KeepAliveWheelTest {
+
+    static final long INITIAL_TICKS = KeepAliveWheel.INITIAL_DELAY_MS / KeepAliveWheel.TICK_MS;
+
+    @Mocked ScheduledExecutorService executor;
+    @Mocked Drain drain;
+
+    @Test
+    public void testIdlePing() {
+        KeepAliveWheel wheel = new KeepAliveWheel(executor);
+        wheel.register(drain);
+
+        tick(wheel, INITIAL_TICKS - 1);
+        new Verifications() {{
+            drain.send(RoutedMessage.PING_MSG); times = 0;
+        }};
+
+        // first ping is sent within one interval of the initial delay,
+        // then once per interval
+        tick(wheel, KeepAliveWheel.SLOTS + 2 * KeepAliveWheel.SLOTS);
+        new Verifications() {{
+            drain.send(RoutedMessage.PING_MSG); times = 3;
+        }};
+    }
+
+    @Test
+    public void testBusyDrainSkipped() {
+        KeepAliveWheel wheel = new KeepAliveWheel(executor);
+        KeepAliveWheel.Entry entry = wheel.register(drain);
+        tick(wheel, INITIAL_TICKS + 1);
+
+        new Verifications() {{
+            drain.send(RoutedMessage.PING_MSG); times = 1;
+        }};
+
+        // outbound traffic every tick: no pings needed
+        for (int i = 0; i < 3 * KeepAliveWheel.SLOTS; i++) {
+            entry.touch();
+            wheel.tick();
+        }
+        new Verifications() {{
+            drain.send(RoutedMessage.PING_MSG); times = 1;
+        }};
+    }
+
+    @Test
+    public void testCancel() {
+        KeepAliveWheel wheel = new KeepAliveWheel(executor);
+        KeepAliveWheel.Entry entry = wheel.register(drain);
+        wheel.register(drain);
+        Assert.assertEquals(2, wheel.size());
+
+        entry.cancel();
+        Assert.assertEquals(1, wheel.size());
+
+        tick(wheel, INITIAL_TICKS + KeepAliveWheel.SLOTS);
+        new Verifications() {{
+            drain.send(RoutedMessage.PING_MSG); times = 1;
+        }};
+    }
+
+    void tick(KeepAliveWheel wheel, long count) {
+        for (long i = 0; i < count; i++) {
+            wheel.tick();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import mockit.Mock;
+import mockit.MockUp;
+import mockit.integration.junit4.JMockit;
+
+@RunWith(JMockit.class)
+public class LocationUpdatesTest {
+
+    /** Tasks scheduled on the executor, in order: run by the test */
+    final LinkedList<Runnable> scheduled = new LinkedList<>();
+    final List<Long> delays = new ArrayList<>();
+
+    /** Updates "sent" to the player service: id,jwt,old,new */
+    final List<String> sent = new ArrayList<>();
+
+    int status = 200;
+
+    ScheduledThreadPoolExecutor executor;
+    LocationUpdates updates;
+
+    @Before
+    public void before() {
+        new MockUp<Log>() {
+            @Mock
+            public void log(Level level, Object source, String msg, Object[] params) {
+                System.out.println("Log: " + MessageFormat.format(msg, params));
+            }
+
+            @Mock
+            public void log(Level level, Object source, String msg, Throwable thrown) {
+                System.out.println("Log: " + msg + ": " + thrown.getMessage());
+            }
+        };
+
+        executor = new ScheduledThreadPoolExecutor(1) {
+            @Override
+            public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+                scheduled.add(command);
+                delays.add(unit.toMillis(delay));
+                return null;
+            }
+        };
+
+        updates = new LocationUpdates((id, jwt, oldRoomId, newRoomId) -> {
+            sent.add(id + "," + jwt + "," + oldRoomId + "," + newRoomId);
+            return status;
+        }, executor);
+    }
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testUpdateSentInBackground() {
+        updates.update("player1", "jwt", "room1", "room2");
+        Assert.assertTrue("Nothing should be sent by the caller", sent.isEmpty());
+        Assert.assertEquals(1, scheduled.size());
+        Assert.assertEquals(Long.valueOf(0), delays.get(0));
+
+        scheduled.poll().run();
+        Assert.assertEquals("[player1,jwt,room1,room2]", sent.toString());
+        Assert.assertTrue(scheduled.isEmpty());
+        Assert.assertEquals(0, updates.size());
+    }
+
+    @Test
+    public void testUpdatesCoalesced() {
+        updates.update("player1", "jwt1", "room1", "room2");
+        updates.update("player1", "jwt2", "room2", "room3");
+        updates.update("player1", "jwt3", "room3", "room4");
+        updates.update("player2", "jwt", "room1", "room5");
+        Assert.assertEquals("One send per player", 2, scheduled.size());
+
+        while (!scheduled.isEmpty()) {
+            scheduled.poll().run();
+        }
+        Assert.assertEquals("[player1,jwt3,room1,room4, player2,jwt,room1,room5]", sent.toString());
+        Assert.assertEquals(0, updates.size());
+    }
+
+    @Test
+    public void testUpdateWhileInFlight() {
+        updates = new LocationUpdates((id, jwt, oldRoomId, newRoomId) -> {
+            sent.add(id + "," + jwt + "," + oldRoomId + "," + newRoomId);
+            if ( sent.size() == 1 ) {
+                // the player moves on while the first request is in flight
+                updates.update("player1", "jwt", "room2", "room3");
+            }
+            return status;
+        }, executor);
+
+        updates.update("player1", "jwt", "room1", "room2");
+        scheduled.poll().run();
+        Assert.assertEquals("Next update sent after the first completes", 1, scheduled.size());
+
+        scheduled.poll().run();
+        Assert.assertEquals("[player1,jwt,room1,room2, player1,jwt,room2,room3]", sent.toString());
+        Assert.assertTrue(scheduled.isEmpty());
+    }
+
+    @Test
+    public void testRetryWithBackoff() {
+        status = 0;
+        updates.update("player1", "jwt", "room1", "room2");
+        scheduled.poll().run();
+        Assert.assertEquals(1, scheduled.size());
+
+        // a move made while waiting to retry is merged into the retry
+        updates.update("player1", "jwt", "room2", "room3");
+        Assert.assertEquals("Retry already scheduled", 1, scheduled.size());
+
+        status = 503;
+        scheduled.poll().run();
+        status = 200;
+        scheduled.poll().run();
+
+        Assert.assertEquals("[player1,jwt,room1,room2, player1,jwt,room1,room3, player1,jwt,room1,room3]", sent.toString());
+        Assert.assertEquals(Long.valueOf(LocationUpdates.MIN_RETRY_MS), delays.get(1));
+        Assert.assertEquals(Long.valueOf(2 * LocationUpdates.MIN_RETRY_MS), delays.get(2));
+        Assert.assertTrue(scheduled.isEmpty());
+        Assert.assertEquals(0, updates.size());
+    }
+
+    @Test
+    public void testRetriesExhausted() {
+        status = 500;
+        updates.update("player1", "jwt", "room1", "room2");
+        while (!scheduled.isEmpty()) {
+            scheduled.poll().run();
+        }
+        Assert.assertEquals(LocationUpdates.MAX_ATTEMPTS, sent.size());
+        for (long delay : delays) {
+            Assert.assertTrue("delay " + delay, delay <= LocationUpdates.MAX_RETRY_MS);
+        }
+        Assert.assertEquals(0, updates.size());
+    }
+
+    @Test
+    public void testClientErrorNotRetried() {
+        status = 403;
+        updates.update("player1", "jwt", "room1", "room2");
+        scheduled.poll().run();
+        Assert.assertTrue(scheduled.isEmpty());
+        Assert.assertEquals(1, sent.size());
+        Assert.assertEquals(0, updates.size());
+    }
+}
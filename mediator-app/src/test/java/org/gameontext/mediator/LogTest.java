@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LogTest {
+
+    final Logger relay = Logger.getLogger("org.gameontext.mediator.relay");
+
+    @After
+    public void after() {
+        relay.setLevel(null);
+    }
+
+    @Test
+    public void testPrefix() {
+        Object source = new Object();
+        Assert.assertEquals(String.format(": %-8x : %s", Log.getHash(source), "message {0}"),
+                Log.prefix(source, "message {0}"));
+        Assert.assertEquals(String.format(": %-8x : %s", 0, "message"), Log.prefix(null, "message"));
+    }
+
+    @Test
+    public void testDisabledNotBuilt() {
+        AtomicInteger built = new AtomicInteger();
+        Log.log(Level.FINEST, this, () -> "built " + built.incrementAndGet());
+        Assert.assertEquals("Message should not be built if the level is disabled", 0, built.get());
+    }
+
+    @Test
+    public void testRelayLevel() {
+        relay.setLevel(Level.INFO);
+        Assert.assertFalse(Log.isRelayLoggable());
+
+        relay.setLevel(Level.ALL);
+        Assert.assertTrue(Log.isRelayLoggable());
+    }
+}
@@ -0,0 +1,378 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.ws.rs.client.WebTarget;
+
+import org.gameontext.mediator.models.ConnectionDetails;
+import org.gameontext.mediator.models.RoomInfo;
+import org.gameontext.mediator.models.Site;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import mockit.Deencapsulation;
+import mockit.Mock;
+import mockit.MockUp;
+import mockit.Mocked;
+import mockit.integration.junit4.JMockit;
+
+/**
+ * Caching behavior of {@link MapClient#getSite(String)}: the request to the
+ * map service is replaced by {@link #fetch(String)}.
+ */
+@RunWith(JMockit.class)
+public class MapClientCacheTest {
+
+    @Mocked WebTarget target;
+
+    MapClient mapClient;
+    ExecutorService executor;
+
+    final AtomicInteger fetchCount = new AtomicInteger();
+
+    /** Rooms the map service doesn't know about */
+    final Set<String> missing = ConcurrentHashMap.newKeySet();
+
+    /** Rooms the map service can't be reached for */
+    final Set<String> failing = ConcurrentHashMap.newKeySet();
+
+    /** Result of room-list queries: null for a failed request */
+    volatile List<Site> listed = Collections.emptyList();
+
+    /** Released to let requests to the map service complete */
+    volatile CountDownLatch fetchLatch = new CountDownLatch(0);
+
+    @Before
+    public void before() {
+        new MockUp<Log>() {
+            @Mock
+            public void log(Level level, Object source, String msg, Object[] params) {
+                System.out.println("Log: " + MessageFormat.format(msg, params));
+            }
+
+            @Mock
+            public void log(Level level, Object source, String msg, Throwable thrown) {
+                System.out.println("Log: " + msg + ": " + thrown.getMessage());
+            }
+        };
+
+        new MockUp<MapClient>() {
+            @Mock
+            Site getSite(String roomId, WebTarget target) throws InterruptedException {
+                return fetch(roomId);
+            }
+
+            @Mock
+            List<Site> querySites(WebTarget target) {
+                fetchCount.incrementAndGet();
+                return listed;
+            }
+        };
+
+        mapClient = new MapClient();
+        Deencapsulation.setField(mapClient, "queryRoot", target);
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    Site fetch(String roomId) throws InterruptedException {
+        fetchCount.incrementAndGet();
+        fetchLatch.await(5, TimeUnit.SECONDS);
+
+        if ( failing.contains(roomId) ) {
+            // what getSite does when the request fails
+            return null;
+        }
+
+        if ( missing.contains(roomId) ) {
+            // what getSite does for a 404
+            mapClient.missingSites.add(roomId);
+            return null;
+        }
+
+        Site site = new Site();
+        Deencapsulation.setField(site, "id", roomId);
+        return site;
+    }
+
+    @Test
+    public void testConcurrentRequestsCoalesced() throws Exception {
+        fetchLatch = new CountDownLatch(1);
+
+        @SuppressWarnings("unchecked")
+        Future<Site>[] results = new Future[5];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = executor.submit(() -> mapClient.getSite("room"));
+        }
+
+        // give the callers a chance to pile up behind the first request
+        Thread.sleep(200);
+        fetchLatch.countDown();
+
+        Site first = results[0].get(5, TimeUnit.SECONDS);
+        for (Future<Site> f : results) {
+            Assert.assertSame("All callers should get the same site", first, f.get(5, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals("Only one request should be made to the map service", 1, fetchCount.get());
+
+        // cached now
+        Assert.assertSame(first, mapClient.getSite("room"));
+        Assert.assertEquals(1, fetchCount.get());
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() throws Exception {
+        ManagedScheduledExecutorService managedExecutor = new MockUp<ManagedScheduledExecutorService>() {
+            @Mock
+            void execute(Runnable r) {
+                executor.execute(r);
+            }
+        }.getMockInstance();
+        Deencapsulation.setField(mapClient, "executor", managedExecutor);
+        Deencapsulation.setField(mapClient, "refreshInBackground", true);
+
+        // cold miss: wait for the site
+        Site first = mapClient.getSite("room");
+        Assert.assertNotNull(first);
+        Assert.assertEquals(1, fetchCount.get());
+
+        expire("room");
+        fetchLatch = new CountDownLatch(1);
+
+        // stale site is returned while the refresh is in progress
+        Assert.assertSame(first, mapClient.getSite("room"));
+        Assert.assertSame(first, mapClient.getSite("room"));
+
+        fetchLatch.countDown();
+        for (int i = 0; i < 50 && mapClient.getSite("room") == first; i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertNotSame("Refreshed site should be returned", first, mapClient.getSite("room"));
+        Assert.assertEquals("Only one background refresh should be made", 2, fetchCount.get());
+    }
+
+    @Test
+    public void testMissingRoomCached() {
+        missing.add("nowhere");
+
+        Assert.assertNull(mapClient.getSite("nowhere"));
+        Assert.assertNull(mapClient.getSite("nowhere"));
+        Assert.assertEquals("Missing room should only be requested once", 1, fetchCount.get());
+
+        // the room is created: the miss is forgotten
+        Site site = new Site();
+        Deencapsulation.setField(site, "id", "nowhere");
+        mapClient.updateSite("nowhere", site);
+        Assert.assertSame(site, mapClient.getSite("nowhere"));
+        Assert.assertEquals(1, fetchCount.get());
+
+        // and deleted again
+        mapClient.updateSite("nowhere", null);
+        Assert.assertNull(mapClient.getSite("nowhere"));
+        Assert.assertEquals(1, fetchCount.get());
+    }
+
+    @Test
+    public void testFailedNameLookupNotCached() {
+        listed = null;
+        Assert.assertTrue(mapClient.getRoomsByRoomName("kitchen").isEmpty());
+        Assert.assertTrue(mapClient.getRoomsByOwner("me").isEmpty());
+
+        listed = Arrays.asList(site("room", "me", "kitchen"));
+        Assert.assertEquals(listed, mapClient.getRoomsByRoomName("kitchen"));
+        Assert.assertEquals(listed, mapClient.getRoomsByOwner("me"));
+        Assert.assertEquals("Failed lookups should not be cached", 4, fetchCount.get());
+    }
+
+    @Test
+    public void testMissingNameCached() {
+        Assert.assertTrue(mapClient.getRoomsByRoomName("nowhere").isEmpty());
+        Assert.assertTrue(mapClient.getRoomsByRoomName("nowhere").isEmpty());
+        Assert.assertEquals("Missing name should only be requested once", 1, fetchCount.get());
+
+        Site site = new Site();
+        RoomInfo info = new RoomInfo();
+        info.setName("nowhere");
+        site.setInfo(info);
+        mapClient.updateSite("somewhere", site);
+
+        Assert.assertTrue(mapClient.getRoomsByRoomName("nowhere").isEmpty());
+        Assert.assertEquals("Created room should invalidate the cached miss", 2, fetchCount.get());
+    }
+
+    @Test
+    public void testRoomListIndexed() {
+        Site mine = site("mine", "me", "kitchen");
+        listed = Arrays.asList(mine);
+
+        Assert.assertEquals(listed, mapClient.getRoomsByOwner("me"));
+        Assert.assertEquals(listed, mapClient.getRoomsByOwner("me"));
+        Assert.assertEquals(listed, mapClient.getRoomsByOwnerAndRoomName("me", "kitchen"));
+        Assert.assertEquals("Owner's rooms should only be requested once", 1, fetchCount.get());
+
+        // site events keep the indexed list current
+        Site added = site("added", "me", "attic");
+        mapClient.updateSite("added", added);
+        Assert.assertEquals(Arrays.asList(mine, added), mapClient.getRoomsByOwner("me"));
+
+        Site moved = site("mine", "someoneElse", "kitchen");
+        mapClient.updateSite("mine", moved);
+        Assert.assertEquals(Arrays.asList(added), mapClient.getRoomsByOwner("me"));
+
+        mapClient.updateSite("added", null);
+        Assert.assertTrue(mapClient.getRoomsByOwner("me").isEmpty());
+        Assert.assertEquals(1, fetchCount.get());
+
+        // sites for other owners aren't indexed until asked for
+        listed = Arrays.asList(moved);
+        Assert.assertEquals(listed, mapClient.getRoomsByOwner("someoneElse"));
+        Assert.assertEquals(2, fetchCount.get());
+    }
+
+    @Test
+    public void testRoomListQueryRacingUpdateNotIndexed() {
+        listed = Arrays.asList(site("mine", "me", "kitchen"));
+        long generation = mapClient.siteIndex.generation();
+
+        // an update arrives while the query is in flight
+        mapClient.updateSite("added", site("added", "me", "attic"));
+        mapClient.siteIndex.putByOwner("me", listed, generation);
+
+        Assert.assertNull(mapClient.siteIndex.getByOwner("me"));
+    }
+
+    @Test
+    public void testRestoredSitesRefreshedInBackground() throws Exception {
+        ManagedScheduledExecutorService managedExecutor = new MockUp<ManagedScheduledExecutorService>() {
+            @Mock
+            void execute(Runnable r) {
+                executor.execute(r);
+            }
+        }.getMockInstance();
+        Deencapsulation.setField(mapClient, "executor", managedExecutor);
+
+        Path file = Files.createTempFile("sites", ".jsonl");
+        try {
+            SiteSnapshot snapshot = new SiteSnapshot(file);
+            Site restored = site("room", "me", "kitchen");
+            snapshot.write(Arrays.asList(restored));
+            Deencapsulation.setField(mapClient, "snapshot", snapshot);
+            mapClient.restoreSnapshot();
+
+            // restored site is used right away, and refreshed
+            Site first = mapClient.getSite("room");
+            Assert.assertEquals("kitchen", first.getInfo().getName());
+            for (int i = 0; i < 50 && mapClient.getSite("room") == first; i++) {
+                Thread.sleep(100);
+            }
+            Assert.assertNotSame("Refreshed site should be returned", first, mapClient.getSite("room"));
+            Assert.assertEquals(1, fetchCount.get());
+
+            mapClient.writeSnapshot();
+            Assert.assertEquals(1, snapshot.read().size());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testRestoredConnectionFetchedFirst() throws Exception {
+        Deencapsulation.setField(mapClient, "executor", new MockUp<ManagedScheduledExecutorService>() {}.getMockInstance());
+
+        Path file = Files.createTempFile("sites", ".jsonl");
+        try {
+            SiteSnapshot snapshot = new SiteSnapshot(file);
+            Site restored = site("room", "me", "kitchen");
+            restored.getInfo().setConnectionDetails(new ConnectionDetails());
+            snapshot.write(Arrays.asList(restored));
+            Deencapsulation.setField(mapClient, "snapshot", snapshot);
+            mapClient.restoreSnapshot();
+
+            // no token in the snapshot: the site is fetched before it is used
+            Site site = mapClient.getSite("room");
+            Assert.assertNull("Fetched site should be returned", site.getInfo());
+            Assert.assertEquals(1, fetchCount.get());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testRestoredConnectionNotUsedWhenFetchFails() throws Exception {
+        Deencapsulation.setField(mapClient, "executor", new MockUp<ManagedScheduledExecutorService>() {}.getMockInstance());
+
+        Path file = Files.createTempFile("sites", ".jsonl");
+        try {
+            SiteSnapshot snapshot = new SiteSnapshot(file);
+            Site restored = site("room", "me", "kitchen");
+            restored.getInfo().setConnectionDetails(new ConnectionDetails());
+            Site other = site("other", "me", "porch");
+            snapshot.write(Arrays.asList(restored, other));
+            Deencapsulation.setField(mapClient, "snapshot", snapshot);
+            mapClient.restoreSnapshot();
+
+            // without a token the restored site can't be used to connect
+            failing.add("room");
+            Assert.assertNull("Restored site should not be used", mapClient.getSite("room"));
+            Assert.assertEquals(1, fetchCount.get());
+
+            // .. but a restored site without connection details can still be served
+            failing.add("other");
+            Site site = mapClient.getSite("other");
+            Assert.assertEquals("porch", site.getInfo().getName());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    Site site(String id, String owner, String name) {
+        Site site = new Site();
+        Deencapsulation.setField(site, "id", id);
+        Deencapsulation.setField(site, "owner", owner);
+        RoomInfo info = new RoomInfo();
+        info.setName(name);
+        site.setInfo(info);
+        return site;
+    }
+
+    void expire(String roomId) {
+        mapClient.getSiteCache().peek(roomId).lastCheck -= MapClient.SiteCache.TTL * 2;
+    }
+}
@@ -17,6 +17,7 @@ package org.gameontext.mediator;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.text.MessageFormat;
@@ -90,6 +91,16 @@ public class MapClientTest {
         assertTrue("No sites should be returned", sites.isEmpty());
     }
 
+    @Test
+    public void test500() {
+
+        new Expectations() {{
+            statusInfo.getStatusCode(); returns(500);
+        }};
+
+        assertNull("A failed request should be told apart from no sites", mapClient.querySites(target));
+    }
+
     @Test
     public void test200WithNoSites() {
         List<Site> returnedSiteList = new ArrayList<Site>();
@@ -17,6 +17,7 @@ import org.gameontext.mediator.MediatorBuilder;
 import org.gameontext.mediator.MediatorNexus;
 import org.gameontext.mediator.PlayerClient;
 import org.gameontext.mediator.WSDrain;
+import org.gameontext.mediator.events.MediatorEvents;
 import org.gameontext.mediator.MediatorNexus.ClientMediatorPod;
 import org.gameontext.mediator.MediatorNexus.UserView;
 import org.gameontext.mediator.models.Exit;
@@ -55,11 +56,24 @@ public class MediatorBuilderTest {
     @Injectable MediatorNexus nexus;
     @Injectable MapClient mapClient;
     @Injectable PlayerClient playerClient;
+    @Injectable MediatorEvents events;
 
     @Injectable ManagedThreadFactory threadFactory;
     @Injectable ManagedScheduledExecutorService scheduledExecutor;
     
-    @Injectable String systemId;
+    @Injectable String SYSTEM_ID;
+    @Injectable("thread") String drainMode;
+    @Injectable("false") String virtualThreads;
+    @Injectable("1000") String drainQueueCapacity;
+    @Injectable("dropOldestChat,coalescePings,disconnect") String drainQueuePolicy;
+    @Injectable("30") String drainQueueDisconnectSeconds;
+    @Injectable("true") String compression;
+    @Injectable("256") String compressionSampling;
+    @Injectable("10000") String jwtCacheMaxEntries;
+    @Injectable("900") String jwtCacheMaxSeconds;
+    @Injectable("${env.MEDIATOR_ASYNC_LOG_FILE}") String asyncLogFile;
+    @Injectable("1024") String asyncLogCapacity;
+    @Injectable("drop") String asyncLogWhenFull;
 
     static final String signedJwt = "testJwt";
     static final String userId = "dummy.DevUser";
@@ -111,6 +125,12 @@ public class MediatorBuilderTest {
         }};
     }
 
+    @Test
+    public void testJwtCacheConfigured() {
+        builder.postConstruct();
+        Assert.assertNotNull(builder.jwtCache);
+    }
+
     @Test
     public void testBuildClientMediator(@Mocked Session session,
             @Mocked WSDrain drain) {
@@ -28,6 +28,7 @@ import javax.json.JsonObject;
 
 import org.gameontext.mediator.MediatorNexus.ClientMediatorPod;
 import org.gameontext.mediator.MediatorNexus.UserView;
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
 import org.gameontext.mediator.events.EventSubscription;
 import org.gameontext.mediator.events.MediatorEvents;
 import org.gameontext.mediator.events.MediatorEvents.PlayerEventHandler;
@@ -83,6 +84,21 @@ public class MediatorNexusTest {
                 System.out.println("Log: " + MessageFormat.format(msg, params));
             }
 
+            @Mock
+            public void log(Level level, Object source, String msg, Object arg) {
+                System.out.println("Log: " + MessageFormat.format(msg, arg));
+            }
+
+            @Mock
+            public void log(Level level, Object source, String msg, Object arg1, Object arg2) {
+                System.out.println("Log: " + MessageFormat.format(msg, arg1, arg2));
+            }
+
+            @Mock
+            public void log(Level level, Object source, String msg, Object arg1, Object arg2, Object arg3) {
+                System.out.println("Log: " + MessageFormat.format(msg, arg1, arg2, arg3));
+            }
+
             @Mock
             public void log(Level level, Object source, String msg, Throwable thrown) {
                 System.out.println("Log: " + msg + ": " + thrown.getMessage());
@@ -905,6 +921,57 @@ public class MediatorNexusTest {
         }};
     }
 
+    @Test
+    public void testRoomCannotAddressPlayerInOtherRoom(@Mocked ClientMediator client1,
+            @Mocked ClientMediator client2,
+            @Mocked RoomMediator room1,
+            @Mocked RoomMediator room2) throws Exception {
+
+        new Expectations() {{
+            client1.getUserId(); result = "client1";
+            client2.getUserId(); result = "client2";
+
+            room1.getId(); result = roomId;
+            room1.getName(); result = roomName;
+            room1.getFullName(); result = roomFullName;
+            room1.listExits(); result = roomExits;
+            room2.getId(); result = "otherRoom";
+            room2.getName(); result = "otherRoom";
+            room2.getFullName(); result = "otherRoom";
+            room2.listExits(); result = roomExits;
+
+            builder.findMediatorForRoom((ClientMediatorPod) any, roomId); result = room1;
+            builder.findMediatorForRoom((ClientMediatorPod) any, "otherRoom"); result = room2;
+        }};
+
+        MediatorNexus nexus = new MediatorNexus();
+        nexus.events = events;
+        nexus.setBuilder(builder);
+
+        nexus.join(client1, roomId, "previous");
+        nexus.join(client2, "otherRoom", "previous");
+
+        MediatorNexus.View view = nexus.getMultiUserView(roomId);
+        view.sendToClients(new RoutedMessage("player,client2,{\"type\":\"event\"}"));
+        view.sendToClients(new RoutedMessage("playerLocation,client2,{\"type\":\"exit\"}"));
+        view.sendToClients(new RoutedMessage("player,client1,{\"type\":\"event\"}"));
+
+        List<RoutedMessage> sent1 = new ArrayList<>();
+        List<RoutedMessage> sent2 = new ArrayList<>();
+        new Verifications() {{
+            client1.sendToClient(withCapture(sent1));
+            client2.sendToClient(withCapture(sent2));
+            client2.switchRooms((RoutedMessage) any); times = 0;
+        }};
+
+        // only the join ack: nothing sent by roomId reaches client2
+        Assert.assertEquals("client2 should only see its ack: " + sent2, 1, sent2.size());
+        Assert.assertEquals(FlowTarget.ack, sent2.get(0).getFlowTarget());
+
+        Assert.assertEquals("client1 should see its ack and the event: " + sent1, 2, sent1.size());
+        Assert.assertEquals("client1", sent1.get(1).getDestination());
+    }
+
     void assertMapSize(String prefix, int size, Map<?, ?> map) {
         Assert.assertEquals(prefix + ": " + map, size, map.size());
     }
@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import javax.ws.rs.core.Response;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OperatorAuthFilterTest {
+
+    @Test
+    public void testDisabledWithoutToken() {
+        OperatorAuthFilter filter = new OperatorAuthFilter();
+        Assert.assertEquals(Response.Status.FORBIDDEN, filter.check("Bearer anything"));
+
+        // an unset environment variable
+        filter.operatorToken = "${env.MEDIATOR_OPERATOR_TOKEN}";
+        Assert.assertEquals(Response.Status.FORBIDDEN, filter.check("Bearer ${env.MEDIATOR_OPERATOR_TOKEN}"));
+
+        filter.operatorToken = " ";
+        Assert.assertEquals(Response.Status.FORBIDDEN, filter.check("Bearer  "));
+    }
+
+    @Test
+    public void testToken() {
+        OperatorAuthFilter filter = new OperatorAuthFilter();
+        filter.operatorToken = "secret";
+
+        Assert.assertEquals(Response.Status.UNAUTHORIZED, filter.check(null));
+        Assert.assertEquals(Response.Status.UNAUTHORIZED, filter.check("secret"));
+        Assert.assertEquals(Response.Status.UNAUTHORIZED, filter.check("Bearer wrong"));
+        Assert.assertEquals(Response.Status.UNAUTHORIZED, filter.check("Basic c2VjcmV0"));
+        Assert.assertNull(filter.check("Bearer secret"));
+    }
+}
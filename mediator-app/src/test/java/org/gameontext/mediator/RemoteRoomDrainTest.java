@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.net.URI;
+import java.text.MessageFormat;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.logging.Level;
+
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.ContainerProvider;
+import javax.websocket.DeploymentException;
+import javax.websocket.Endpoint;
+import javax.websocket.WebSocketContainer;
+
+import org.gameontext.mediator.models.ConnectionDetails;
+import org.gameontext.mediator.models.RoomInfo;
+import org.gameontext.mediator.models.Site;
+import org.gameontext.mediator.room.RemoteRoom;
+import org.gameontext.mediator.room.RemoteRoomProxy;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import mockit.Expectations;
+import mockit.Mock;
+import mockit.MockUp;
+import mockit.Mocked;
+import mockit.integration.junit4.JMockit;
+
+/**
+ * A room that can't be reached is retried as a sick room: the queue
+ * created for each failed attempt must not stay in the open queue registry.
+ */
+@RunWith(JMockit.class)
+public class RemoteRoomDrainTest {
+
+    @Mocked MediatorNexus.View nexus;
+    @Mocked MapClient mapClient;
+    @Mocked RemoteRoomProxy proxy;
+    @Mocked ScheduledExecutorService executor;
+    @Mocked WebSocketContainer container;
+
+    @Before
+    public void before() throws Exception {
+        new MockUp<Log>() {
+            @Mock
+            public void log(Level level, Object source, String msg, Object[] params) {
+                System.out.println("Log: " + MessageFormat.format(msg, params));
+            }
+
+            @Mock
+            public void log(Level level, Object source, String msg, Throwable thrown) {
+                System.out.println("Log: " + msg + ": " + thrown.getMessage());
+            }
+        };
+
+        new MockUp<ContainerProvider>() {
+            @Mock
+            public WebSocketContainer getWebSocketContainer() {
+                return container;
+            }
+        };
+
+        new Expectations() {{
+            container.connectToServer((Endpoint) any, (ClientEndpointConfig) any, (URI) any);
+            result = new DeploymentException("connection refused");
+        }};
+    }
+
+    @Test
+    public void testFailedConnectClosesQueue() {
+        Site site = site("testFailedConnectClosesQueue");
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                new RemoteRoom(proxy, mapClient, executor, site, () -> new WSDrain(site.getId()), nexus, null, nexus);
+                Assert.fail("Expected connect to fail");
+            } catch (Exception e) {
+                // expected: the builder falls back to a sick room, and tries again later
+            }
+        }
+
+        for (DrainQueue.Stats s : DrainQueue.deepest(1000)) {
+            Assert.assertNotEquals("Queue for the failed connection should be closed", site.getId(), s.id);
+        }
+    }
+
+    Site site(String id) {
+        ConnectionDetails details = new ConnectionDetails();
+        details.setType("websocket");
+        details.setTarget("ws://localhost/room");
+
+        RoomInfo info = new RoomInfo();
+        info.setName(id);
+        info.setConnectionDetails(details);
+
+        Site site = new Site(id);
+        site.setInfo(info);
+        return site;
+    }
+}
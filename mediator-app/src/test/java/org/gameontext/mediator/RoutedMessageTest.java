@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import javax.websocket.DecodeException;
+
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RoutedMessageTest {
+
+    @Test
+    public void testParseRouting() throws Exception {
+        String msgTxt = "player, userId ,{\"type\": \"event\", \"content\": {\"*\": \"a, b\"}}";
+        RoutedMessage message = new RoutedMessage(msgTxt);
+
+        Assert.assertEquals(FlowTarget.player, message.getFlowTarget());
+        Assert.assertTrue(message.isForUser("userId"));
+        Assert.assertFalse(message.isForUser("user"));
+        Assert.assertEquals("userId", message.getDestination());
+        Assert.assertEquals("event", message.getString("type"));
+
+        Assert.assertSame("Relayed messages should be forwarded as-is", msgTxt, message.toString());
+    }
+
+    @Test
+    public void testParseNoDestination() throws Exception {
+        RoutedMessage message = new RoutedMessage("ready,{\"username\":\"u\"}");
+        Assert.assertEquals(FlowTarget.ready, message.getFlowTarget());
+        Assert.assertEquals("", message.getDestination());
+        Assert.assertEquals("u", message.getString("username"));
+
+        message = new RoutedMessage("player,*,{}");
+        Assert.assertEquals("*", message.getDestination());
+        Assert.assertTrue(message.isForUser("anyone"));
+    }
+
+    @Test
+    public void testEncodeOnce() {
+        RoutedMessage message = RoutedMessage.createMessage(FlowTarget.player, "*", "{\"type\": \"chat\"}");
+        String frame = message.encode();
+        Assert.assertEquals("player,*,{\"type\": \"chat\"}", frame);
+        Assert.assertSame("Message should only be encoded once", frame, message.encode());
+        Assert.assertSame(frame, message.toString());
+    }
+
+    @Test(expected=DecodeException.class)
+    public void testParseNoRouting() throws Exception {
+        new RoutedMessage("{\"type\": \"event\"}");
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testParseUnknownTarget() throws Exception {
+        new RoutedMessage("bogus,*,{}");
+    }
+}
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import org.gameontext.mediator.MapClient.SiteCache;
+import org.gameontext.mediator.models.Site;
+import org.junit.Assert;
+import org.junit.Test;
+
+import mockit.Deencapsulation;
+
+public class SiteCacheMapTest {
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        SiteCacheMap cache = new SiteCacheMap(3, Long.MAX_VALUE);
+        cache.put("a", site("a"));
+        cache.put("b", site("b"));
+        cache.put("c", site("c"));
+        cache.put("d", site("d"));
+
+        Assert.assertEquals(3, cache.size());
+        Assert.assertNull("Oldest entry should be evicted", cache.get("a"));
+        Assert.assertNotNull(cache.get("d"));
+        Assert.assertEquals(1, cache.evictions.sum());
+        Assert.assertEquals(1, cache.hits.sum());
+        Assert.assertEquals(1, cache.misses.sum());
+    }
+
+    @Test
+    public void testReusedEntriesProtected() {
+        SiteCacheMap cache = new SiteCacheMap(5, Long.MAX_VALUE);
+        cache.put("home", site("home"));
+        Assert.assertNotNull(cache.get("home"));
+
+        // a scan of rooms visited once should not push out a room that was used again
+        for (int i = 0; i < 20; i++) {
+            cache.put("room" + i, site("room" + i));
+        }
+        Assert.assertEquals(5, cache.size());
+        Assert.assertNotNull(cache.get("home"));
+        Assert.assertNull(cache.peek("room0"));
+        Assert.assertNotNull(cache.peek("room19"));
+    }
+
+    @Test
+    public void testWeightBound() {
+        long w = SiteCacheMap.weigh(site("a").site);
+        SiteCacheMap cache = new SiteCacheMap(100, 2 * w);
+        cache.put("a", site("a"));
+        cache.put("b", site("b"));
+        Assert.assertEquals(2 * w, cache.weight());
+
+        cache.put("c", site("c"));
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(2 * w, cache.weight());
+
+        // replacing or removing an entry should keep the weight accurate
+        cache.put("c", site("c"));
+        cache.remove("b");
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(w, cache.weight());
+    }
+
+    SiteCache site(String id) {
+        Site site = new Site();
+        Deencapsulation.setField(site, "id", id);
+        SiteCache sc = new SiteCache();
+        sc.update(site);
+        return sc;
+    }
+}
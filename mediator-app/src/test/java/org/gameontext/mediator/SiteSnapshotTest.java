@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.List;
+
+import org.gameontext.mediator.models.ConnectionDetails;
+import org.gameontext.mediator.models.RoomInfo;
+import org.gameontext.mediator.models.Site;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import mockit.Deencapsulation;
+
+public class SiteSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("sites.jsonl");
+        SiteSnapshot snapshot = new SiteSnapshot(file);
+
+        snapshot.write(Arrays.asList(site("a", "kitchen"), site("b", "attic")));
+        Files.write(file, "not json\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        List<Site> sites = snapshot.read();
+        Assert.assertEquals("Unreadable lines should be skipped", 2, sites.size());
+        Assert.assertEquals("a", sites.get(0).getId());
+        Assert.assertEquals("kitchen", sites.get(0).getInfo().getName());
+        Assert.assertEquals("owner", sites.get(1).getOwner());
+    }
+
+    @Test
+    public void testTokenNotWritten() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("sites.jsonl");
+        SiteSnapshot snapshot = new SiteSnapshot(file);
+
+        Site site = site("a", "kitchen");
+        ConnectionDetails details = new ConnectionDetails();
+        details.setTarget("ws://room");
+        details.setToken("secret");
+        site.getInfo().setConnectionDetails(details);
+        snapshot.write(Arrays.asList(site));
+
+        String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        Assert.assertFalse(content, content.contains("secret"));
+        if ( file.getFileSystem().supportedFileAttributeViews().contains("posix") ) {
+            Assert.assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+        }
+
+        Site restored = snapshot.read().get(0);
+        Assert.assertEquals("ws://room", restored.getInfo().getConnectionDetails().getTarget());
+        Assert.assertNull(restored.getInfo().getConnectionDetails().getToken());
+    }
+
+    @Test
+    public void testMissingOrOldSnapshot() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("sites.jsonl");
+        SiteSnapshot snapshot = new SiteSnapshot(file);
+        Assert.assertTrue(snapshot.read().isEmpty());
+
+        snapshot.write(Arrays.asList(site("a", "kitchen")));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 2 * SiteSnapshot.MAX_AGE));
+        Assert.assertTrue(snapshot.read().isEmpty());
+    }
+
+    Site site(String id, String name) {
+        Site site = new Site();
+        Deencapsulation.setField(site, "id", id);
+        site.setOwner("owner");
+        RoomInfo info = new RoomInfo();
+        info.setName(name);
+        site.setInfo(info);
+        return site;
+    }
+}
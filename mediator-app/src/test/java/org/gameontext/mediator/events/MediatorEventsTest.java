@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.events;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gameontext.mediator.events.MediatorEvents.PlayerEventHandler;
+import org.gameontext.mediator.events.MediatorEvents.SiteEventHandler;
+import org.gameontext.mediator.kafka.GameOnEvent;
+import org.gameontext.mediator.models.Site;
+import org.junit.Assert;
+import org.junit.Test;
+
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.Verifications;
+
+public class MediatorEventsTest {
+    private static String USERID = "Bubbles999";
+    private static String TOPIC = "playerEvents";
+
+    @Test
+    public void testMediatorEvents(@Mocked PlayerEventHandler peh,
+                                   @Mocked PlayerEventHandler otherPeh) {
+        MediatorEvents events = new MediatorEvents();
+
+        //test a player update event drives the right callback..
+        GameOnEvent event1 = new GameOnEvent(0L, TOPIC,USERID,
+                //This json has just enough to allow the method to work, if the player event content changes
+                //this json will need updating too. (Player event content is sent by player service.)
+                "{\"type\":\"UPDATE\",\"player\":{\"name\":\"Bubbles\",\"favoriteColor\":\"blue\"}}");
+        //test a location update event drives the right callback..
+        GameOnEvent event2 = new GameOnEvent(0L, TOPIC,USERID,
+                "{\"type\":\"UPDATE_LOCATION\",\"player\":{\"location\":\"Moon\"}}");
+        //test non player events are ignored.
+        GameOnEvent event3 = new GameOnEvent(0L, "fishEvents",USERID,
+                "{\"type\":\"UPDATE_LOCATION\",\"player\":{\"location\":\"FISHEVENT\"}}");
+        //test events for a player that isn't connected are ignored (and not parsed).
+        GameOnEvent event4 = new GameOnEvent(0L, TOPIC,"NotBubbles999",
+                "not json");
+        //test events without a key are ignored
+        GameOnEvent event5 = new GameOnEvent(0L, TOPIC, null,
+                "{\"type\":\"UPDATE_LOCATION\",\"player\":{\"location\":\"NOKEY\"}}");
+
+        EventSubscription es = events.subscribeToPlayerEvents(USERID, peh);
+
+        events.processEvent(event1);
+        events.processEvent(event2);
+        events.processEvent(event3);
+        events.processEvent(event4);
+        events.processEvent(event5);
+
+        new Verifications(){{
+            peh.playerUpdated("Bubbles999", "Bubbles", "blue"); times=1;
+            peh.locationUpdated("Bubbles999", "Moon"); times=1;
+            peh.locationUpdated(anyString, anyString); times=1;
+        }};
+
+        // a new subscription for the same player replaces the old handler,
+        // and unsubscribing the old one should not remove it.
+        EventSubscription other = events.subscribeToPlayerEvents(USERID, otherPeh);
+        es.unsubscribe();
+        es.unsubscribe();
+        Assert.assertSame(otherPeh, events.playerHandlers.get(USERID));
+
+        other.unsubscribe();
+        Assert.assertTrue(events.playerHandlers.isEmpty());
+
+        events.processEvent(event2);
+        new Verifications(){{
+            otherPeh.locationUpdated(anyString, anyString); times=0;
+        }};
+    }
+
+    @Test
+    public void testBadPlayerEvents(@Mocked PlayerEventHandler peh) {
+        MediatorEvents events = new MediatorEvents();
+        events.subscribeToPlayerEvents(USERID, peh);
+
+        new Expectations() {{
+            peh.locationUpdated(USERID, "Moon"); result = new IllegalStateException("no room");
+        }};
+
+        // neither bad records nor failing handlers should escape to the poller
+        events.processEvent(new GameOnEvent(0L, TOPIC, USERID, "not json"));
+        events.processEvent(new GameOnEvent(1L, TOPIC, USERID, "{\"type\":\"UPDATE_LOCATION\"}"));
+        events.processEvent(new GameOnEvent(2L, TOPIC, USERID,
+                "{\"type\":\"UPDATE_LOCATION\",\"player\":{\"location\":\"Moon\"}}"));
+        events.processEvent(new GameOnEvent(3L, TOPIC, USERID,
+                "{\"type\":\"UPDATE\",\"player\":{\"name\":\"Bubbles\",\"favoriteColor\":\"blue\"}}"));
+
+        new Verifications(){{
+            peh.playerUpdated(USERID, "Bubbles", "blue"); times=1;
+        }};
+    }
+
+    @Test
+    public void testSiteEvents(@Mocked SiteEventHandler seh) {
+        MediatorEvents events = new MediatorEvents();
+
+        GameOnEvent create = new GameOnEvent(0L, "siteEvents", "site1",
+                "{\"type\":\"CREATE\",\"site\":{\"_id\":\"site1\",\"owner\":\"someone\",\"info\":{\"name\":\"room\"}}}");
+        GameOnEvent delete = new GameOnEvent(1L, "siteEvents", "site1",
+                "{\"type\":\"DELETE\",\"site\":{\"_id\":\"site1\"}}");
+        GameOnEvent other = new GameOnEvent(2L, "siteEvents", "site1",
+                "{\"type\":\"UPDATE_SOMETHING\",\"site\":{\"_id\":\"site1\"}}");
+
+        // no handlers: nothing to do
+        events.processEvent(create);
+
+        EventSubscription es = events.subscribeToSiteEvents(seh);
+        events.processEvent(create);
+        events.processEvent(delete);
+        events.processEvent(other);
+
+        new Verifications(){{
+            List<Site> sites = new ArrayList<>();
+            seh.siteUpdated("site1", withCapture(sites)); times=2;
+
+            // created, then deleted
+            Assert.assertEquals("someone", sites.get(0).getOwner());
+            Assert.assertEquals("room", sites.get(0).getInfo().getName());
+            Assert.assertNull(sites.get(1));
+        }};
+
+        es.unsubscribe();
+        events.processEvent(create);
+        new Verifications(){{
+            seh.siteUpdated(anyString, (Site) any); times=2;
+        }};
+    }
+}
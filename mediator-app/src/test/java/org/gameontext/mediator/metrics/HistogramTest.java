@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void testBuckets() {
+        Histogram h = new Histogram(new long[] { 1, 5, 10 }, 1);
+        h.record(0);
+        h.record(1);
+        h.record(3);
+        h.record(10);
+        h.record(11);
+
+        Assert.assertEquals(5, h.count());
+
+        StringBuilder out = new StringBuilder();
+        h.write(out, "depth", "");
+        String text = out.toString();
+
+        // buckets are cumulative, and a value on a bound is in that bucket
+        Assert.assertTrue(text, text.contains("depth_bucket{le=\"1.0\"} 2\n"));
+        Assert.assertTrue(text, text.contains("depth_bucket{le=\"5.0\"} 3\n"));
+        Assert.assertTrue(text, text.contains("depth_bucket{le=\"10.0\"} 4\n"));
+        Assert.assertTrue(text, text.contains("depth_bucket{le=\"+Inf\"} 5\n"));
+        Assert.assertTrue(text, text.contains("depth_sum 25.0\n"));
+        Assert.assertTrue(text, text.contains("depth_count 5\n"));
+    }
+
+    @Test
+    public void testDurationsInSeconds() {
+        Histogram h = Histogram.durations();
+        h.record(TimeUnit.MILLISECONDS.toNanos(3));
+
+        StringBuilder out = new StringBuilder();
+        h.write(out, "latency", "service=\"map\",");
+        String text = out.toString();
+
+        Assert.assertTrue(text, text.contains("latency_bucket{service=\"map\",le=\"0.0025\"} 0\n"));
+        Assert.assertTrue(text, text.contains("latency_bucket{service=\"map\",le=\"0.005\"} 1\n"));
+        Assert.assertTrue(text, text.contains("latency_bucket{service=\"map\",le=\"10.0\"} 1\n"));
+        Assert.assertTrue(text, text.contains("latency_count{service=\"map\"} 1\n"));
+    }
+
+    @Test
+    public void testQuantile() {
+        Histogram h = new Histogram(new long[] { 1, 5, 10 }, 1);
+        Assert.assertEquals(0, h.quantile(0.95), 0);
+
+        for (int i = 0; i < 90; i++) {
+            h.record(1);
+        }
+        for (int i = 0; i < 10; i++) {
+            h.record(8);
+        }
+        Assert.assertEquals(1, h.quantile(0.5), 0);
+        Assert.assertEquals(10, h.quantile(0.95), 0);
+        Assert.assertEquals(1.7, h.mean(), 0.001);
+
+        h.record(1000);
+        Assert.assertEquals("Above the largest bound", 10, h.quantile(1), 0);
+    }
+}
@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.metrics;
+
+import org.gameontext.mediator.RoutedMessage;
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
+import org.gameontext.mediator.metrics.MediatorMetrics.Direction;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MediatorMetricsTest {
+
+    @Test
+    public void testWrite() {
+        RoutedMessage message = RoutedMessage.createMessage(FlowTarget.player, "*", "{}");
+        long count = value("mediator_messages_total{direction=\"m_c\",target=\"player\"}");
+        long bytes = value("mediator_message_bytes_total{direction=\"m_c\",target=\"player\"}");
+
+        MediatorMetrics.message(Direction.MEDIATOR_TO_CLIENT, message);
+        MediatorMetrics.request("test", 404, System.nanoTime());
+        MediatorMetrics.request("test", 0, System.nanoTime());
+
+        Assert.assertEquals(count + 1, value("mediator_messages_total{direction=\"m_c\",target=\"player\"}"));
+        Assert.assertEquals(bytes + message.encode().length(),
+                value("mediator_message_bytes_total{direction=\"m_c\",target=\"player\"}"));
+
+        String text = write();
+        Assert.assertTrue(text, text.contains("# TYPE mediator_request_seconds histogram\n"));
+        Assert.assertTrue(text, text.contains("mediator_request_seconds_count{service=\"test\",status=\"404\"} 1\n"));
+        Assert.assertTrue(text, text.contains("mediator_request_seconds_count{service=\"test\",status=\"error\"} 1\n"));
+    }
+
+    private static String write() {
+        StringBuilder out = new StringBuilder();
+        MediatorMetrics.write(out);
+        return out.toString();
+    }
+
+    private static long value(String series) {
+        for (String line : write().split("\n")) {
+            if ( line.startsWith(series + " ") ) {
+                return Long.parseLong(line.substring(series.length() + 1));
+            }
+        }
+        throw new AssertionError("Missing " + series);
+    }
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.metrics;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.gameontext.mediator.RoutedMessage;
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RoomLatencyTest {
+
+    @After
+    public void after() {
+        RoomLatency.clear();
+    }
+
+    @Test
+    public void testResponsesPairedWithRequests() {
+        long now = System.nanoTime();
+        RoomLatency.sent("fast", "user1", now - TimeUnit.MILLISECONDS.toNanos(1));
+        RoomLatency.sent("slow", "user1", now - TimeUnit.SECONDS.toNanos(2));
+        RoomLatency.sent("slow", "user2", now - TimeUnit.SECONDS.toNanos(2));
+
+        // broadcasts and messages for other players don't complete a request
+        RoomLatency.received("slow", RoutedMessage.createMessage(FlowTarget.player, "*", "{}"));
+        RoomLatency.received("slow", RoutedMessage.createMessage(FlowTarget.player, "user3", "{}"));
+        Assert.assertTrue(RoomLatency.slowest(10).isEmpty());
+
+        RoomLatency.received("fast", RoutedMessage.createMessage(FlowTarget.player, "user1", "{}"));
+        RoomLatency.received("slow", RoutedMessage.createMessage(FlowTarget.player, "user1", "{}"));
+        RoomLatency.received("slow", RoutedMessage.createMessage(FlowTarget.player, "user2", "{}"));
+        // a second response to the same request isn't counted
+        RoomLatency.received("slow", RoutedMessage.createMessage(FlowTarget.player, "user2", "{}"));
+
+        List<RoomLatency.Stats> slowest = RoomLatency.slowest(10);
+        Assert.assertEquals(2, slowest.size());
+        Assert.assertEquals("slow", slowest.get(0).roomId);
+        Assert.assertEquals(2, slowest.get(0).count);
+        Assert.assertTrue(slowest.get(0).mean >= 2);
+        Assert.assertEquals("fast", slowest.get(1).roomId);
+        Assert.assertEquals(1, slowest.get(1).count);
+
+        Assert.assertEquals(1, RoomLatency.slowest(1).size());
+
+        StringBuilder out = new StringBuilder();
+        RoomLatency.write(out);
+        Assert.assertTrue(out.toString(), out.toString().contains("mediator_room_round_trip_seconds_count{room=\"slow\"} 2\n"));
+    }
+
+    @Test
+    public void testChatNotTimed() {
+        long now = System.nanoTime();
+        RoomLatency.sent("room", "user1", said("hello", now - TimeUnit.SECONDS.toNanos(10)));
+        RoomLatency.sent("room", "user1", said("/look", now - TimeUnit.MILLISECONDS.toNanos(1)));
+        RoomLatency.sent("room", "user1", said("anyone here?", now));
+        // not from a client
+        RoomLatency.sent("room", "user1", said("/look", 0));
+
+        // chat is echoed to everyone, the command is answered to the player
+        RoomLatency.received("room", RoutedMessage.createMessage(FlowTarget.player, "*", "{\"type\":\"chat\"}"));
+        RoomLatency.received("room", RoutedMessage.createMessage(FlowTarget.player, "user1", "{\"type\":\"event\"}"));
+        RoomLatency.received("room", RoutedMessage.createMessage(FlowTarget.player, "*", "{\"type\":\"chat\"}"));
+
+        List<RoomLatency.Stats> slowest = RoomLatency.slowest(10);
+        Assert.assertEquals(1, slowest.size());
+        Assert.assertEquals(1, slowest.get(0).count);
+        Assert.assertTrue("Command should not be paired with earlier chat: " + slowest.get(0).mean, slowest.get(0).mean < 1);
+        Assert.assertEquals("Nothing should be left waiting", 0, RoomLatency.pending("room"));
+    }
+
+    static RoutedMessage said(String content, long ingressTime) {
+        RoutedMessage message = RoutedMessage.createMessage(FlowTarget.room, "room",
+                "{\"username\":\"someone\",\"userId\":\"user1\",\"content\":\"" + content + "\"}");
+        message.setIngressTime(ingressTime);
+        return message;
+    }
+
+    @Test
+    public void testStaleRequestsDropped() {
+        long now = System.nanoTime();
+        RoomLatency.sent("room", "user1", now - RoomLatency.MAX_WAIT * 2);
+        RoomLatency.received("room", RoutedMessage.createMessage(FlowTarget.player, "user1", "{}"));
+
+        Assert.assertTrue(RoomLatency.slowest(10).isEmpty());
+    }
+
+    @Test
+    public void testStaleEntriesSwept() {
+        long now = System.nanoTime();
+        RoomLatency.sent("room", "user1", now);
+        RoomLatency.sent("room", "user2", now);
+        RoomLatency.received("room", RoutedMessage.createMessage(FlowTarget.player, "user2", "{}"));
+
+        // user1 never gets a response
+        RoomLatency.sweep(now + RoomLatency.MAX_WAIT * 2);
+        Assert.assertEquals(0, RoomLatency.pending("room"));
+        Assert.assertEquals("Room with recent traffic should be kept", 1, RoomLatency.size());
+
+        RoomLatency.sweep(now + RoomLatency.MAX_IDLE * 2);
+        Assert.assertEquals("Idle room should be dropped", 0, RoomLatency.size());
+        Assert.assertTrue(RoomLatency.slowest(10).isEmpty());
+    }
+
+    @Test
+    public void testRoomsBounded() {
+        long now = System.nanoTime();
+        for (int i = 0; i <= RoomLatency.MAX_ROOMS + 10; i++) {
+            RoomLatency.sent("room" + i, "user1", now);
+        }
+        RoomLatency.sweep(System.nanoTime());
+        Assert.assertEquals(RoomLatency.MAX_ROOMS, RoomLatency.size());
+        Assert.assertEquals("Most recently used room should be kept", 1, RoomLatency.pending("room" + (RoomLatency.MAX_ROOMS + 10)));
+    }
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.room;
+
+import org.gameontext.mediator.Drain;
+import org.gameontext.mediator.MediatorNexus;
+import org.gameontext.mediator.models.ConnectionDetails;
+import org.gameontext.mediator.models.RoomInfo;
+import org.gameontext.mediator.models.Site;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import mockit.Expectations;
+import mockit.Mock;
+import mockit.MockUp;
+import mockit.Mocked;
+import mockit.Verifications;
+import mockit.integration.junit4.JMockit;
+
+@RunWith(JMockit.class)
+public class SharedRoomConnectionsTest {
+
+    @Mocked Drain drain;
+    @Mocked MediatorNexus.View roomView;
+    @Mocked RemoteRoomProxy proxy1;
+    @Mocked RemoteRoomProxy proxy2;
+    @Mocked Site site;
+    @Mocked RoomInfo info;
+    @Mocked ConnectionDetails details;
+
+    int connectCount = 0;
+    boolean connectFails = false;
+
+    SharedRoomConnections shared;
+
+    @Before
+    public void before() {
+        new MockUp<WebSocketClientConnection>() {
+            @Mock
+            public void connect() throws Exception {
+                connectCount++;
+                if ( connectFails )
+                    throw new Exception("connection refused");
+            }
+        };
+
+        new Expectations() {{
+            site.getId(); result = "roomId"; minTimes = 0;
+            site.getInfo(); result = info; minTimes = 0;
+            info.getConnectionDetails(); result = details; minTimes = 0;
+            details.getTarget(); result = "ws://localhost/room"; minTimes = 0;
+        }};
+
+        shared = new SharedRoomConnections();
+    }
+
+    @Test
+    public void testReferenceCounting() throws Exception {
+        RemoteRoom.Connection c1 = shared.newHandle(proxy1, site, () -> drain, roomView);
+        RemoteRoom.Connection c2 = shared.newHandle(proxy2, site, () -> drain, roomView);
+
+        c1.connect();
+        c2.connect();
+        Assert.assertEquals("Room should only be connected once", 1, connectCount);
+        Assert.assertEquals(1, shared.size());
+
+        c1.disconnect();
+        c1.disconnect(); // second disconnect should not release c2's reference
+        Assert.assertEquals("Connection should stay open while a player remains", 1, shared.size());
+        new Verifications() {{
+            drain.stop(); times = 0;
+        }};
+
+        c2.disconnect();
+        Assert.assertEquals(0, shared.size());
+        new Verifications() {{
+            drain.stop(); times = 1;
+        }};
+
+        // next player opens a new connection
+        RemoteRoom.Connection c3 = shared.newHandle(proxy1, site, () -> drain, roomView);
+        c3.connect();
+        Assert.assertEquals(2, connectCount);
+    }
+
+    @Test
+    public void testConnectFailure() throws Exception {
+        connectFails = true;
+        RemoteRoom.Connection c1 = shared.newHandle(proxy1, site, () -> drain, roomView);
+        try {
+            c1.connect();
+            Assert.fail("Expected connect to fail");
+        } catch (Exception e) {
+            // expected
+        }
+        Assert.assertEquals("Failed connection should not be kept", 0, shared.size());
+        new Verifications() {{
+            drain.stop(); times = 1;
+        }};
+    }
+
+    @Test
+    public void testConnectionLost() throws Exception {
+        RemoteRoom.Connection c1 = shared.newHandle(proxy1, site, () -> drain, roomView);
+        RemoteRoom.Connection c2 = shared.newHandle(proxy2, site, () -> drain, roomView);
+        c1.connect();
+        c2.connect();
+
+        shared.connections.values().iterator().next().connectionLost();
+        Assert.assertEquals(0, shared.size());
+
+        new Verifications() {{
+            proxy1.reconnect(); times = 1;
+            proxy2.reconnect(); times = 1;
+        }};
+    }
+}
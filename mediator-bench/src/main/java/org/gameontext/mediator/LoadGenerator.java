@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gameontext.mediator.events.MediatorEvents;
+import org.gameontext.mediator.load.LoadExecutor;
+import org.gameontext.mediator.load.LoadRooms;
+import org.gameontext.mediator.load.LoadServices;
+import org.gameontext.mediator.load.LoadStats;
+import org.gameontext.mediator.load.SimulatedPlayer;
+
+/**
+ * Runs the mediator in a single JVM with simulated players, rooms, and map
+ * and player services, and reports round-trip latency and the resources
+ * used as players are added.
+ * <p>
+ * The mediator is wired by hand (as CDI would do in the server), with real
+ * map and player clients (over HTTP to {@link LoadServices}) and real room
+ * connections (websockets to {@link LoadRooms}). Simulated players stand in
+ * for the client websocket: each is the drain of its {@link ClientMediator},
+ * and measures the time from a command to the first message back.
+ * </p>
+ * <pre>
+ * gradle :mediator-bench:loadtest -PloadArgs="players=5000 rooms=200 duration=120"
+ * </pre>
+ * Arguments (all optional):
+ * <ul>
+ * <li>{@code players}: number of players, default 1000</li>
+ * <li>{@code rooms}: number of rooms in the map, default 100</li>
+ * <li>{@code duration}: seconds to run after all players are connected, default 60</li>
+ * <li>{@code ramp}: seconds over which players connect, default 30</li>
+ * <li>{@code think}: mean milliseconds between a response and the next command, default 1000</li>
+ * <li>{@code serviceLatency}: milliseconds added to map and player requests, default 5</li>
+ * <li>{@code roomLatency}: milliseconds added to room responses, default 5</li>
+ * <li>{@code drainMode}: {@code thread}, {@code dispatched} or {@code async}, default thread</li>
+ * <li>{@code timeout}: seconds to wait for a response, default 10</li>
+ * <li>{@code report}: seconds between reports, default 5</li>
+ * <li>{@code port}: port for the rooms' websocket server, default 9099</li>
+ * </ul>
+ */
+public class LoadGenerator {
+
+    static final String SYSTEM_ID = "load.system";
+
+    final Map<String, String> args;
+
+    LoadGenerator(Map<String, String> args) {
+        this.args = args;
+    }
+
+    public static void main(String[] argv) throws Exception {
+        Map<String, String> args = new HashMap<>();
+        for (String arg : argv) {
+            int i = arg.indexOf('=');
+            if ( i <= 0 ) {
+                System.err.println("Arguments are name=value, found: " + arg);
+                System.exit(1);
+            }
+            args.put(arg.substring(0, i), arg.substring(i + 1));
+        }
+        new LoadGenerator(args).run();
+        System.exit(0);
+    }
+
+    int intArg(String name, int defaultValue) {
+        String value = args.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    void run() throws Exception {
+        int players = intArg("players", 1000);
+        int rooms = intArg("rooms", 100);
+        int duration = intArg("duration", 60);
+        int ramp = intArg("ramp", 30);
+        int think = intArg("think", 1000);
+        int timeout = intArg("timeout", 10);
+        int report = intArg("report", 5);
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        LoadRooms roomServer = new LoadRooms(intArg("port", 9099), intArg("roomLatency", 5));
+        roomServer.start();
+        LoadServices services = new LoadServices(rooms, roomServer.roomUrl(), intArg("serviceLatency", 5), cores * 4);
+        services.start();
+
+        LoadExecutor executor = new LoadExecutor(cores, threads("mediator-"));
+        ScheduledExecutorService playerExecutor = Executors.newScheduledThreadPool(cores, threads("player-"));
+
+        MediatorBuilder builder = mediator(services, executor, args.getOrDefault("drainMode", MediatorBuilder.DRAIN_MODE_THREAD));
+
+        LoadStats stats = new LoadStats();
+        List<SimulatedPlayer> simulated = new ArrayList<>(players);
+
+        System.out.printf("%d players, %d rooms, %d cores, drain mode %s%n", players, rooms, cores, builder.drainMode);
+        System.out.println(LoadStats.header());
+
+        long timeoutNanos = TimeUnit.SECONDS.toNanos(timeout);
+        playerExecutor.scheduleWithFixedDelay(() -> {
+            long now = System.nanoTime();
+            synchronized (simulated) {
+                simulated.forEach(p -> p.checkTimeout(now, timeoutNanos));
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+        playerExecutor.scheduleAtFixedRate(() -> System.out.println(stats.report()), report, report, TimeUnit.SECONDS);
+
+        // Connect players evenly over the ramp
+        long interval = players == 0 ? 0 : TimeUnit.SECONDS.toNanos(ramp) / players;
+        long start = System.nanoTime();
+        for (int i = 0; i < players; i++) {
+            long wait = start + i * interval - System.nanoTime();
+            if ( wait > 0 ) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            String userId = "load.player-" + i;
+            SimulatedPlayer player = new SimulatedPlayer(userId, stats, playerExecutor, think, rooms);
+            synchronized (simulated) {
+                simulated.add(player);
+            }
+            player.ready(new ClientMediator(builder.nexus, player, userId, "load.jwt"));
+        }
+
+        TimeUnit.SECONDS.sleep(duration);
+
+        System.out.println(stats.summary());
+        System.out.printf("peak threads %d%n", ManagementFactory.getThreadMXBean().getPeakThreadCount());
+
+        synchronized (simulated) {
+            simulated.forEach(SimulatedPlayer::disconnect);
+        }
+        playerExecutor.shutdownNow();
+        builder.preDestroy();
+        builder.mapClient.destroyClient();
+        executor.shutdownNow();
+        services.stop();
+        roomServer.stop();
+    }
+
+    /**
+     * Wire the mediator, as CDI does in the server.
+     */
+    static MediatorBuilder mediator(LoadServices services, LoadExecutor executor, String drainMode) {
+        MapClient mapClient = new MapClient();
+        mapClient.mapLocation = services.mapUrl();
+        mapClient.querySecret = "load.secret";
+        mapClient.SYSTEM_ID = SYSTEM_ID;
+        mapClient.executor = executor;
+        mapClient.initClient();
+
+        PlayerClient playerClient = new PlayerClient();
+        playerClient.playerLocation = services.playerUrl();
+        playerClient.executor = executor;
+        playerClient.initClient();
+
+        MediatorEvents events = new MediatorEvents();
+
+        MediatorNexus nexus = new MediatorNexus();
+        nexus.playerClient = playerClient;
+        nexus.events = events;
+
+        MediatorBuilder builder = new MediatorBuilder();
+        builder.mapClient = mapClient;
+        builder.playerClient = playerClient;
+        builder.nexus = nexus;
+        builder.events = events;
+        builder.threadFactory = threads("drain-")::newThread;
+        builder.scheduledExecutor = executor;
+        builder.SYSTEM_ID = SYSTEM_ID;
+        builder.drainMode = drainMode;
+        builder.postConstruct();
+        return builder;
+    }
+
+    static ThreadFactory threads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.bench;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.websocket.CloseReason;
+import javax.websocket.Session;
+
+import org.gameontext.mediator.ClientMediator;
+import org.gameontext.mediator.Drain;
+import org.gameontext.mediator.MediatorBuilder;
+import org.gameontext.mediator.MediatorNexus;
+import org.gameontext.mediator.MediatorNexus.ClientMediatorPod;
+import org.gameontext.mediator.RoutedMessage;
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
+import org.gameontext.mediator.events.MediatorEvents;
+import org.gameontext.mediator.models.Exits;
+import org.gameontext.mediator.models.RoomInfo;
+import org.gameontext.mediator.models.Site;
+import org.gameontext.mediator.room.EmptyRoom;
+import org.gameontext.mediator.room.RoomMediator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fan-out of a room's messages to the players in it, through
+ * {@link MediatorNexus#getMultiUserView(String)}. Players' drains only
+ * count messages, so this measures routing, not sending.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+
+    static final String ROOM_ID = "room1";
+
+    static final String CHAT = "{\"type\":\"chat\",\"username\":\"someone\",\"content\":\"hello!\",\"bookmark\":\"go-1\"}";
+
+    @Param({ "1", "10", "100", "1000" })
+    int pods;
+
+    MediatorNexus nexus;
+    MediatorNexus.View view;
+    final LongAdder sent = new LongAdder();
+
+    @Setup
+    public void setup() throws Exception {
+        nexus = new MediatorNexus();
+
+        // normally injected
+        Field events = MediatorNexus.class.getDeclaredField("events");
+        events.setAccessible(true);
+        events.set(nexus, new MediatorEvents());
+
+        Site site = new Site(ROOM_ID);
+        site.setInfo(new RoomInfo());
+        site.setExits(new Exits());
+        RoomMediator room = new EmptyRoom(null, site, null, nexus.getMultiUserView(ROOM_ID));
+
+        nexus.setBuilder(new MediatorBuilder() {
+            @Override
+            public RoomMediator findMediatorForRoom(ClientMediatorPod pod, String roomId) {
+                return room;
+            }
+        });
+
+        for (int i = 0; i < pods; i++) {
+            ClientMediator client = new ClientMediator(nexus, new CountingDrain(sent), "dummy.user" + i, "jwt");
+            // a non-empty bookmark: join, rather than hello
+            nexus.join(client, ROOM_ID, "1");
+        }
+
+        view = nexus.getMultiUserView(ROOM_ID);
+    }
+
+    /** A chat message, sent to every player in the room */
+    @Benchmark
+    public void broadcast() {
+        view.sendToClients(RoutedMessage.createMessage(FlowTarget.player, "*", CHAT));
+    }
+
+    /** A response to one player */
+    @Benchmark
+    public void direct() {
+        view.sendToClients(RoutedMessage.createMessage(FlowTarget.player, "dummy.user0", CHAT));
+    }
+
+    static class CountingDrain implements Drain {
+        final LongAdder sent;
+
+        CountingDrain(LongAdder sent) {
+            this.sent = sent;
+        }
+
+        @Override
+        public void send(RoutedMessage message) {
+            sent.increment();
+        }
+
+        @Override
+        public void close(CloseReason reason) {
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void start(Session session) {
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+import org.gameontext.mediator.Log;
+import org.gameontext.mediator.RoutedMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of the trace on the relay path: what a message pays for logging
+ * as it goes from client to room, with relay tracing on and off.
+ * <p>
+ * When tracing is on, log records are formatted (as they would be by the
+ * server's log handler) and then discarded, so the numbers don't include
+ * any file I/O.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogBenchmark {
+
+    @Param({ "off", "on" })
+    String tracing;
+
+    RoutedMessage message;
+    Object source = new Object();
+
+    /** Strong reference, so the level set on the logger is kept */
+    Logger mediator;
+
+    @Setup
+    public void setup() throws Exception {
+        message = new RoutedMessage("room,room1,{\"type\":\"chat\",\"username\":\"someone\",\"content\":\"hello!\"}");
+
+        mediator = Logger.getLogger("org.gameontext.mediator");
+        mediator.setUseParentHandlers(false);
+        for (Handler h : mediator.getHandlers()) {
+            mediator.removeHandler(h);
+        }
+        mediator.addHandler(new DiscardingHandler());
+        mediator.setLevel("on".equals(tracing) ? Level.ALL : Level.INFO);
+    }
+
+    /**
+     * The trace points a message from a client passes on its way to a room:
+     * endpoint, client mediator, and outbound drain.
+     */
+    @Benchmark
+    public void relayPath(Blackhole bh) {
+        Log.relay(source, "C -> M    R : {0}", message);
+        Log.relay(source, "handleMessage -- {0}", message);
+        if ( Log.isRelayLoggable() ) {
+            Log.relay(source, "C    M -> R : {0} {1}", message, "session1");
+        }
+        bh.consume(message);
+    }
+
+    /** A trace point with several arguments */
+    @Benchmark
+    public void arguments(Blackhole bh) {
+        Log.log(Level.FINER, source, "{0}: request join to {1} with lastmessage {2}", "pod", "room1", message);
+        bh.consume(message);
+    }
+
+    /** A trace point that builds its message only if it is logged */
+    @Benchmark
+    public void supplier(Blackhole bh) {
+        Log.log(Level.FINER, source, () -> "Exception parsing String: " + message);
+        bh.consume(message);
+    }
+
+    /** Formats the record, as a real handler would, and drops it */
+    static class DiscardingHandler extends Handler {
+        final SimpleFormatter formatter = new SimpleFormatter();
+        volatile int length;
+
+        @Override
+        public void publish(LogRecord record) {
+            length = formatter.formatMessage(record).length();
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+
+import org.gameontext.mediator.RoutedMessage;
+import org.gameontext.mediator.models.Exits;
+import org.gameontext.mediator.models.RoomInfo;
+import org.gameontext.mediator.models.Site;
+import org.gameontext.mediator.room.EmptyRoom;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Commands handled by the mediator's own rooms
+ * ({@code AbstractRoomMediator.parseMessage}): building the response to a
+ * chat message, and to {@code /look}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoomParseBenchmark {
+
+    BenchRoom room;
+    JsonObject chat;
+    JsonObject look;
+
+    @Setup
+    public void setup() throws Exception {
+        Site site = new Site("room1");
+        site.setInfo(new RoomInfo());
+        site.setExits(new Exits());
+        room = new BenchRoom(site);
+
+        chat = new RoutedMessage("room,room1,{\"username\":\"someone\",\"userId\":\"dummy.someone\",\"content\":\"hello!\"}").getParsedBody();
+        look = new RoutedMessage("room,room1,{\"username\":\"someone\",\"userId\":\"dummy.someone\",\"content\":\"/look\"}").getParsedBody();
+    }
+
+    @Benchmark
+    public JsonObject chat() {
+        return room.parse(chat);
+    }
+
+    @Benchmark
+    public JsonObject look() {
+        return room.parse(look);
+    }
+
+    /** Exposes parseMessage */
+    static class BenchRoom extends EmptyRoom {
+        BenchRoom(Site site) {
+            super(null, site, null, null);
+        }
+
+        JsonObject parse(JsonObject message) {
+            JsonObjectBuilder builder = Json.createObjectBuilder();
+            parseMessage("dummy.someone", message, builder);
+            return builder.build();
+        }
+    }
+}
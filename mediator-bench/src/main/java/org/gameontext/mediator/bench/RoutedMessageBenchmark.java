@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.json.JsonObject;
+import javax.websocket.DecodeException;
+import javax.websocket.EncodeException;
+
+import org.gameontext.mediator.RoutedMessage;
+import org.gameontext.mediator.RoutedMessage.FlowTarget;
+import org.gameontext.mediator.RoutedMessageDecoder;
+import org.gameontext.mediator.RoutedMessageEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing and encoding of {@link RoutedMessage}s, directly and through the
+ * websocket encoder / decoder.
+ * <p>
+ * Messages cache what they parse and encode, so each benchmark starts from
+ * a new message: the ones that read a parsed message include the cost of
+ * {@link #parse()}, which is the baseline to subtract.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutedMessageBenchmark {
+
+    /** A command from a client */
+    static final String COMMAND = "room,room1,{\"username\":\"someone\",\"userId\":\"dummy.someone\",\"content\":\"/look\"}";
+
+    /** A location response from a room */
+    static final String LOCATION = "player,dummy.someone,{\"type\":\"location\",\"name\":\"room1\",\"fullName\":\"A room\","
+            + "\"description\":\"A room with a view, and a fairly long description of that view.\","
+            + "\"exits\":{\"N\":\"A door\",\"S\":\"Another door\"},\"commands\":{},\"roomInventory\":[],\"bookmark\":\"1234\"}";
+
+    JsonObject body;
+
+    final RoutedMessageEncoder encoder = new RoutedMessageEncoder();
+    final RoutedMessageDecoder decoder = new RoutedMessageDecoder();
+
+    @Setup
+    public void setup() throws Exception {
+        body = new RoutedMessage(LOCATION).getParsedBody();
+    }
+
+    @Benchmark
+    public RoutedMessage parse() throws DecodeException {
+        return new RoutedMessage(COMMAND);
+    }
+
+    @Benchmark
+    public String parseDestination() throws DecodeException {
+        return new RoutedMessage(LOCATION).getDestination();
+    }
+
+    @Benchmark
+    public JsonObject parsedBody() throws DecodeException {
+        return new RoutedMessage(COMMAND).getParsedBody();
+    }
+
+    @Benchmark
+    public String getString() throws DecodeException {
+        return new RoutedMessage(COMMAND).getString("userId");
+    }
+
+    /** A passed-through message is written as it was received */
+    @Benchmark
+    public String toStringParsed() throws DecodeException {
+        return new RoutedMessage(LOCATION).toString();
+    }
+
+    /** A message built by the mediator is serialized once */
+    @Benchmark
+    public String toStringBuilt() {
+        return RoutedMessage.createMessage(FlowTarget.player, "dummy.someone", body).toString();
+    }
+
+    @Benchmark
+    public RoutedMessage decode() throws DecodeException {
+        return decoder.decode(LOCATION);
+    }
+
+    @Benchmark
+    public String encode() throws EncodeException {
+        return encoder.encode(RoutedMessage.createMessage(FlowTarget.player, "dummy.someone", body));
+    }
+}
@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.load;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.websocket.DecodeException;
+import javax.websocket.DeploymentException;
+import javax.websocket.OnMessage;
+import javax.websocket.OnOpen;
+import javax.websocket.Session;
+import javax.websocket.server.PathParam;
+import javax.websocket.server.ServerEndpoint;
+
+import org.gameontext.mediator.Log;
+import org.gameontext.mediator.RoutedMessage;
+import org.glassfish.tyrus.server.Server;
+
+/**
+ * Websocket server for all rooms of the {@link LoadServices} map: a room
+ * is {@code ws://localhost:<port>/load/rooms/<roomId>}.
+ * <p>
+ * Rooms speak the room protocol: they send an ack with the protocol
+ * versions they support, answer roomHello / roomJoin with the room's
+ * location, echo chat, and answer {@code /go} with an exit.
+ * </p>
+ */
+public class LoadRooms {
+
+    static final String CONTEXT = "/load";
+
+    final int port;
+    final Server server;
+
+    /** Delays responses, so rooms can be made slow without blocking the server */
+    static ScheduledExecutorService responder;
+    static long latencyMillis;
+
+    static final AtomicLong bookmark = new AtomicLong();
+
+    /**
+     * @param port
+     *            Port for the websocket server
+     * @param latencyMillis
+     *            Added to every response, to simulate a remote room
+     */
+    public LoadRooms(int port, long latencyMillis) {
+        this.port = port;
+        LoadRooms.latencyMillis = latencyMillis;
+        this.server = new Server("localhost", port, CONTEXT, null, Room.class);
+    }
+
+    public void start() throws DeploymentException {
+        responder = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors());
+        server.start();
+    }
+
+    public void stop() {
+        server.stop();
+        responder.shutdownNow();
+    }
+
+    /** @return URL of the rooms, the room id is appended */
+    public String roomUrl() {
+        return "ws://localhost:" + port + CONTEXT + "/rooms/";
+    }
+
+    /** One connection from the mediator to a room */
+    @ServerEndpoint("/rooms/{roomId}")
+    public static class Room {
+
+        @OnOpen
+        public void onOpen(Session session) {
+            send(session, "ack,{\"version\":[1,2]}");
+        }
+
+        @OnMessage
+        public void onMessage(@PathParam("roomId") String roomId, String text, Session session) {
+            try {
+                RoutedMessage message = new RoutedMessage(text);
+                switch (message.getFlowTarget()) {
+                    case roomHello:
+                    case roomJoin:
+                        respond(session, "player," + message.getString("userId") + "," + location(roomId));
+                        break;
+                    case room:
+                        command(roomId, message, session);
+                        break;
+                    default:
+                        // roomGoodbye, roomPart: nothing to say
+                        break;
+                }
+            } catch (DecodeException e) {
+                Log.log(Level.WARNING, this, "Unable to parse {0}", text);
+            }
+        }
+
+        void command(String roomId, RoutedMessage message, Session session) {
+            String userId = message.getString("userId");
+            String content = message.getString("content", "").trim();
+            JsonObjectBuilder response = Json.createObjectBuilder();
+
+            if ( content.startsWith("/go ") ) {
+                String direction = content.substring(4).trim().toUpperCase();
+                response.add("type", "exit")
+                        .add("exitId", direction)
+                        .add("content", "You head " + direction)
+                        .add("bookmark", bookmark.incrementAndGet());
+                respond(session, "playerLocation," + userId + "," + response.build());
+            } else if ( content.equals("/look") ) {
+                respond(session, "player," + userId + "," + location(roomId));
+            } else if ( content.startsWith("/") ) {
+                response.add("type", "event")
+                        .add("content", Json.createObjectBuilder().add(userId, "This room doesn't know how to " + content))
+                        .add("bookmark", bookmark.incrementAndGet());
+                respond(session, "player," + userId + "," + response.build());
+            } else {
+                response.add("type", "chat")
+                        .add("username", message.getString("username", userId))
+                        .add("content", content)
+                        .add("bookmark", bookmark.incrementAndGet());
+                respond(session, "player,*," + response.build());
+            }
+        }
+
+        static JsonObject location(String roomId) {
+            return Json.createObjectBuilder()
+                    .add("type", "location")
+                    .add("name", roomId)
+                    .add("fullName", "Load room " + roomId)
+                    .add("description", "A room for load testing.")
+                    .add("bookmark", bookmark.incrementAndGet())
+                    .build();
+        }
+
+        static void respond(Session session, String text) {
+            if ( latencyMillis > 0 ) {
+                responder.schedule(() -> send(session, text), latencyMillis, TimeUnit.MILLISECONDS);
+            } else {
+                send(session, text);
+            }
+        }
+
+        static void send(Session session, String text) {
+            // responses may be sent from the responder and the server's threads
+            synchronized (session) {
+                try {
+                    if ( session.isOpen() ) {
+                        session.getBasicRemote().sendText(text);
+                    }
+                } catch (IOException e) {
+                    Log.log(Level.FINE, session, "Unable to send to mediator", e);
+                }
+            }
+        }
+    }
+}
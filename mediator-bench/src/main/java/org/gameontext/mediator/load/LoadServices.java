@@ -0,0 +1,260 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.load;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Stand-ins for the map and player services, on one local HTTP server.
+ * <p>
+ * The map is a grid of rooms, {@code room-0} to {@code room-(N-1)}, each
+ * with exits N, S, E and W to its neighbours (wrapping around at the
+ * edges), served by a {@link LoadRooms} websocket server. The player service
+ * accepts every location change.
+ * </p>
+ */
+public class LoadServices {
+
+    static final String OWNER = "load.owner";
+
+    final int rooms;
+    final int width;
+    final String roomUrl;
+    final long latencyMillis;
+
+    final HttpServer server;
+    final ExecutorService executor;
+
+    /**
+     * @param rooms
+     *            Number of rooms in the map
+     * @param roomUrl
+     *            Websocket URL of the rooms, the room id is appended
+     * @param latencyMillis
+     *            Added to every response, to simulate a remote service
+     * @param threads
+     *            Number of threads handling requests
+     * @throws IOException
+     */
+    public LoadServices(int rooms, String roomUrl, long latencyMillis, int threads) throws IOException {
+        this.rooms = rooms;
+        this.width = Math.max(1, (int) Math.ceil(Math.sqrt(rooms)));
+        this.roomUrl = roomUrl;
+        this.latencyMillis = latencyMillis;
+
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        server.createContext("/map/v1/sites", this::map);
+        server.createContext("/players/v1/accounts", this::player);
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String mapUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/map/v1/sites";
+    }
+
+    public String playerUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/players/v1/accounts";
+    }
+
+    /** @return id of the i-th room */
+    public static String roomId(int i) {
+        return "room-" + i;
+    }
+
+    /** @return index of a room, or -1 if the id is not one of ours */
+    int roomIndex(String id) {
+        if ( id == null || !id.startsWith("room-") ) {
+            return -1;
+        }
+        try {
+            int i = Integer.parseInt(id.substring("room-".length()));
+            return i >= 0 && i < rooms ? i : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * GET /map/v1/sites/{id}, or GET /map/v1/sites?owner=..&amp;name=..
+     */
+    void map(HttpExchange exchange) throws IOException {
+        simulateLatency();
+        String path = exchange.getRequestURI().getPath();
+        String id = path.length() > "/map/v1/sites/".length() ? path.substring("/map/v1/sites/".length()) : null;
+
+        if ( id != null ) {
+            int i = roomIndex(id);
+            if ( i < 0 ) {
+                respond(exchange, 404, null);
+            } else {
+                respond(exchange, 200, site(i).build().toString());
+            }
+            return;
+        }
+
+        String owner = queryParam(exchange.getRequestURI(), "owner");
+        String name = queryParam(exchange.getRequestURI(), "name");
+        JsonArrayBuilder list = Json.createArrayBuilder();
+        if ( name != null ) {
+            int i = roomIndex(name);
+            if ( i >= 0 && (owner == null || OWNER.equals(owner)) ) {
+                list.add(site(i));
+            }
+        } else if ( OWNER.equals(owner) ) {
+            for (int i = 0; i < Math.min(rooms, 20); i++) {
+                list.add(site(i));
+            }
+        }
+        respond(exchange, 200, list.build().toString());
+    }
+
+    /**
+     * PUT /players/v1/accounts/{id}/location, or GET /players/v1/accounts/{id}
+     */
+    void player(HttpExchange exchange) throws IOException {
+        simulateLatency();
+        if ( "PUT".equals(exchange.getRequestMethod()) ) {
+            JsonObject body;
+            try (JsonReader reader = Json.createReader(exchange.getRequestBody())) {
+                body = reader.readObject();
+            }
+            respond(exchange, 200, Json.createObjectBuilder()
+                    .add("location", body.getString("newLocation"))
+                    .build().toString());
+        } else {
+            respond(exchange, 200, Json.createObjectBuilder()
+                    .add("credentials", Json.createObjectBuilder().add("sharedSecret", "load-secret"))
+                    .build().toString());
+        }
+    }
+
+    JsonObjectBuilder site(int i) {
+        int x = i % width;
+        int y = i / width;
+        int rows = (rooms + width - 1) / width;
+
+        JsonObjectBuilder exits = Json.createObjectBuilder()
+                .add("n", exit(neighbour(x, y - 1, rows), "N"))
+                .add("s", exit(neighbour(x, y + 1, rows), "S"))
+                .add("e", exit(neighbour(x + 1, y, rows), "E"))
+                .add("w", exit(neighbour(x - 1, y, rows), "W"));
+
+        return Json.createObjectBuilder()
+                .add("_id", roomId(i))
+                .add("owner", OWNER)
+                .add("info", info(i)
+                        .add("description", "Room " + i + " of " + rooms + ", for load testing.")
+                        .add("doors", Json.createObjectBuilder()
+                                .add("n", "A door to the north")
+                                .add("s", "A door to the south")
+                                .add("e", "A door to the east")
+                                .add("w", "A door to the west")))
+                .add("exits", exits);
+    }
+
+    JsonObjectBuilder info(int i) {
+        return Json.createObjectBuilder()
+                .add("name", roomId(i))
+                .add("fullName", "Load room " + i)
+                .add("connectionDetails", Json.createObjectBuilder()
+                        .add("type", "websocket")
+                        .add("target", roomUrl + roomId(i)));
+    }
+
+    JsonObjectBuilder exit(int i, String direction) {
+        return Json.createObjectBuilder()
+                .add("_id", roomId(i))
+                .add("name", roomId(i))
+                .add("fullName", "Load room " + i)
+                .add("door", "A door to the " + direction)
+                .add("connectionDetails", Json.createObjectBuilder()
+                        .add("type", "websocket")
+                        .add("target", roomUrl + roomId(i)));
+    }
+
+    /** @return index of the room at (x, y), wrapping around at the edges */
+    int neighbour(int x, int y, int rows) {
+        int nx = Math.floorMod(x, width);
+        int ny = Math.floorMod(y, rows);
+        int i = ny * width + nx;
+        // the last row may be short
+        return i < rooms ? i : nx % rooms;
+    }
+
+    void simulateLatency() {
+        if ( latencyMillis > 0 ) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    static String queryParam(URI uri, String name) {
+        String query = uri.getQuery();
+        if ( query == null ) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if ( eq > 0 && pair.substring(0, eq).equals(name) ) {
+                return pair.substring(eq + 1);
+            }
+        }
+        return null;
+    }
+
+    static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        if ( body == null ) {
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+        exchange.close();
+    }
+}
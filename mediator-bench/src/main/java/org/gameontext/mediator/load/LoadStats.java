@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.load;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.gameontext.mediator.metrics.Histogram;
+
+/**
+ * Results of a load test: round trips from simulated players, and the
+ * state of the JVM.
+ */
+public class LoadStats {
+
+    /** Latency bounds 10% apart, from 10us to 60s: quantiles are within 10% */
+    static final long[] LATENCY_BOUNDS = latencyBounds();
+
+    static final double NANOS_TO_MILLIS = 1e-6;
+
+    final long start = System.nanoTime();
+
+    final LongAdder commands = new LongAdder();
+    final LongAdder received = new LongAdder();
+    final LongAdder timeouts = new LongAdder();
+    final LongAdder connected = new LongAdder();
+
+    final Histogram total = newHistogram();
+    final AtomicReference<Histogram> interval = new AtomicReference<>(newHistogram());
+
+    private long lastReport = start;
+    private long lastCount = 0;
+
+    void roundTrip(long nanos) {
+        total.record(nanos);
+        interval.get().record(nanos);
+    }
+
+    /**
+     * @return a line with results since the last report
+     */
+    public synchronized String report() {
+        long now = System.nanoTime();
+        Histogram h = interval.getAndSet(newHistogram());
+        long count = total.count();
+        double seconds = (now - lastReport) / 1e9;
+        String line = line(TimeUnit.NANOSECONDS.toSeconds(now - start) + "s", (count - lastCount) / seconds, h);
+        lastReport = now;
+        lastCount = count;
+        return line;
+    }
+
+    /**
+     * @return results for the whole test
+     */
+    public String summary() {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return line("total", total.count() / seconds, total);
+    }
+
+    public static String header() {
+        return String.format("%8s %10s %9s %9s %9s %9s %10s %9s %8s %8s %10s",
+                "time", "players", "cmds", "rt/s", "p50 ms", "p99 ms", "p999 ms",
+                "timeouts", "threads", "heap MB", "msgs in");
+    }
+
+    private String line(String label, double rate, Histogram h) {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        return String.format("%8s %10d %9d %9.0f %9.2f %9.2f %10.2f %9d %8d %8d %10d",
+                label,
+                connected.sum(),
+                commands.sum(),
+                rate,
+                h.quantile(0.5) * NANOS_TO_MILLIS,
+                h.quantile(0.99) * NANOS_TO_MILLIS,
+                h.quantile(0.999) * NANOS_TO_MILLIS,
+                timeouts.sum(),
+                ManagementFactory.getThreadMXBean().getThreadCount(),
+                heap.getUsed() / (1024 * 1024),
+                received.sum());
+    }
+
+    static Histogram newHistogram() {
+        return new Histogram(LATENCY_BOUNDS, 1);
+    }
+
+    private static long[] latencyBounds() {
+        long max = TimeUnit.SECONDS.toNanos(60);
+        int n = 0;
+        long[] bounds = new long[256];
+        for (double b = TimeUnit.MICROSECONDS.toNanos(10); b < max && n < bounds.length; b *= 1.1) {
+            long bound = (long) b;
+            if ( n == 0 || bound > bounds[n - 1] ) {
+                bounds[n++] = bound;
+            }
+        }
+        long[] result = new long[n];
+        System.arraycopy(bounds, 0, result, 0, n);
+        return result;
+    }
+}
@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.mediator.load;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import javax.websocket.CloseReason;
+import javax.websocket.DecodeException;
+import javax.websocket.Session;
+
+import org.gameontext.mediator.ClientMediator;
+import org.gameontext.mediator.Constants;
+import org.gameontext.mediator.Drain;
+import org.gameontext.mediator.Log;
+import org.gameontext.mediator.RoutedMessage;
+import org.gameontext.mediator.room.RoomMediator;
+
+/**
+ * A player: sends a command, waits for the first message back, waits a
+ * little (think time), and sends the next. The player is the drain of its
+ * {@link ClientMediator}, so it sees every message the mediator would write
+ * to the player's websocket.
+ * <p>
+ * Commands are ready (once), then a mix of chat, {@code /look},
+ * {@code /go}, {@code /sos}, and {@code /teleport} from the first room.
+ * </p>
+ */
+public class SimulatedPlayer implements Drain {
+
+    final String userId;
+    final LoadStats stats;
+    final ScheduledExecutorService executor;
+    final long thinkMillis;
+    final int rooms;
+
+    ClientMediator client;
+
+    /** {@link System#nanoTime()} when the outstanding command was sent, 0 if none */
+    final AtomicLong sentAt = new AtomicLong();
+
+    volatile boolean running = true;
+
+    /**
+     * @param userId
+     * @param stats
+     *            Where round trips are recorded
+     * @param executor
+     *            Runs the player's commands
+     * @param thinkMillis
+     *            Mean time between a response and the next command
+     * @param rooms
+     *            Number of rooms to teleport to
+     */
+    public SimulatedPlayer(String userId, LoadStats stats, ScheduledExecutorService executor, long thinkMillis, int rooms) {
+        this.userId = userId;
+        this.stats = stats;
+        this.executor = executor;
+        this.thinkMillis = thinkMillis;
+        this.rooms = rooms;
+    }
+
+    /**
+     * Connect: send the ready message, as a client does once its websocket is open.
+     *
+     * @param client
+     *            Client mediator of this player (with this player as its drain)
+     */
+    public void ready(ClientMediator client) {
+        this.client = client;
+        stats.connected.increment();
+        executor.execute(() -> {
+            RoutedMessage ready = message("ready,{\"username\":\"" + userId + "\",\"userId\":\"" + userId
+                    + "\",\"roomId\":\"" + Constants.FIRST_ROOM + "\"}");
+            sentAt.set(System.nanoTime());
+            stats.commands.increment();
+            client.ready(ready);
+        });
+    }
+
+    /** Stop sending commands, and disconnect */
+    public void disconnect() {
+        running = false;
+        if ( client != null ) {
+            client.destroy();
+            stats.connected.decrement();
+        }
+    }
+
+    /**
+     * Give up waiting for a response, and send the next command.
+     *
+     * @param now
+     *            {@link System#nanoTime()}
+     * @param timeoutNanos
+     */
+    public void checkTimeout(long now, long timeoutNanos) {
+        long sent = sentAt.get();
+        if ( sent != 0 && now - sent > timeoutNanos && sentAt.compareAndSet(sent, 0) ) {
+            stats.timeouts.increment();
+            next();
+        }
+    }
+
+    void next() {
+        if ( !running ) {
+            return;
+        }
+        long think = thinkMillis <= 0 ? 0 : ThreadLocalRandom.current().nextLong(thinkMillis * 2);
+        executor.schedule(this::command, think, TimeUnit.MILLISECONDS);
+    }
+
+    void command() {
+        if ( !running ) {
+            return;
+        }
+        RoomMediator room = client.getRoomMediator();
+        if ( room == null ) {
+            next();
+            return;
+        }
+
+        String content;
+        if ( room.getType() == RoomMediator.Type.FIRST_ROOM ) {
+            content = "/teleport room-" + ThreadLocalRandom.current().nextInt(rooms);
+        } else {
+            int dice = ThreadLocalRandom.current().nextInt(100);
+            if ( dice < 55 ) {
+                content = "hello from " + userId;
+            } else if ( dice < 70 ) {
+                content = "/look";
+            } else if ( dice < 97 ) {
+                content = "/go " + "NSEW".charAt(ThreadLocalRandom.current().nextInt(4));
+            } else {
+                sendCommand(message("sos,*,{\"username\":\"" + userId + "\",\"userId\":\"" + userId + "\"}"));
+                return;
+            }
+        }
+        sendCommand(message("room," + room.getId() + ",{\"username\":\"" + userId + "\",\"userId\":\"" + userId
+                + "\",\"content\":\"" + content + "\"}"));
+    }
+
+    void sendCommand(RoutedMessage message) {
+        message.setIngressTime(System.nanoTime());
+        sentAt.set(message.getIngressTime());
+        stats.commands.increment();
+        try {
+            client.handleMessage(message);
+        } catch (RuntimeException e) {
+            Log.log(Level.WARNING, this, "Command failed: {0}", e);
+        }
+    }
+
+    /** A message for the player: complete the outstanding command */
+    @Override
+    public void send(RoutedMessage message) {
+        stats.received.increment();
+        long sent = sentAt.get();
+        if ( sent != 0 && sentAt.compareAndSet(sent, 0) ) {
+            stats.roundTrip(System.nanoTime() - sent);
+            next();
+        }
+    }
+
+    @Override
+    public void close(CloseReason reason) {
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void start(Session session) {
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    static RoutedMessage message(String text) {
+        try {
+            return new RoutedMessage(text);
+        } catch (DecodeException e) {
+            throw new IllegalArgumentException(text, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "[" + userId + "]";
+    }
+}